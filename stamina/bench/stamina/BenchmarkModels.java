@@ -0,0 +1,114 @@
+package stamina;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import parser.Values;
+import parser.ast.ModulesFile;
+import parser.ast.PropertiesFile;
+import prism.Prism;
+import prism.PrismDevNullLog;
+import prism.PrismException;
+
+/**
+ * The models the benchmarks run on, from {@code bench/models} (or the directory in the
+ * {@code stamina.bench.models} system property). Each model has one constant that sets its
+ * size, and a properties file of the same name.
+ */
+final class BenchmarkModels {
+	private static final String MODEL_DIRECTORY = System.getProperty("stamina.bench.models", "bench/models");
+
+	private BenchmarkModels() {
+	}
+
+	/**
+	 * Gets the name of the constant that sets the size of a model.
+	 * @param model The name of the model.
+	 * @return The name of the constant.
+	 */
+	static String sizeConstant(String model) {
+		switch (model) {
+		case "tandem":
+			return "c";
+		case "birthdeath":
+			return "n";
+		default:
+			throw new IllegalArgumentException("Unknown benchmark model " + model);
+		}
+	}
+
+	/**
+	 * Creates a PRISM instance that logs nothing.
+	 * @return The PRISM instance.
+	 * @throws PrismException
+	 */
+	static Prism newPrism() throws PrismException {
+		Prism prism = new Prism(new PrismDevNullLog());
+		prism.initialise();
+		return prism;
+	}
+
+	/**
+	 * Parses a model and sets its size.
+	 * @param prism The PRISM instance.
+	 * @param model The name of the model.
+	 * @param size The value of the constant that sets its size.
+	 * @return The model, with its constants set.
+	 * @throws PrismException
+	 * @throws FileNotFoundException
+	 */
+	static ModulesFile load(Prism prism, String model, int size) throws PrismException, FileNotFoundException {
+		ModulesFile modulesFile = prism.parseModelFile(modelFile(model));
+		modulesFile.setSomeUndefinedConstants(constants(model, size));
+		return modulesFile;
+	}
+
+	/**
+	 * Gets the values of the constants of a model of a given size.
+	 * @param model The name of the model.
+	 * @param size The value of the constant that sets its size.
+	 * @return The constant values.
+	 */
+	static Values constants(String model, int size) {
+		Values values = new Values();
+		values.addValue(sizeConstant(model), size);
+		return values;
+	}
+
+	/**
+	 * Parses the properties of a model.
+	 * @param prism The PRISM instance.
+	 * @param modulesFile The model.
+	 * @param model The name of the model.
+	 * @return The properties.
+	 * @throws PrismException
+	 * @throws FileNotFoundException
+	 */
+	static PropertiesFile loadProperties(Prism prism, ModulesFile modulesFile, String model) throws PrismException, FileNotFoundException {
+		return prism.parsePropertiesFile(modulesFile, new File(MODEL_DIRECTORY, model + ".csl"));
+	}
+
+	/**
+	 * Gets the file of a model.
+	 * @param model The name of the model.
+	 * @return The model file.
+	 */
+	static File modelFile(String model) {
+		return new File(MODEL_DIRECTORY, model + ".sm");
+	}
+
+	/**
+	 * Creates a generator for a model and explores it.
+	 * @param prism The PRISM instance (for logs and settings).
+	 * @param modulesFile The model, with its constants set.
+	 * @param options The options to explore with.
+	 * @return The generator, after one reachability analysis.
+	 * @throws PrismException
+	 */
+	static StaminaModelGenerator explore(Prism prism, ModulesFile modulesFile, Options options) throws PrismException {
+		StaminaModelGenerator generator = new StaminaModelGenerator(modulesFile, prism, options, null);
+		generator.setReachabilityThreshold(options.getReachabilityThreshold());
+		generator.doReachabilityAnalysis();
+		return generator;
+	}
+}
@@ -0,0 +1,244 @@
+package stamina;
+
+import java.io.FileNotFoundException;
+
+import explicit.CTMCModelChecker;
+import explicit.CTMCSimple;
+import explicit.StateValues;
+import parser.State;
+import parser.ast.ExpressionProb;
+import parser.ast.ExpressionTemporal;
+import parser.ast.ModulesFile;
+import parser.ast.PropertiesFile;
+import prism.Prism;
+import prism.PrismException;
+
+/**
+ * Checks, on the benchmark models, that the engines which promise the same results as a
+ * reference engine give them:
+ * <ul>
+ * <li>Exploring with several threads and {@code -deterministic} gives exactly the states, the
+ * reachability of each state and the bounds of each property that the single-threaded search
+ * gives.</li>
+ * <li>The native transient engine ({@code -transientEngine stamina}), on one thread and on
+ * several, gives the distribution PRISM's {@code doTransient()} gives on the same truncated
+ * CTMC at the time bound of each property, to within the engine's accuracy in every state.</li>
+ * </ul>
+ * Unlike the benchmarks, nothing is timed. Run it with {@code make consistency} (or
+ * {@code gradle consistency}); the exit status is 1 if a check fails.
+ */
+public class ConsistencyCheck {
+	private static final String[] MODELS = { "tandem", "birthdeath" };
+	// The value of the size constant of each model
+	private static final int SIZE = 16;
+	// The number of threads parallel exploration is checked with
+	private static final int THREADS = 4;
+	// The number of differing states logged per comparison
+	private static final int MAX_LOGGED = 10;
+
+	private int failures = 0;
+
+	/**
+	 * Runs every check on every benchmark model.
+	 * @param args Not used.
+	 */
+	public static void main(String[] args) {
+		ConsistencyCheck check = new ConsistencyCheck();
+		try {
+			for (String model : MODELS) {
+				check.checkDeterministicExploration(model);
+				check.checkTransientEngine(model);
+			}
+		}
+		catch (PrismException | FileNotFoundException e) {
+			StaminaLog.errorAndExit(e.getMessage(), StaminaLog.GENERAL_ERROR);
+		}
+		if (check.failures > 0) {
+			StaminaLog.error(check.failures + " consistency checks failed");
+			StaminaLog.flushLogs();
+			System.exit(1);
+		}
+		StaminaLog.log("All consistency checks passed");
+		StaminaLog.flushLogs();
+		System.exit(0);
+	}
+
+	/**
+	 * Checks each property of a model with a single exploration thread, and again with several
+	 * in deterministic mode, and compares the explored state spaces and the bounds.
+	 */
+	private void checkDeterministicExploration(String model) throws PrismException, FileNotFoundException {
+		Options sequential = Options.builder().setNumThreads(1).setResultsFileName(null).build();
+		Options parallel = sequential.toBuilder().setNumThreads(THREADS).setDeterministicExploration(true).build();
+		int numProperties = numProperties(model);
+		for (int p = 0; p < numProperties; p++) {
+			String name = model + " property " + (p + 1) + ", 1 thread against " + THREADS + " deterministic";
+			StaminaModelChecker expected = check(model, p, sequential);
+			StaminaModelChecker actual = null;
+			try {
+				actual = check(model, p, parallel);
+				compare(name, expected, actual);
+			}
+			finally {
+				expected.closeDown();
+				if (actual != null) {
+					actual.closeDown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the truncated CTMC of a model once, and compares the transient distribution of the
+	 * native engine with PRISM's at the time bound of each property.
+	 */
+	private void checkTransientEngine(String model) throws PrismException, FileNotFoundException {
+		Prism prism = BenchmarkModels.newPrism();
+		StaminaModelGenerator generator = null;
+		try {
+			ModulesFile modulesFile = BenchmarkModels.load(prism, model, SIZE);
+			PropertiesFile propertiesFile = BenchmarkModels.loadProperties(prism, modulesFile, model);
+			Options options = Options.builder().setNumThreads(THREADS).setDirectModelBuild(true).build();
+			generator = BenchmarkModels.explore(prism, modulesFile, options);
+			SparseCTMC truncatedModel = generator.buildTruncatedModel();
+			CTMCSimple builtModel = truncatedModel.toCTMCSimple(generator.getConstantValues(), generator.getLabelList());
+			CTMCModelChecker mcCTMC = new CTMCModelChecker(prism);
+			double accuracy = options.getTransientAccuracy();
+			for (int p = 0; p < propertiesFile.getNumProperties(); p++) {
+				ExpressionTemporal exprTemp = (ExpressionTemporal) ((ExpressionProb) propertiesFile.getPropertyObject(p).getExpression()).getExpression();
+				double time = exprTemp.getUpperBound().evaluateDouble(propertiesFile.getConstantValues());
+				StateValues expected = mcCTMC.doTransient(builtModel, time);
+				String name = model + " at time " + time + ", native transient engine on ";
+				compare(name + "1 thread", expected, new UniformisationSolver(null).computeTransientProbs(truncatedModel, time, accuracy), accuracy);
+				compare(name + THREADS + " threads", expected
+					, new UniformisationSolver(generator.getExplorationPool()).computeTransientProbs(truncatedModel, time, accuracy), accuracy);
+			}
+		}
+		finally {
+			if (generator != null) {
+				generator.shutDown();
+			}
+			prism.closeDown();
+		}
+	}
+
+	/**
+	 * Compares a transient distribution with PRISM's, which it must match in every state to
+	 * within a tolerance.
+	 */
+	private void compare(String name, StateValues expected, double[] actual, double tolerance) {
+		int differences = 0;
+		double maxDifference = 0;
+		for (int s = 0; s < actual.length; s++) {
+			double difference = Math.abs(actual[s] - (double) expected.getValue(s));
+			maxDifference = Math.max(maxDifference, difference);
+			// Also catches a NaN
+			if (!(difference <= tolerance)) {
+				if (++differences <= MAX_LOGGED) {
+					StaminaLog.error(name + ": state " + s + ": " + actual[s] + " against " + expected.getValue(s));
+				}
+			}
+		}
+		StaminaLog.log(name + ": largest difference " + maxDifference + " (tolerance " + tolerance + ")");
+		report(name, differences);
+	}
+
+	/**
+	 * Compares the explored state spaces and the statistics of two checkers, which must be identical.
+	 */
+	private void compare(String name, StaminaModelChecker expected, StaminaModelChecker actual) {
+		int differences = 0;
+		RunStatistics a = expected.getStatistics();
+		RunStatistics b = actual.getStatistics();
+		differences += differ(name, "states explored", a.getStatesExplored(), b.getStatesExplored());
+		differences += differ(name, "refinements", a.getRefinements(), b.getRefinements());
+		differences += differ(name, "lower bound", a.getLowerBound(), b.getLowerBound());
+		differences += differ(name, "upper bound", a.getUpperBound(), b.getUpperBound());
+
+		PackedStateIndex expectedStates = expected.getStaminaModelGenerator().getGlobalStateSet();
+		PackedStateIndex actualStates = actual.getStaminaModelGenerator().getGlobalStateSet();
+		differences += differ(name, "state set size", expectedStates.size(), actualStates.size());
+		for (int id = 0; id < expectedStates.size(); id++) {
+			State state = expectedStates.getState(id);
+			int other = actualStates.find(state);
+			String difference = null;
+			if (other < 0) {
+				difference = "missing";
+			}
+			else if (Double.compare(expectedStates.getReachability(id), actualStates.getReachability(other)) != 0) {
+				difference = "reachability " + expectedStates.getReachability(id) + " against " + actualStates.getReachability(other);
+			}
+			else if (expectedStates.isTerminal(id) != actualStates.isTerminal(other)
+				|| expectedStates.isAbsorbing(id) != actualStates.isAbsorbing(other)) {
+				difference = "terminal or absorbing flag differs";
+			}
+			if (difference != null) {
+				if (++differences <= MAX_LOGGED) {
+					StaminaLog.error(name + ": state " + state + ": " + difference);
+				}
+			}
+		}
+		report(name, differences);
+	}
+
+	/**
+	 * Logs a value that differs between two runs.
+	 * @return 1 if the values differ, 0 if not.
+	 */
+	private static int differ(String name, String what, double expected, double actual) {
+		if (Double.compare(expected, actual) == 0) {
+			return 0;
+		}
+		StaminaLog.error(name + ": " + what + " " + expected + " against " + actual);
+		return 1;
+	}
+
+	/**
+	 * Counts a check as failed if anything differed, and logs its outcome.
+	 */
+	private void report(String name, int differences) {
+		if (differences > 0) {
+			StaminaLog.error(name + ": FAILED with " + differences + " differences");
+			failures++;
+		}
+		else {
+			StaminaLog.log(name + ": passed");
+		}
+	}
+
+	/**
+	 * Checks one property of a model on a checker of its own, as a single run would.
+	 * @return The checker, which the caller closes down.
+	 */
+	private static StaminaModelChecker check(String model, int property, Options options) throws PrismException, FileNotFoundException {
+		StaminaModelChecker checker = new StaminaModelChecker(options);
+		try {
+			ModulesFile modulesFile = checker.parseModelFile(BenchmarkModels.modelFile(model));
+			checker.loadPRISMModel(modulesFile);
+			checker.initialise();
+			checker.applyPrismSettings();
+			checker.setPRISMModelConstants(BenchmarkModels.constants(model, SIZE));
+			PropertiesFile propertiesFile = BenchmarkModels.loadProperties(checker, modulesFile, model);
+			checker.modelCheckStamina(propertiesFile, propertiesFile.getPropertyObject(property));
+			return checker;
+		}
+		catch (PrismException | FileNotFoundException | RuntimeException e) {
+			checker.closeDown();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the number of properties of a model.
+	 */
+	private static int numProperties(String model) throws PrismException, FileNotFoundException {
+		Prism prism = BenchmarkModels.newPrism();
+		try {
+			ModulesFile modulesFile = BenchmarkModels.load(prism, model, SIZE);
+			return BenchmarkModels.loadProperties(prism, modulesFile, model).getNumProperties();
+		}
+		finally {
+			prism.closeDown();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package stamina;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import parser.ast.Expression;
+import parser.ast.ModulesFile;
+import parser.ast.PropertiesFile;
+
+/**
+ * {@link StaminaModelChecker#modifyExpression(Expression, boolean)}, which rewrites a property
+ * into the ones giving its lower and upper bound, on the properties of each model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExpressionBenchmark {
+	@Param({ "tandem", "birthdeath" })
+	public String model;
+
+	private StaminaModelChecker checker;
+	private Expression property;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		checker = new StaminaModelChecker(Options.builder().build());
+		ModulesFile modulesFile = checker.parseModelFile(BenchmarkModels.modelFile(model));
+		checker.loadPRISMModel(modulesFile);
+		checker.initialise();
+		checker.setPRISMModelConstants(BenchmarkModels.constants(model, 8));
+		checker.loadStaminaModelGenerator();
+		PropertiesFile propertiesFile = BenchmarkModels.loadProperties(checker, modulesFile, model);
+		property = propertiesFile.getPropertyObject(0).getExpression();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		checker.closeDown();
+	}
+
+	@Benchmark
+	public Expression modifyMin() throws Exception {
+		Expression expr = property.deepCopy();
+		checker.modifyExpression(expr, true);
+		return expr;
+	}
+
+	@Benchmark
+	public Expression modifyMax() throws Exception {
+		Expression expr = property.deepCopy();
+		checker.modifyExpression(expr, false);
+		return expr;
+	}
+}
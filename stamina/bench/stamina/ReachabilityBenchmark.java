@@ -0,0 +1,97 @@
+package stamina;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.sun.management.ThreadMXBean;
+
+import parser.ast.ModulesFile;
+import prism.Prism;
+
+/**
+ * {@link StaminaModelGenerator#doReachabilityAnalysis()} from scratch, on models of growing
+ * size. Next to the explorations per second, the bytes allocated (by all threads) per explored
+ * state are reported as {@code bytesPerState}, from the JVM's per-thread allocation counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReachabilityBenchmark {
+	@Param({ "tandem", "birthdeath" })
+	public String model;
+
+	@Param({ "8", "32", "128" })
+	public int size;
+
+	@Param({ "1" })
+	public int threads;
+
+	private Prism prism;
+	private ModulesFile modulesFile;
+	private Options options;
+
+	/**
+	 * The bytes allocated per explored state over an iteration, reported next to the throughput.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Allocation {
+		private long states;
+		private long bytes;
+		public double bytesPerState;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			states = 0;
+			bytes = 0;
+			bytesPerState = 0;
+		}
+
+		void add(long exploredStates, long allocatedBytes) {
+			states += exploredStates;
+			bytes += allocatedBytes;
+			bytesPerState = states == 0 ? 0 : (double) bytes / states;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		prism = BenchmarkModels.newPrism();
+		modulesFile = BenchmarkModels.load(prism, model, size);
+		options = Options.builder().setNumThreads(threads).setTransitionCacheSize(0).build();
+	}
+
+	@Benchmark
+	public StaminaModelGenerator explore(Allocation allocation) throws Exception {
+		long before = allocatedBytes();
+		StaminaModelGenerator generator = BenchmarkModels.explore(prism, modulesFile, options);
+		allocation.add(generator.getGlobalStateSet().size(), allocatedBytes() - before);
+		generator.shutDown();
+		return generator;
+	}
+
+	/**
+	 * Gets the bytes allocated so far by all live threads, including the exploration threads.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (bytes > 0) {
+				total += bytes;
+			}
+		}
+		return total;
+	}
+}
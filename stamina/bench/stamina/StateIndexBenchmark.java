@@ -0,0 +1,99 @@
+package stamina;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import parser.VarList;
+import parser.ast.ModulesFile;
+import prism.Prism;
+
+/**
+ * The global state set on its own: hashing states and adding them to a {@link PackedStateIndex},
+ * looking them up again, and the reachability updates the exploration makes to its columns.
+ * The states are those of an explored model, in the order they were found.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StateIndexBenchmark {
+	@Param({ "tandem", "birthdeath" })
+	public String model;
+
+	@Param({ "32", "128" })
+	public int size;
+
+	private VarList varList;
+	private parser.State[] states;
+	private PackedStateIndex filled;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Prism prism = BenchmarkModels.newPrism();
+		ModulesFile modulesFile = BenchmarkModels.load(prism, model, size);
+		StaminaModelGenerator generator = BenchmarkModels.explore(prism, modulesFile, Options.builder().build());
+		PackedStateIndex explored = generator.getGlobalStateSet();
+		states = new parser.State[explored.size()];
+		for (int id = 0; id < states.length; id++) {
+			states[id] = explored.getState(id);
+		}
+		varList = modulesFile.createVarList();
+		filled = new PackedStateIndex(varList, false, null);
+		for (parser.State state : states) {
+			filled.findOrAdd(state);
+		}
+	}
+
+	/**
+	 * Adds every state to an empty index.
+	 */
+	@Benchmark
+	public PackedStateIndex insert() {
+		PackedStateIndex index = new PackedStateIndex(varList, false, null);
+		for (parser.State state : states) {
+			index.findOrAdd(state);
+		}
+		return index;
+	}
+
+	/**
+	 * Looks every state up in a full index.
+	 */
+	@Benchmark
+	public void lookup(Blackhole bh) {
+		for (parser.State state : states) {
+			bh.consume(filled.find(state));
+		}
+	}
+
+	/**
+	 * Spreads reachability from each state to the next and claims it, as a sweep of the
+	 * exploration does.
+	 */
+	@Benchmark
+	public void reachabilityUpdates(Blackhole bh) {
+		int n = filled.size();
+		filled.setReachability(0, 1.0);
+		for (int id = 0; id < n; id++) {
+			double reach = filled.claimForExpansion(id, 0.0);
+			if (!Double.isNaN(reach) && id + 1 < n) {
+				filled.addToReachability(id + 1, reach / 2);
+				filled.addToReachability((id * 7 + 1) % n, reach / 2);
+			}
+			bh.consume(reach);
+		}
+		for (int id = 0; id < n; id++) {
+			filled.setTerminal(id, true);
+			filled.setReachability(id, 0.0);
+		}
+	}
+}
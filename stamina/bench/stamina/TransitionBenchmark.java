@@ -0,0 +1,109 @@
+package stamina;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import parser.ast.ModulesFile;
+import prism.Prism;
+
+/**
+ * Work done on the transitions of an explored model: computing the target of every
+ * transition with {@link StaminaModelGenerator#computeTransitionTarget(int, int)}, expanding
+ * every state with PRISM's updater and with the {@link CompiledCommands} behind
+ * {@code -compileCommands}, and writing them all out with the {@link TransitionExporter}
+ * behind {@code -exportTrans}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransitionBenchmark {
+	@Param({ "tandem", "birthdeath" })
+	public String model;
+
+	@Param({ "32", "128" })
+	public int size;
+
+	private StaminaModelGenerator generator;
+	private parser.State[] states;
+	private CompiledCommands compiledCommands;
+	private File exportFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Prism prism = BenchmarkModels.newPrism();
+		ModulesFile modulesFile = BenchmarkModels.load(prism, model, size);
+		generator = BenchmarkModels.explore(prism, modulesFile, Options.builder().build());
+		PackedStateIndex explored = generator.getGlobalStateSet();
+		states = new parser.State[explored.size()];
+		for (int id = 0; id < states.length; id++) {
+			states[id] = explored.getState(id);
+		}
+		ModulesFile constantFree = generator.getPRISMModel();
+		compiledCommands = CompiledCommands.compile(constantFree, constantFree.createVarList());
+		exportFile = Files.createTempFile("stamina-bench-", ".trans").toFile();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		exportFile.delete();
+	}
+
+	/**
+	 * Computes the target of every transition of every explored state.
+	 */
+	@Benchmark
+	public void computeTransitionTargets(Blackhole bh) throws Exception {
+		for (parser.State state : states) {
+			generator.exploreState(state);
+			int nc = generator.getNumChoices();
+			for (int i = 0; i < nc; i++) {
+				int nt = generator.getNumTransitions(i);
+				for (int j = 0; j < nt; j++) {
+					bh.consume(generator.computeTransitionTarget(i, j));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Expands every explored state with PRISM's updater, as exploration does by default.
+	 */
+	@Benchmark
+	public void expandInterpreted(Blackhole bh) throws Exception {
+		for (parser.State state : states) {
+			bh.consume(StateExpansion.of(generator, state));
+		}
+	}
+
+	/**
+	 * Expands every explored state with the compiled commands, as exploration does with
+	 * {@code -compileCommands}.
+	 */
+	@Benchmark
+	public void expandCompiled(Blackhole bh) throws Exception {
+		for (parser.State state : states) {
+			bh.consume(compiledCommands.expand(state));
+		}
+	}
+
+	/**
+	 * Writes every transition in PRISM's order, as {@code -exportTrans} does.
+	 */
+	@Benchmark
+	public void exportTransitions() throws Exception {
+		new TransitionExporter(generator).export(exportFile.getPath());
+	}
+}
@@ -1,5 +1,6 @@
 package stamina;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.function.Consumer;
@@ -29,6 +30,8 @@ class ArgumentParser {
 	private ArrayList<Argument<Object>> orderedFlags;
 	// The non-flagged arguments we support, in order
 	private ArrayList<Argument<Object>> arguments;
+	// The options being filled in from the arguments
+	private final Options.Builder options = Options.builder();
 
 	public enum ArgumentType {
 		DOUBLE
@@ -118,13 +121,13 @@ class ArgumentParser {
 		addArgument("MODEL FILE"
 			, "Prism model file. Extensions: .prism, .sm"
 			, (Consumer<String>) model -> {
-				Options.setModelFileName(model);
+				options.setModelFileName(model);
 			}
 		);
 		addArgument("PROPERTIES FILE"
 			, "Property file. Extensions: .csl"
 			, (Consumer<String>) prop -> {
-				Options.setPropertyFileName(prop);
+				options.setPropertyFileName(prop);
 			}
 		);
 		// These are the possible flags, in order of importance
@@ -136,7 +139,7 @@ class ArgumentParser {
 				if (kappa < 0 || kappa >= 1) {
 					StaminaLog.errorAndExit("Reachability threshold 'kappa' should be in the range [0, 1)!", 1);
 				}
-				Options.setReachabilityThreshold(kappa);
+				options.setReachabilityThreshold(kappa);
 			}
 		);
 		addFlag("rKappa"
@@ -147,7 +150,7 @@ class ArgumentParser {
 				if (rKappa <= 1) {
 					StaminaLog.errorAndExit("Reduction factor 'rKappa' must be greater than 1!", 1);
 				}
-				Options.setKappaReductionFactor(rKappa);
+				options.setKappaReductionFactor(rKappa);
 			}
 		);
 		addFlag("approxFactor"
@@ -158,7 +161,7 @@ class ArgumentParser {
 				if (approxFactor < 0) {
 					StaminaLog.errorAndExit("Misprediction factor 'approxFactor' should be greater than or equal to 0!", 1);
 				}
-				Options.setMispredictionFactor(approxFactor);
+				options.setMispredictionFactor(approxFactor);
 			}
 		);
 		addFlag("probWin"
@@ -169,44 +172,44 @@ class ArgumentParser {
 				if (window <= 0 || window >= 1) {
 					StaminaLog.errorAndExit("Probability window 'probWin' should be in the range (0, 1)!", 1);
 				}
-				Options.setProbErrorWindow(window);
+				options.setProbErrorWindow(window);
 			}
 		);
 		addFlag("cuddMaxMemory"
 			, ArgumentType.STRING
 			, "Maximum cudd memory. Expects the same format as PRISM [default: \"1g\"]"
-			, (Consumer<String>) mem -> { Options.setCuddMemoryLimit(mem); }
+			, (Consumer<String>) mem -> { options.setCuddMemoryLimit(mem); }
 		);
 		addFlag("export"
 			, ArgumentType.STRING
 			, "Export model to a series of files with provided name (no extension)"
 			, (Consumer<String>) filename -> {
-				Options.setExportModel(true);
-				Options.setExportFileName(filename);
+				options.setExportModel(true);
+				options.setExportFileName(filename);
 			}
 		);
 		addFlag("exportPerimeterStates"
 			, ArgumentType.STRING
 			, "Export perimeter states to a file. Please provide a filename. This will append to the file if it is existing."
 			, (Consumer<String>) filename -> {
-				Options.setExportPerimeterStates(true);
-				Options.setExportPerimeterFilename(filename);
+				options.setExportPerimeterStates(true);
+				options.setExportPerimeterFilename(filename);
 			}
 		);
 		addFlag("import"
 			, ArgumentType.STRING
 			, "Import model to a file. Please provide a filename without an extension"
 			, (Consumer<String>) filename -> {
-				Options.setImportModel(true);
-				Options.setImportFileName(filename);
+				options.setImportModel(true);
+				options.setImportFileName(filename);
 			}
 		);
 		addFlag("property"
 			, ArgumentType.STRING
 			, "Choose a specific property to check in a model file that contains many"
 			, (Consumer<String>) name -> {
-				Options.setSpecificProperty(true);
-				Options.setPropertyName(name);
+				options.setSpecificProperty(true);
+				options.setPropertyName(name);
 			}
 		);
 		addFlag(
@@ -214,7 +217,7 @@ class ArgumentParser {
 			, ArgumentType.NONE
 			, "Do not use property based refinement. If given, model exploration method will reduce the"
 				+ " kappa and do the property independent refinement. [default: off]"
-			, p -> { Options.setNoPropRefine(true); }
+			, p -> { options.setNoPropRefine(true); }
 		);
 		addFlag("maxApproxCount"
 			, ArgumentType.INTEGER
@@ -224,7 +227,7 @@ class ArgumentParser {
 				if (maxApproxCount <= 0) {
 					StaminaLog.errorAndExit("Parameter 'maxApproxCount' must be greater than 0!", 1);
 				}
-				Options.setMaxRefinementCount(maxApproxCount);
+				options.setMaxRefinementCount(maxApproxCount);
 			}
 		);
 		addFlag("maxIters"
@@ -235,7 +238,7 @@ class ArgumentParser {
 				if (maxIters <= 0) {
 					StaminaLog.errorAndExit("Parameter 'maxIters' must be greater than 0!", 1);
 				}
-				Options.setMaxIterations(maxIters);
+				options.setMaxIterations(maxIters);
 			}
 		);
 		addFlag("method"
@@ -243,16 +246,16 @@ class ArgumentParser {
 			, "Method to solve CTMC. Supported methods are 'power', 'jacobi', 'gaussseidel', and 'bgaussseidel'."
 			, (Consumer<String>) method -> {
 				if (method.equals("power")) {
-					Options.setMethod(Prism.POWER);
+					options.setMethod(Prism.POWER);
 				}
 				else if (method.equals("jacobi")) {
-					Options.setMethod(Prism.JACOBI);
+					options.setMethod(Prism.JACOBI);
 				}
 				else if (method.equals("gaussseidel")) {
-					Options.setMethod(Prism.GAUSSSEIDEL);
+					options.setMethod(Prism.GAUSSSEIDEL);
 				}
 				else if (method.equals("bgaussseidel")) {
-					Options.setMethod(Prism.BGAUSSSEIDEL);
+					options.setMethod(Prism.BGAUSSSEIDEL);
 				}
 				else {
 					StaminaLog.errorAndExit("Method '" + method + "' is not supported!", 1);
@@ -263,14 +266,15 @@ class ArgumentParser {
 			, ArgumentType.STRING
 			, "Comma separated values for constants (ex: \"a=1,b=5.6,c=true\")"
 			, (Consumer<String>) consts -> {
-				Options.appendUndefinedConsts(consts);
+				options.appendUndefinedConsts(consts);
 			}
 		);
 		addFlag("rankTransitions"
 			, ArgumentType.NONE
-			, "Rank transitions before expanding [default: false]"
+			, "Rank transitions before expanding, exploring the states with the most probability mass"
+				+ " first (best-first) instead of breadth first [default: false]"
 			, rank -> {
-				Options.setRankTransitions(true);
+				options.setRankTransitions(true);
 			}
 		);
 		addFlag(
@@ -279,7 +283,7 @@ class ArgumentParser {
 			, "Export the list of transitions and actions to a specified file name, or to trans.txt if no file name is "
 				+ "specified. Transitions exported in the format srcStateIndex destStateIndex actionLabel"
 			, (Consumer<String>) filename -> {
-				Options.setExportTransitionsToFile(filename);
+				options.setExportTransitionsToFile(filename);
 			}
 		);
 		// Allow default value if no value provided to flag
@@ -287,7 +291,154 @@ class ArgumentParser {
 		addFlag("mrmc"
 			, ArgumentType.NONE
 			, "Exports an MRMC file, only works if `export` also selected"
-			, b -> { Options.setMrmc(true); }
+			, b -> { options.setMrmc(true); }
+		);
+		addFlag("threads"
+			, ArgumentType.INTEGER
+			, "Number of worker threads used to explore the state space. [default: 1]"
+			, (Consumer<Integer>) t -> {
+				int threads = t.intValue();
+				if (threads <= 0) {
+					StaminaLog.errorAndExit("Parameter 'threads' must be greater than 0!", 1);
+				}
+				options.setNumThreads(threads);
+			}
+		);
+		addFlag("deterministic"
+			, ArgumentType.NONE
+			, "When using more than one thread, explore states in the same order as the single-threaded"
+				+ " search so the state set and bounds are identical to it. [default: off]"
+			, d -> { options.setDeterministicExploration(true); }
+		);
+		addFlag("incremental"
+			, ArgumentType.NONE
+			, "Restart each kappa refinement only from the perimeter states and the states whose"
+				+ " reachability changed, instead of from the initial state. [default: off]"
+			, i -> { options.setIncrementalRefinement(true); }
+		);
+		addFlag("transitionCache"
+			, ArgumentType.INTEGER
+			, "Memory (in MB) for caching the transitions of explored states so they are not"
+				+ " recomputed every refinement. 0 disables the cache. [default: 0]"
+			, (Consumer<Integer>) mb -> {
+				if (mb.intValue() < 0) {
+					StaminaLog.errorAndExit("Parameter 'transitionCache' must not be negative!", 1);
+				}
+				options.setTransitionCacheSize(mb.intValue());
+			}
+		);
+		addFlag("mappedStateStore"
+			, ArgumentType.STRING
+			, "Keep the explored state set in memory-mapped files in the given directory instead of on"
+				+ " the Java heap, for models too large for the heap. [default: off]"
+			, (Consumer<String>) dir -> {
+				if (!new File(dir).isDirectory()) {
+					StaminaLog.errorAndExit("Parameter 'mappedStateStore' must be an existing directory!", 1);
+				}
+				options.setMappedStateStoreDirectory(dir);
+			}
+		);
+		addFlag("directBuild"
+			, ArgumentType.NONE
+			, "Build the truncated CTMC straight from the explored state set instead of having PRISM"
+				+ " explore the model again. Not used with importModel or exportModel. [default: off]"
+			, d -> { options.setDirectModelBuild(true); }
+		);
+		addFlag("transientEngine"
+			, ArgumentType.STRING
+			, "Engine for transient analysis: 'prism' or 'stamina' (parallel uniformisation, which"
+				+ " implies directBuild). [default: prism]"
+			, (Consumer<String>) engine -> {
+				if (engine.equals("stamina")) {
+					options.setNativeTransientEngine(true);
+					options.setDirectModelBuild(true);
+				}
+				else if (engine.equals("prism")) {
+					options.setNativeTransientEngine(false);
+				}
+				else {
+					StaminaLog.errorAndExit("Transient engine '" + engine + "' is not supported!", 1);
+				}
+			}
+		);
+		addFlag("transientAccuracy"
+			, ArgumentType.DOUBLE
+			, "Accuracy of the Fox-Glynn truncation of the 'stamina' transient engine. [default: 1.0e-6]"
+			, (Consumer<Double>) acc -> {
+				double accuracy = acc.doubleValue();
+				if (accuracy <= 0 || accuracy >= 1) {
+					StaminaLog.errorAndExit("Parameter 'transientAccuracy' should be in the range (0, 1)!", 1);
+				}
+				options.setTransientAccuracy(accuracy);
+			}
+		);
+		addFlag("dualBound"
+			, ArgumentType.NONE
+			, "Compute the lower and upper bound of until and eventually properties that are not refined"
+				+ " for (e.g. with noPropRefine) in one pass, instead of checking two modified properties. [default: off]"
+			, d -> { options.setDualBound(true); }
+		);
+		addFlag("batch"
+			, ArgumentType.NONE
+			, "Check all until and eventually properties together over one truncated state space, which"
+				+ " keeps the states any of them needs and is refined until every window closes. [default: off]"
+			, b -> { options.setBatchProperties(true); }
+		);
+		addFlag("sweepThreads"
+			, ArgumentType.INTEGER
+			, "Number of points of a constant sweep (constants with ranges) checked in parallel, each on"
+				+ " its own model checker. Points wait for free memory before starting. [default: 1]"
+			, (Consumer<Integer>) n -> {
+				if (n.intValue() < 1) {
+					StaminaLog.errorAndExit("Parameter 'sweepThreads' must be at least 1!", 1);
+				}
+				options.setSweepThreads(n.intValue());
+			}
+		);
+		addFlag("snapshotDir"
+			, ArgumentType.STRING
+			, "Write snapshots of the explored state space to the given directory during exploration, and"
+				+ " carry on from a snapshot of the same model, constants and property if there is one. [default: off]"
+			, (Consumer<String>) dir -> {
+				if (!new File(dir).isDirectory()) {
+					StaminaLog.errorAndExit("Parameter 'snapshotDir' must be an existing directory!", 1);
+				}
+				options.setSnapshotDirectory(dir);
+			}
+		);
+		addFlag("binaryModel"
+			, ArgumentType.NONE
+			, "Export and import models in STAMINA's binary format (.tra.bin, .sta.bin, .lab.bin and"
+				+ " .srew.bin) instead of PRISM's text files. Implies directBuild. [default: off]"
+			, b -> {
+				options.setBinaryModel(true);
+				options.setDirectModelBuild(true);
+			}
+		);
+		addFlag("metricsReport"
+			, ArgumentType.STRING
+			, "Write a JSON report of each refinement and exploration sweep (states expanded, transitions,"
+				+ " hash probes, perimeter, time in each phase) to the given file at the end of the run. [default: off]"
+			, (Consumer<String>) file -> {
+				options.setMetricsReportFile(file);
+			}
+		);
+		addFlag("compileCommands"
+			, ArgumentType.NONE
+			, "Compile the guards, rates and updates of the model's commands for exploration instead of"
+				+ " evaluating them with PRISM's updater. Models using anything the compiler doesn't support"
+				+ " fall back to the updater. [default: off]"
+			, b -> {
+				options.setCompileCommands(true);
+			}
+		);
+		addFlag("resultsFile"
+			, ArgumentType.STRING
+			, "File the lower and upper bound of each property are written to, replacing those of the"
+				+ " property before. 'none' writes no results file. [default: results.txt]"
+			, (Consumer<String>) file -> {
+				options.setResultsFileName(file.equals("none") ? null : file);
+			}
 		);
 	}
 
@@ -374,6 +525,14 @@ class ArgumentParser {
 		}
 	}
 
+	/**
+	 * Gets the options given by the arguments parsed so far, with defaults for the rest.
+	 * @return The options.
+	 */
+	public Options getOptions() {
+		return options.build();
+	}
+
 	/**
 	 * Checks to see if the next argument is a value for a flag
 	 * @param args the argument list we are currently parsing.
@@ -0,0 +1,294 @@
+package stamina;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import parser.State;
+import prism.PrismException;
+
+/**
+ * STAMINA's binary format for the truncated CTMC, an alternative to PRISM's text files for
+ * {@code -export} and {@code -import}. A model is kept in four files, named like PRISM's with
+ * {@code .bin} added:
+ * <ul>
+ * <li>{@code .tra.bin}: the transitions in compressed sparse row form (row starts, target
+ * states and rates), and the initial state;</li>
+ * <li>{@code .sta.bin}: the variable names and the value of each variable in each state;</li>
+ * <li>{@code .lab.bin}: each label's name and the states it holds in, as a bitset;</li>
+ * <li>{@code .srew.bin}: each reward structure's name and the state reward of each state.</li>
+ * </ul>
+ * The files are written straight from a {@link SparseCTMC}, each on its own thread, with a
+ * {@link ChannelOutput}, and read back through memory mappings with a {@link MappedInput}, so
+ * no text is formatted or parsed either way. As in the truncated model, state 0 is the
+ * absorbing state.
+ */
+class BinaryModelFile {
+	// "STAMBMOD", followed by the kind of file
+	private static final long MAGIC = 0x5354414D424D4F44L;
+	private static final int VERSION = 1;
+	private static final int TRANSITIONS = 0;
+	private static final int STATES = 1;
+	private static final int LABELS = 2;
+	private static final int REWARDS = 3;
+	private static final String[] SUFFIXES = { ".tra.bin", ".sta.bin", ".lab.bin", ".srew.bin" };
+
+	private BinaryModelFile() {
+	}
+
+	/**
+	 * Writes a truncated CTMC. Its labels must have been evaluated, i.e.,
+	 * {@link SparseCTMC#toCTMCSimple(parser.Values, parser.ast.LabelList)} called since it last changed.
+	 * @param baseName The name of the files, without extension.
+	 * @param ctmc The truncated CTMC.
+	 * @param modelGen The generator of the model, for the variable names and state rewards.
+	 * @throws PrismException If a file can't be written.
+	 */
+	static void write(String baseName, final SparseCTMC ctmc, final StaminaModelGenerator modelGen) throws PrismException {
+		List<Callable<Void>> writers = new ArrayList<Callable<Void>>();
+		writers.add(() -> { writeTransitions(baseName, ctmc); return null; });
+		writers.add(() -> { writeStates(baseName, ctmc, modelGen); return null; });
+		writers.add(() -> { writeLabels(baseName, ctmc); return null; });
+		writers.add(() -> { writeRewards(baseName, ctmc, modelGen); return null; });
+		ExecutorService pool = Executors.newFixedThreadPool(writers.size());
+		try {
+			for (Future<Void> future : pool.invokeAll(writers)) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PrismException("Model export interrupted");
+		}
+		catch (ExecutionException e) {
+			throw new PrismException("Could not export model to " + baseName + ": " + e.getCause().getMessage());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Reads a truncated CTMC written by {@link #write(String, SparseCTMC, StaminaModelGenerator)}.
+	 * State rewards are not read, as STAMINA only checks probabilities.
+	 * @param baseName The name of the files, without extension.
+	 * @return The CTMC, with the labels it was written with.
+	 * @throws PrismException If a file can't be read, or the files don't belong together.
+	 */
+	static SparseCTMC read(String baseName) throws PrismException {
+		try {
+			int[] rowStarts;
+			int[] columns;
+			double[] rates;
+			int initialState;
+			try (FileChannel channel = open(baseName, TRANSITIONS)) {
+				MappedInput in = readHeader(channel, baseName, TRANSITIONS);
+				int numStates = in.getInt();
+				int numTransitions = in.getInt();
+				initialState = in.getInt();
+				rowStarts = new int[numStates + 1];
+				in.getInts(rowStarts);
+				columns = new int[numTransitions];
+				in.getInts(columns);
+				rates = new double[numTransitions];
+				in.getDoubles(rates);
+			}
+			int numStates = rowStarts.length - 1;
+
+			List<State> states = new ArrayList<State>(numStates);
+			try (FileChannel channel = open(baseName, STATES)) {
+				MappedInput in = readHeader(channel, baseName, STATES);
+				checkNumStates(in.getInt(), numStates, baseName, STATES);
+				int numVars = in.getInt();
+				boolean[] isBool = new boolean[numVars];
+				for (int var = 0; var < numVars; var++) {
+					in.getString();
+					isBool[var] = in.getInt() != 0;
+				}
+				int[] values = new int[numVars];
+				for (int s = 0; s < numStates; s++) {
+					in.getInts(values);
+					State state = new State(numVars);
+					for (int var = 0; var < numVars; var++) {
+						if (isBool[var]) {
+							state.setValue(var, values[var] != 0);
+						}
+						else {
+							state.setValue(var, values[var]);
+						}
+					}
+					states.add(state);
+				}
+			}
+
+			List<String> labelNames = new ArrayList<String>();
+			List<BitSet> labelStates = new ArrayList<BitSet>();
+			try (FileChannel channel = open(baseName, LABELS)) {
+				MappedInput in = readHeader(channel, baseName, LABELS);
+				checkNumStates(in.getInt(), numStates, baseName, LABELS);
+				int numLabels = in.getInt();
+				long[] words = new long[(numStates + 63) >>> 6];
+				for (int i = 0; i < numLabels; i++) {
+					labelNames.add(in.getString());
+					for (int w = 0; w < words.length; w++) {
+						words[w] = in.getLong();
+					}
+					labelStates.add(BitSet.valueOf(words));
+				}
+			}
+			return new SparseCTMC(initialState, rowStarts, columns, rates, states, labelNames, labelStates);
+		}
+		catch (IOException e) {
+			throw new PrismException("Could not import model from " + baseName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the total size of the files of a model.
+	 * @param baseName The name of the files, without extension.
+	 * @return The size in bytes, counting only the files that exist.
+	 */
+	static long size(String baseName) {
+		long size = 0;
+		for (int kind = 0; kind < SUFFIXES.length; kind++) {
+			size += file(baseName, kind).toFile().length();
+		}
+		return size;
+	}
+
+	private static void writeTransitions(String baseName, SparseCTMC ctmc) throws IOException {
+		try (FileChannel channel = create(baseName, TRANSITIONS)) {
+			ChannelOutput out = writeHeader(channel, TRANSITIONS);
+			int numStates = ctmc.getNumStates();
+			out.putInt(numStates);
+			out.putInt(ctmc.getNumTransitions());
+			out.putInt(ctmc.getInitialState());
+			// The rows may have gaps between them in the CTMC, but not in the file
+			int pos = 0;
+			for (int s = 0; s < numStates; s++) {
+				out.putInt(pos);
+				pos += ctmc.getRowEnd(s) - ctmc.getRowStart(s);
+			}
+			out.putInt(pos);
+			for (int s = 0; s < numStates; s++) {
+				for (int k = ctmc.getRowStart(s); k < ctmc.getRowEnd(s); k++) {
+					out.putInt(ctmc.getColumn(k));
+				}
+			}
+			for (int s = 0; s < numStates; s++) {
+				for (int k = ctmc.getRowStart(s); k < ctmc.getRowEnd(s); k++) {
+					out.putDouble(ctmc.getRate(k));
+				}
+			}
+			out.flush();
+		}
+	}
+
+	private static void writeStates(String baseName, SparseCTMC ctmc, StaminaModelGenerator modelGen) throws IOException {
+		try (FileChannel channel = create(baseName, STATES)) {
+			ChannelOutput out = writeHeader(channel, STATES);
+			List<State> states = ctmc.getStatesList();
+			int numVars = modelGen.getNumVars();
+			out.putInt(states.size());
+			out.putInt(numVars);
+			// The absorbing state (state 0) holds booleans as integers, so take the types from another
+			State typed = states.get(states.size() > 1 ? 1 : 0);
+			for (int var = 0; var < numVars; var++) {
+				out.putString(modelGen.getVarName(var));
+				out.putInt(typed.varValues[var] instanceof Boolean ? 1 : 0);
+			}
+			for (State state : states) {
+				for (Object value : state.varValues) {
+					out.putInt(value instanceof Boolean ? (((Boolean) value) ? 1 : 0) : (Integer) value);
+				}
+			}
+			out.flush();
+		}
+	}
+
+	private static void writeLabels(String baseName, SparseCTMC ctmc) throws IOException {
+		try (FileChannel channel = create(baseName, LABELS)) {
+			ChannelOutput out = writeHeader(channel, LABELS);
+			int numStates = ctmc.getNumStates();
+			List<String> names = ctmc.getLabelNames();
+			out.putInt(numStates);
+			out.putInt(names.size());
+			int numWords = (numStates + 63) >>> 6;
+			for (int i = 0; i < names.size(); i++) {
+				out.putString(names.get(i));
+				long[] words = ctmc.getLabelStates(i).toLongArray();
+				for (int w = 0; w < numWords; w++) {
+					out.putLong(w < words.length ? words[w] : 0L);
+				}
+			}
+			out.flush();
+		}
+	}
+
+	private static void writeRewards(String baseName, SparseCTMC ctmc, StaminaModelGenerator modelGen) throws IOException {
+		try (FileChannel channel = create(baseName, REWARDS)) {
+			ChannelOutput out = writeHeader(channel, REWARDS);
+			List<State> states = ctmc.getStatesList();
+			int numRewards = modelGen.getNumRewardStructs();
+			out.putInt(states.size());
+			out.putInt(numRewards);
+			for (int r = 0; r < numRewards; r++) {
+				out.putString(modelGen.getRewardStructNames().get(r));
+				// The absorbing state earns nothing
+				out.putDouble(0.0);
+				for (int s = 1; s < states.size(); s++) {
+					out.putDouble(modelGen.getStateReward(r, states.get(s)));
+				}
+			}
+			out.flush();
+		}
+		catch (PrismException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static FileChannel create(String baseName, int kind) throws IOException {
+		return FileChannel.open(file(baseName, kind), StandardOpenOption.CREATE, StandardOpenOption.WRITE
+			, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private static FileChannel open(String baseName, int kind) throws IOException {
+		return FileChannel.open(file(baseName, kind), StandardOpenOption.READ);
+	}
+
+	private static Path file(String baseName, int kind) {
+		return Paths.get(baseName + SUFFIXES[kind]);
+	}
+
+	private static ChannelOutput writeHeader(FileChannel channel, int kind) throws IOException {
+		ChannelOutput out = new ChannelOutput(channel);
+		out.putLong(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(kind);
+		return out;
+	}
+
+	private static MappedInput readHeader(FileChannel channel, String baseName, int kind) throws IOException {
+		MappedInput in = new MappedInput(channel, baseName + SUFFIXES[kind]);
+		if (in.getLong() != MAGIC || in.getInt() != VERSION || in.getInt() != kind) {
+			throw new IOException(baseName + SUFFIXES[kind] + " is not a STAMINA binary model file");
+		}
+		return in;
+	}
+
+	private static void checkNumStates(int found, int numStates, String baseName, int kind) throws IOException {
+		if (found != numStates) {
+			throw new IOException(baseName + SUFFIXES[kind] + " has " + found + " states, the transitions " + numStates);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package stamina;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes binary data to a {@link FileChannel} through a direct buffer, so large files are
+ * written in big blocks rather than value by value. Values are written big-endian, so the
+ * files can be read on any machine by {@link MappedInput}.
+ */
+class ChannelOutput {
+	// Size of the buffer
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * Creates an output writing at the current position of a channel.
+	 * @param channel The channel, opened for writing.
+	 */
+	ChannelOutput(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	void putInt(int value) throws IOException {
+		ensure(Integer.BYTES);
+		buffer.putInt(value);
+	}
+
+	void putLong(long value) throws IOException {
+		ensure(Long.BYTES);
+		buffer.putLong(value);
+	}
+
+	void putDouble(double value) throws IOException {
+		ensure(Double.BYTES);
+		buffer.putDouble(value);
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes.
+	 * @param value The string.
+	 * @throws IOException
+	 */
+	void putString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		for (int pos = 0; pos < bytes.length; ) {
+			ensure(1);
+			int n = Math.min(buffer.remaining(), bytes.length - pos);
+			buffer.put(bytes, pos, n);
+			pos += n;
+		}
+	}
+
+	/**
+	 * Writes out what is left in the buffer. Must be called before the channel is closed.
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+}
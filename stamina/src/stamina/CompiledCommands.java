@@ -0,0 +1,644 @@
+package stamina;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.Command;
+import parser.ast.DeclarationBool;
+import parser.ast.DeclarationIntUnbounded;
+import parser.ast.Expression;
+import parser.ast.ExpressionBinaryOp;
+import parser.ast.ExpressionFunc;
+import parser.ast.ExpressionITE;
+import parser.ast.ExpressionLiteral;
+import parser.ast.ExpressionUnaryOp;
+import parser.ast.ExpressionVar;
+import parser.ast.Module;
+import parser.ast.ModulesFile;
+import parser.ast.Update;
+import parser.ast.Updates;
+import parser.type.Type;
+import parser.type.TypeBool;
+import parser.type.TypeDouble;
+import parser.type.TypeInt;
+import prism.PrismLangException;
+
+/**
+ * The commands of a CTMC compiled for successor generation, for {@code -compileCommands}. Each
+ * guard, rate and update expression is turned into a tree of small lambdas over the values of
+ * the state's variables as an {@code int[]} (booleans as 0 and 1), so expanding a state walks
+ * no expression trees and boxes nothing but the values of the successors.
+ *
+ * The transitions come out in the same order as from PRISM's {@code Updater}: the commands of
+ * each module without an action, module by module, then for each action (in the order they
+ * first appear) the product of the enabled commands of the modules that have it, with the
+ * commands and updates of the first module varying fastest. Rates of synchronised commands are
+ * multiplied, and updates with a rate of 0 are left out.
+ *
+ * Only what STAMINA's models commonly use is compiled: literals, variables, the arithmetic,
+ * relational and logical operators, {@code ? :}, and the functions min, max, floor, ceil, pow
+ * and mod. Evaluation errors, like a modulo of zero, are thrown as PrismLangExceptions, as PRISM
+ * does. A model using anything else (or a system ... endsystem block) is not compiled, and is
+ * expanded with PRISM as usual. Compiled commands have no mutable state, so one instance is
+ * shared by all exploration threads.
+ */
+final class CompiledCommands {
+	/** An integer-valued expression (or a boolean as 0 or 1) over the variable values of a state */
+	interface IntExpression {
+		int evaluate(int[] values) throws PrismLangException;
+	}
+
+	/** A real-valued expression over the variable values of a state */
+	interface DoubleExpression {
+		double evaluate(int[] values) throws PrismLangException;
+	}
+
+	/** A boolean expression over the variable values of a state */
+	interface BooleanExpression {
+		boolean evaluate(int[] values) throws PrismLangException;
+	}
+
+	/**
+	 * Thrown when an expression uses something the compiler doesn't support.
+	 */
+	private static final class NotCompilable extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		NotCompilable(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A compiled command: its guard, and for each update its rate and the variables it
+	 * assigns with the expressions of their new values.
+	 */
+	private static final class CompiledCommand {
+		final BooleanExpression guard;
+		final DoubleExpression[] rates;
+		final int[][] variables;
+		final IntExpression[][] values;
+
+		CompiledCommand(BooleanExpression guard, DoubleExpression[] rates, int[][] variables, IntExpression[][] values) {
+			this.guard = guard;
+			this.rates = rates;
+			this.variables = variables;
+			this.values = values;
+		}
+	}
+
+	private final int numVars;
+	// For each variable: its name, whether it is boolean, whether its range is checked, and the range
+	private final String[] names;
+	private final boolean[] isBool;
+	private final boolean[] bounded;
+	private final int[] low;
+	private final int[] high;
+	// The commands without an action, for each module
+	private final CompiledCommand[][] independent;
+	// For each action, the commands with it of each module that has it
+	private final CompiledCommand[][][] synchronised;
+
+	private CompiledCommands(VarList varList, CompiledCommand[][] independent, CompiledCommand[][][] synchronised) {
+		numVars = varList.getNumVars();
+		names = new String[numVars];
+		isBool = new boolean[numVars];
+		bounded = new boolean[numVars];
+		low = new int[numVars];
+		high = new int[numVars];
+		for (int i = 0; i < numVars; i++) {
+			names[i] = varList.getName(i);
+			isBool[i] = varList.getDeclarationType(i) instanceof DeclarationBool;
+			bounded[i] = !isBool[i] && !(varList.getDeclarationType(i) instanceof DeclarationIntUnbounded);
+			low[i] = varList.getLow(i);
+			high[i] = varList.getHigh(i);
+		}
+		this.independent = independent;
+		this.synchronised = synchronised;
+	}
+
+	/**
+	 * Compiles the commands of a model.
+	 * @param modulesFile The model, with its constants replaced by their values.
+	 * @param varList The variables of the model.
+	 * @return The compiled commands, or null (having said why) if the model uses something that
+	 * can't be compiled.
+	 */
+	static CompiledCommands compile(ModulesFile modulesFile, VarList varList) {
+		try {
+			if (modulesFile.getSystemDefn() != null) {
+				throw new NotCompilable("the model has a system ... endsystem block");
+			}
+			// Actions, in the order they first appear
+			List<String> actions = new ArrayList<String>();
+			for (int m = 0; m < modulesFile.getNumModules(); m++) {
+				Module module = modulesFile.getModule(m);
+				for (int c = 0; c < module.getNumCommands(); c++) {
+					String action = module.getCommand(c).getSynch();
+					if (!action.isEmpty() && !actions.contains(action)) {
+						actions.add(action);
+					}
+				}
+			}
+			CompiledCommand[][] independent = new CompiledCommand[modulesFile.getNumModules()][];
+			CompiledCommand[][][] synchronised = new CompiledCommand[actions.size()][][];
+			for (int a = 0; a < actions.size(); a++) {
+				List<CompiledCommand[]> withAction = new ArrayList<CompiledCommand[]>();
+				for (int m = 0; m < modulesFile.getNumModules(); m++) {
+					CompiledCommand[] commands = compileModule(modulesFile.getModule(m), actions.get(a), varList);
+					if (commands.length > 0) {
+						withAction.add(commands);
+					}
+				}
+				synchronised[a] = withAction.toArray(new CompiledCommand[withAction.size()][]);
+			}
+			for (int m = 0; m < modulesFile.getNumModules(); m++) {
+				independent[m] = compileModule(modulesFile.getModule(m), "", varList);
+			}
+			return new CompiledCommands(varList, independent, synchronised);
+		}
+		catch (NotCompilable e) {
+			StaminaLog.warning("The model's commands can't be compiled (" + e.getMessage() + "), so PRISM's updater is used");
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles the commands of a module with a given action.
+	 * @param action The action, or "" for the commands without one.
+	 */
+	private static CompiledCommand[] compileModule(Module module, String action, VarList varList) throws NotCompilable {
+		List<CompiledCommand> commands = new ArrayList<CompiledCommand>();
+		for (int c = 0; c < module.getNumCommands(); c++) {
+			Command command = module.getCommand(c);
+			if (!command.getSynch().equals(action)) {
+				continue;
+			}
+			Updates updates = command.getUpdates();
+			int n = updates.getNumUpdates();
+			DoubleExpression[] rates = new DoubleExpression[n];
+			int[][] variables = new int[n][];
+			IntExpression[][] values = new IntExpression[n][];
+			for (int u = 0; u < n; u++) {
+				Expression rate = updates.getProbability(u);
+				rates[u] = rate == null ? s -> 1.0 : compileDouble(rate);
+				Update update = updates.getUpdate(u);
+				variables[u] = new int[update.getNumElements()];
+				values[u] = new IntExpression[update.getNumElements()];
+				for (int i = 0; i < update.getNumElements(); i++) {
+					int var = update.getVarIndex(i);
+					if (var < 0) {
+						throw new NotCompilable("unknown variable " + update.getVar(i));
+					}
+					variables[u][i] = var;
+					values[u][i] = varList.getDeclarationType(var) instanceof DeclarationBool
+						? asInt(compileBoolean(update.getExpression(i))) : compileInt(update.getExpression(i));
+				}
+			}
+			commands.add(new CompiledCommand(compileBoolean(command.getGuard()), rates, variables, values));
+		}
+		return commands.toArray(new CompiledCommand[commands.size()]);
+	}
+
+	/**
+	 * Expands a state: finds all of its transitions with the compiled commands.
+	 * @param state The state to expand.
+	 * @return The (unresolved) expansion of the state.
+	 * @throws PrismLangException If a rate is not valid or an update takes a variable out of its range.
+	 */
+	StateExpansion expand(State state) throws PrismLangException {
+		int[] values = toValues(state);
+		Transitions transitions = new Transitions();
+		for (CompiledCommand[] commands : independent) {
+			for (CompiledCommand command : commands) {
+				if (!command.guard.evaluate(values)) {
+					continue;
+				}
+				for (int u = 0; u < command.rates.length; u++) {
+					double rate = checkRate(command.rates[u].evaluate(values), state);
+					if (rate == 0) {
+						continue;
+					}
+					State target = new State(state);
+					apply(command, u, values, target);
+					transitions.add(target, rate);
+				}
+			}
+		}
+		for (CompiledCommand[][] modules : synchronised) {
+			expandAction(modules, state, values, transitions);
+		}
+		return StateExpansion.of(transitions.targets, transitions.rates, transitions.size);
+	}
+
+	/**
+	 * Adds the transitions of one action: the products of the enabled commands with it of all
+	 * the modules that have it, or none if one of those modules has no enabled command.
+	 */
+	private void expandAction(CompiledCommand[][] modules, State state, int[] values, Transitions transitions) throws PrismLangException {
+		int m = modules.length;
+		CompiledCommand[][] enabled = new CompiledCommand[m][];
+		int[] numEnabled = new int[m];
+		// The rates of the updates of each enabled command
+		double[][][] rates = new double[m][][];
+		for (int j = 0; j < m; j++) {
+			enabled[j] = new CompiledCommand[modules[j].length];
+			rates[j] = new double[modules[j].length][];
+			for (CompiledCommand command : modules[j]) {
+				if (command.guard.evaluate(values)) {
+					double[] commandRates = new double[command.rates.length];
+					for (int u = 0; u < commandRates.length; u++) {
+						commandRates[u] = checkRate(command.rates[u].evaluate(values), state);
+					}
+					rates[j][numEnabled[j]] = commandRates;
+					enabled[j][numEnabled[j]++] = command;
+				}
+			}
+			if (numEnabled[j] == 0) {
+				return;
+			}
+		}
+		int[] command = new int[m];
+		int[] update = new int[m];
+		int[] numUpdates = new int[m];
+		do {
+			for (int j = 0; j < m; j++) {
+				numUpdates[j] = rates[j][command[j]].length;
+			}
+			do {
+				double rate = 1.0;
+				for (int j = 0; j < m; j++) {
+					rate *= rates[j][command[j]][update[j]];
+				}
+				if (rate == 0) {
+					continue;
+				}
+				State target = new State(state);
+				for (int j = 0; j < m; j++) {
+					apply(enabled[j][command[j]], update[j], values, target);
+				}
+				transitions.add(target, rate);
+			} while (next(update, numUpdates));
+		} while (next(command, numEnabled));
+	}
+
+	/**
+	 * Steps to the next combination of indices, the first varying fastest.
+	 * @return Whether there is one (if not, the indices are back to 0).
+	 */
+	private static boolean next(int[] indices, int[] counts) {
+		for (int j = 0; j < indices.length; j++) {
+			if (++indices[j] < counts[j]) {
+				return true;
+			}
+			indices[j] = 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Carries out one update of a command on a successor, with the values of the state being expanded.
+	 */
+	private void apply(CompiledCommand command, int u, int[] values, State target) throws PrismLangException {
+		int[] variables = command.variables[u];
+		IntExpression[] expressions = command.values[u];
+		for (int i = 0; i < variables.length; i++) {
+			int var = variables[i];
+			int value = expressions[i].evaluate(values);
+			if (isBool[var]) {
+				target.setValue(var, value != 0);
+			}
+			else {
+				if (bounded[var] && (value < low[var] || value > high[var])) {
+					throw new PrismLangException("Value of variable " + names[var] + " overflows");
+				}
+				target.setValue(var, value);
+			}
+		}
+	}
+
+	private static double checkRate(double rate, State state) throws PrismLangException {
+		if (!(rate >= 0) || Double.isInfinite(rate)) {
+			throw new PrismLangException("Invalid rate (" + rate + ") in state " + state.toStringNoParentheses());
+		}
+		return rate;
+	}
+
+	/**
+	 * Gets the values of the variables of a state, with booleans as 0 and 1.
+	 */
+	private int[] toValues(State state) {
+		int[] values = new int[numVars];
+		for (int i = 0; i < numVars; i++) {
+			Object value = state.varValues[i];
+			values[i] = isBool[i] ? ((Boolean) value ? 1 : 0) : (Integer) value;
+		}
+		return values;
+	}
+
+	/**
+	 * The transitions found so far for a state.
+	 */
+	private static final class Transitions {
+		State[] targets = new State[8];
+		double[] rates = new double[8];
+		int size = 0;
+
+		void add(State target, double rate) {
+			if (size == targets.length) {
+				targets = Arrays.copyOf(targets, size * 2);
+				rates = Arrays.copyOf(rates, size * 2);
+			}
+			targets[size] = target;
+			rates[size] = rate;
+			size++;
+		}
+	}
+
+	// Compiling expressions
+
+	private static IntExpression compileInt(Expression e) throws NotCompilable {
+		if (!(e.getType() instanceof TypeInt)) {
+			throw new NotCompilable("expected an integer expression: " + e);
+		}
+		if (e instanceof ExpressionLiteral) {
+			final int value = ((Number) ((ExpressionLiteral) e).getValue()).intValue();
+			return s -> value;
+		}
+		if (e instanceof ExpressionVar) {
+			final int var = ((ExpressionVar) e).getIndex();
+			return s -> s[var];
+		}
+		if (e instanceof ExpressionUnaryOp) {
+			ExpressionUnaryOp op = (ExpressionUnaryOp) e;
+			IntExpression operand = compileInt(op.getOperand());
+			switch (op.getOperator()) {
+			case ExpressionUnaryOp.MINUS:
+				return s -> -operand.evaluate(s);
+			case ExpressionUnaryOp.PARENTH:
+				return operand;
+			}
+		}
+		else if (e instanceof ExpressionBinaryOp) {
+			ExpressionBinaryOp op = (ExpressionBinaryOp) e;
+			IntExpression a = compileInt(op.getOperand1());
+			IntExpression b = compileInt(op.getOperand2());
+			switch (op.getOperator()) {
+			case ExpressionBinaryOp.PLUS:
+				return s -> a.evaluate(s) + b.evaluate(s);
+			case ExpressionBinaryOp.MINUS:
+				return s -> a.evaluate(s) - b.evaluate(s);
+			case ExpressionBinaryOp.TIMES:
+				return s -> a.evaluate(s) * b.evaluate(s);
+			}
+		}
+		else if (e instanceof ExpressionITE) {
+			ExpressionITE ite = (ExpressionITE) e;
+			BooleanExpression condition = compileBoolean(ite.getOperand1());
+			IntExpression a = compileInt(ite.getOperand2());
+			IntExpression b = compileInt(ite.getOperand3());
+			return s -> condition.evaluate(s) ? a.evaluate(s) : b.evaluate(s);
+		}
+		else if (e instanceof ExpressionFunc) {
+			ExpressionFunc func = (ExpressionFunc) e;
+			switch (func.getNameCode()) {
+			case ExpressionFunc.MIN:
+			case ExpressionFunc.MAX: {
+				IntExpression[] operands = new IntExpression[func.getNumOperands()];
+				for (int i = 0; i < operands.length; i++) {
+					operands[i] = compileInt(func.getOperand(i));
+				}
+				final boolean min = func.getNameCode() == ExpressionFunc.MIN;
+				return s -> {
+					int result = operands[0].evaluate(s);
+					for (int i = 1; i < operands.length; i++) {
+						int value = operands[i].evaluate(s);
+						result = min ? Math.min(result, value) : Math.max(result, value);
+					}
+					return result;
+				};
+			}
+			case ExpressionFunc.FLOOR: {
+				DoubleExpression operand = compileDouble(func.getOperand(0));
+				return s -> (int) Math.floor(operand.evaluate(s));
+			}
+			case ExpressionFunc.CEIL: {
+				DoubleExpression operand = compileDouble(func.getOperand(0));
+				return s -> (int) Math.ceil(operand.evaluate(s));
+			}
+			case ExpressionFunc.MOD: {
+				IntExpression a = compileInt(func.getOperand(0));
+				IntExpression b = compileInt(func.getOperand(1));
+				return s -> mod(a.evaluate(s), b.evaluate(s));
+			}
+			}
+		}
+		throw new NotCompilable("unsupported expression " + e);
+	}
+
+	private static DoubleExpression compileDouble(Expression e) throws NotCompilable {
+		Type type = e.getType();
+		if (type instanceof TypeInt) {
+			IntExpression value = compileInt(e);
+			return s -> value.evaluate(s);
+		}
+		if (!(type instanceof TypeDouble)) {
+			throw new NotCompilable("expected a numerical expression: " + e);
+		}
+		if (e instanceof ExpressionLiteral) {
+			final double value = ((Number) ((ExpressionLiteral) e).getValue()).doubleValue();
+			return s -> value;
+		}
+		if (e instanceof ExpressionUnaryOp) {
+			ExpressionUnaryOp op = (ExpressionUnaryOp) e;
+			DoubleExpression operand = compileDouble(op.getOperand());
+			switch (op.getOperator()) {
+			case ExpressionUnaryOp.MINUS:
+				return s -> -operand.evaluate(s);
+			case ExpressionUnaryOp.PARENTH:
+				return operand;
+			}
+		}
+		else if (e instanceof ExpressionBinaryOp) {
+			ExpressionBinaryOp op = (ExpressionBinaryOp) e;
+			DoubleExpression a = compileDouble(op.getOperand1());
+			DoubleExpression b = compileDouble(op.getOperand2());
+			switch (op.getOperator()) {
+			case ExpressionBinaryOp.PLUS:
+				return s -> a.evaluate(s) + b.evaluate(s);
+			case ExpressionBinaryOp.MINUS:
+				return s -> a.evaluate(s) - b.evaluate(s);
+			case ExpressionBinaryOp.TIMES:
+				return s -> a.evaluate(s) * b.evaluate(s);
+			case ExpressionBinaryOp.DIVIDE:
+				return s -> a.evaluate(s) / b.evaluate(s);
+			}
+		}
+		else if (e instanceof ExpressionITE) {
+			ExpressionITE ite = (ExpressionITE) e;
+			BooleanExpression condition = compileBoolean(ite.getOperand1());
+			DoubleExpression a = compileDouble(ite.getOperand2());
+			DoubleExpression b = compileDouble(ite.getOperand3());
+			return s -> condition.evaluate(s) ? a.evaluate(s) : b.evaluate(s);
+		}
+		else if (e instanceof ExpressionFunc) {
+			ExpressionFunc func = (ExpressionFunc) e;
+			switch (func.getNameCode()) {
+			case ExpressionFunc.MIN:
+			case ExpressionFunc.MAX: {
+				DoubleExpression[] operands = new DoubleExpression[func.getNumOperands()];
+				for (int i = 0; i < operands.length; i++) {
+					operands[i] = compileDouble(func.getOperand(i));
+				}
+				final boolean min = func.getNameCode() == ExpressionFunc.MIN;
+				return s -> {
+					double result = operands[0].evaluate(s);
+					for (int i = 1; i < operands.length; i++) {
+						double value = operands[i].evaluate(s);
+						result = min ? Math.min(result, value) : Math.max(result, value);
+					}
+					return result;
+				};
+			}
+			case ExpressionFunc.POW: {
+				DoubleExpression a = compileDouble(func.getOperand(0));
+				DoubleExpression b = compileDouble(func.getOperand(1));
+				return s -> Math.pow(a.evaluate(s), b.evaluate(s));
+			}
+			}
+		}
+		throw new NotCompilable("unsupported expression " + e);
+	}
+
+	private static BooleanExpression compileBoolean(Expression e) throws NotCompilable {
+		if (!(e.getType() instanceof TypeBool)) {
+			throw new NotCompilable("expected a boolean expression: " + e);
+		}
+		if (e instanceof ExpressionLiteral) {
+			final boolean value = (Boolean) ((ExpressionLiteral) e).getValue();
+			return s -> value;
+		}
+		if (e instanceof ExpressionVar) {
+			final int var = ((ExpressionVar) e).getIndex();
+			return s -> s[var] != 0;
+		}
+		if (e instanceof ExpressionUnaryOp) {
+			ExpressionUnaryOp op = (ExpressionUnaryOp) e;
+			BooleanExpression operand = compileBoolean(op.getOperand());
+			switch (op.getOperator()) {
+			case ExpressionUnaryOp.NOT:
+				return s -> !operand.evaluate(s);
+			case ExpressionUnaryOp.PARENTH:
+				return operand;
+			}
+		}
+		else if (e instanceof ExpressionBinaryOp) {
+			ExpressionBinaryOp op = (ExpressionBinaryOp) e;
+			Expression left = op.getOperand1();
+			Expression right = op.getOperand2();
+			switch (op.getOperator()) {
+			case ExpressionBinaryOp.IMPLIES: {
+				BooleanExpression a = compileBoolean(left);
+				BooleanExpression b = compileBoolean(right);
+				return s -> !a.evaluate(s) || b.evaluate(s);
+			}
+			case ExpressionBinaryOp.IFF: {
+				BooleanExpression a = compileBoolean(left);
+				BooleanExpression b = compileBoolean(right);
+				return s -> a.evaluate(s) == b.evaluate(s);
+			}
+			case ExpressionBinaryOp.OR: {
+				BooleanExpression a = compileBoolean(left);
+				BooleanExpression b = compileBoolean(right);
+				return s -> a.evaluate(s) || b.evaluate(s);
+			}
+			case ExpressionBinaryOp.AND: {
+				BooleanExpression a = compileBoolean(left);
+				BooleanExpression b = compileBoolean(right);
+				return s -> a.evaluate(s) && b.evaluate(s);
+			}
+			case ExpressionBinaryOp.EQ:
+			case ExpressionBinaryOp.NE:
+				if (left.getType() instanceof TypeBool) {
+					BooleanExpression a = compileBoolean(left);
+					BooleanExpression b = compileBoolean(right);
+					return op.getOperator() == ExpressionBinaryOp.EQ
+						? s -> a.evaluate(s) == b.evaluate(s) : s -> a.evaluate(s) != b.evaluate(s);
+				}
+				return compileComparison(op.getOperator(), left, right);
+			case ExpressionBinaryOp.GT:
+			case ExpressionBinaryOp.GE:
+			case ExpressionBinaryOp.LT:
+			case ExpressionBinaryOp.LE:
+				return compileComparison(op.getOperator(), left, right);
+			}
+		}
+		else if (e instanceof ExpressionITE) {
+			ExpressionITE ite = (ExpressionITE) e;
+			BooleanExpression condition = compileBoolean(ite.getOperand1());
+			BooleanExpression a = compileBoolean(ite.getOperand2());
+			BooleanExpression b = compileBoolean(ite.getOperand3());
+			return s -> condition.evaluate(s) ? a.evaluate(s) : b.evaluate(s);
+		}
+		throw new NotCompilable("unsupported expression " + e);
+	}
+
+	/**
+	 * Compiles a comparison of two numbers, as integers if both are.
+	 */
+	private static BooleanExpression compileComparison(int operator, Expression left, Expression right) throws NotCompilable {
+		if (left.getType() instanceof TypeInt && right.getType() instanceof TypeInt) {
+			IntExpression a = compileInt(left);
+			IntExpression b = compileInt(right);
+			switch (operator) {
+			case ExpressionBinaryOp.EQ:
+				return s -> a.evaluate(s) == b.evaluate(s);
+			case ExpressionBinaryOp.NE:
+				return s -> a.evaluate(s) != b.evaluate(s);
+			case ExpressionBinaryOp.GT:
+				return s -> a.evaluate(s) > b.evaluate(s);
+			case ExpressionBinaryOp.GE:
+				return s -> a.evaluate(s) >= b.evaluate(s);
+			case ExpressionBinaryOp.LT:
+				return s -> a.evaluate(s) < b.evaluate(s);
+			default:
+				return s -> a.evaluate(s) <= b.evaluate(s);
+			}
+		}
+		DoubleExpression a = compileDouble(left);
+		DoubleExpression b = compileDouble(right);
+		switch (operator) {
+		case ExpressionBinaryOp.EQ:
+			return s -> a.evaluate(s) == b.evaluate(s);
+		case ExpressionBinaryOp.NE:
+			return s -> a.evaluate(s) != b.evaluate(s);
+		case ExpressionBinaryOp.GT:
+			return s -> a.evaluate(s) > b.evaluate(s);
+		case ExpressionBinaryOp.GE:
+			return s -> a.evaluate(s) >= b.evaluate(s);
+		case ExpressionBinaryOp.LT:
+			return s -> a.evaluate(s) < b.evaluate(s);
+		default:
+			return s -> a.evaluate(s) <= b.evaluate(s);
+		}
+	}
+
+	/**
+	 * PRISM's mod: the remainder, moved up by the divisor if it is negative.
+	 * @throws PrismLangException If the divisor is 0.
+	 */
+	private static int mod(int i, int j) throws PrismLangException {
+		if (j == 0) {
+			throw new PrismLangException("Attempt to compute modulo zero");
+		}
+		int rem = i % j;
+		return rem < 0 ? rem + j : rem;
+	}
+
+	private static IntExpression asInt(BooleanExpression e) {
+		return s -> e.evaluate(s) ? 1 : 0;
+	}
+}
@@ -0,0 +1,121 @@
+package stamina;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import parser.Values;
+import parser.ast.ASTElement;
+import parser.ast.Command;
+import parser.ast.ConstantList;
+import parser.ast.Expression;
+import parser.ast.FormulaList;
+import parser.ast.LabelList;
+import parser.ast.Module;
+import parser.ast.ModulesFile;
+import parser.ast.Updates;
+
+/**
+ * Finds the model constants that only affect transition rates. A constant that appears nowhere
+ * in the variable declarations, the initial states, the guards, the updates or the labels of the
+ * model (only in the rates of updates, and in rewards) cannot change which states are reachable,
+ * which transitions there are or which states the property makes absorbing, so the explored
+ * state space stays valid when only such constants change: just the rates have to be evaluated
+ * again. Labels count because the property-guided absorbing states kept in the explored state
+ * space depend on them.
+ *
+ * A constant counts as structural if it appears in any of those places, in the definition of a
+ * structural constant, or in a formula (formulas are not followed, to be safe).
+ */
+class ConstantAnalysis {
+	private ConstantAnalysis() {
+	}
+
+	/**
+	 * Finds the constants of a model that only affect transition rates.
+	 * @param modulesFile The model, before any constants are replaced by their values.
+	 * @return The names of the constants that appear only in rates (or in rewards).
+	 */
+	static Set<String> findRateOnlyConstants(ModulesFile modulesFile) {
+		Set<String> structural = new HashSet<String>();
+		for (int i = 0; i < modulesFile.getNumGlobals(); i++) {
+			addConstants(structural, modulesFile.getGlobal(i));
+		}
+		addConstants(structural, modulesFile.getInitialStates());
+		LabelList labels = modulesFile.getLabelList();
+		for (int i = 0; labels != null && i < labels.size(); i++) {
+			addConstants(structural, labels.getLabel(i));
+		}
+		FormulaList formulas = modulesFile.getFormulaList();
+		for (int i = 0; formulas != null && i < formulas.size(); i++) {
+			addConstants(structural, formulas.getFormula(i));
+		}
+		for (int m = 0; m < modulesFile.getNumModules(); m++) {
+			Module module = modulesFile.getModule(m);
+			for (int i = 0; i < module.getNumDeclarations(); i++) {
+				addConstants(structural, module.getDeclaration(i));
+			}
+			for (int c = 0; c < module.getNumCommands(); c++) {
+				Command command = module.getCommand(c);
+				addConstants(structural, command.getGuard());
+				Updates updates = command.getUpdates();
+				for (int u = 0; u < updates.getNumUpdates(); u++) {
+					// The rate (getProbability()) is the one part that may use rate-only constants
+					addConstants(structural, updates.getUpdate(u));
+				}
+			}
+		}
+
+		// Constants defined in terms of other constants pass on being structural
+		ConstantList constants = modulesFile.getConstantList();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < constants.size(); i++) {
+				Expression definition = constants.getConstant(i);
+				if (definition != null && structural.contains(constants.getConstantName(i))) {
+					int before = structural.size();
+					addConstants(structural, definition);
+					changed |= structural.size() > before;
+				}
+			}
+		}
+
+		Set<String> rateOnly = new HashSet<String>();
+		for (int i = 0; i < constants.size(); i++) {
+			if (!structural.contains(constants.getConstantName(i))) {
+				rateOnly.add(constants.getConstantName(i));
+			}
+		}
+		return rateOnly;
+	}
+
+	/**
+	 * Checks whether two sets of values of the model constants differ only in rate-only constants.
+	 * @param oldValues The old values.
+	 * @param newValues The new values.
+	 * @param rateOnly The rate-only constants (see {@link #findRateOnlyConstants(ModulesFile)}).
+	 * @return Whether every constant that changed only affects rates.
+	 */
+	static boolean onlyRatesChanged(Values oldValues, Values newValues, Set<String> rateOnly) {
+		if (oldValues.getNumValues() != newValues.getNumValues()) {
+			return false;
+		}
+		for (int i = 0; i < newValues.getNumValues(); i++) {
+			String name = newValues.getName(i);
+			int old = oldValues.getIndexOf(name);
+			if (old < 0) {
+				return false;
+			}
+			if (!newValues.getValue(i).equals(oldValues.getValue(old)) && !rateOnly.contains(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void addConstants(Set<String> constants, ASTElement element) {
+		if (element != null) {
+			constants.addAll(element.getAllConstants());
+		}
+	}
+}
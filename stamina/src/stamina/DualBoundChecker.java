@@ -0,0 +1,364 @@
+package stamina;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import explicit.CTMC;
+import explicit.FoxGlynn;
+import parser.State;
+import prism.Prism;
+import prism.PrismException;
+
+/**
+ * Computes both probability bounds of an until property on the truncated CTMC in one pass.
+ *
+ * The lower bound is the probability of reaching the target states without the absorbing
+ * state counting as a target, and the upper bound also counts the absorbing state. Both
+ * targets are made absorbing together, so the two probabilities are solved over the same
+ * matrix: one with the (non-absorbing) target states as right-hand side, and one with the
+ * absorbing state. The upper bound is their sum. This is what checking the property twice,
+ * rewritten for Pmin and Pmax, computes, but the precomputation and every iteration are
+ * shared between the bounds.
+ *
+ * Time-bounded until ({@code U<=t}) is solved by backward uniformisation with Fox-Glynn
+ * weights, as PRISM does; unbounded until by iterating on the embedded DTMC, with the
+ * power/Jacobi or Gauss-Seidel method.
+ *
+ * The truncations of successive refinements differ only around the perimeter, so unbounded
+ * until starts from the solution of the previous computation, carried over to the new model
+ * by state, rather than from the target indicators. The iteration converges to the same
+ * solution from any start, and usually in far fewer iterations. Use a new checker for each
+ * property.
+ */
+class DualBoundChecker {
+	// PRISM uniformises with a rate slightly above the largest exit rate
+	private static final double UNIFORMISATION_FACTOR = 1.02;
+
+	// The rate matrix of the model, by rows, without self-loops, and the exit rate of each state
+	private int numStates;
+	private int[] rowStarts;
+	private int[] columns;
+	private double[] rates;
+	private double[] exitRates;
+
+	private int lastIterations = 0;
+
+	// The states and solution of the last unbounded computation, to start the next one from
+	private List<State> lastStates = null;
+	private int lastNumStates = 0;
+	private double[] lastLow = null;
+	private double[] lastAbs = null;
+	private int lastUnboundedIterations = 0;
+	// The iterations of the computation before the last one, and how many states it started from
+	private int previousIterations = 0;
+	private int warmStartedStates = 0;
+
+	/**
+	 * Computes the lower and upper probability bounds of {@code a U b} or {@code a U<=t b}
+	 * from the initial state.
+	 * @param ctmc The truncated CTMC.
+	 * @param remain The states satisfying {@code a}.
+	 * @param target The states satisfying {@code b}.
+	 * @param absorbing The absorbing state, or -1 if the model has none.
+	 * @param time The time bound, or -1 if unbounded.
+	 * @param method The iterative method for unbounded until (see {@link Prism#POWER} etc.).
+	 * @param termCrit The relative convergence criterion of unbounded until, and (divided by 8)
+	 * the Fox-Glynn accuracy of time-bounded until, as in PRISM.
+	 * @param maxIters The maximum number of iterations for unbounded until.
+	 * @return The lower and upper bound.
+	 * @throws PrismException If the iteration does not converge.
+	 */
+	double[] computeUntilBounds(CTMC ctmc, BitSet remain, BitSet target, int absorbing, double time
+		, int method, double termCrit, int maxIters) throws PrismException {
+		readMatrix(ctmc);
+		// Target states count for the lower bound only if they are not the absorbing state
+		BitSet lower = (BitSet) target.clone();
+		BitSet both = (BitSet) target.clone();
+		if (absorbing >= 0) {
+			lower.clear(absorbing);
+			both.set(absorbing);
+		}
+		// States that still have to reach a target
+		BitSet maybe = (BitSet) remain.clone();
+		maybe.andNot(both);
+		double[] low = new double[numStates];
+		double[] abs = new double[numStates];
+		for (int s = lower.nextSetBit(0); s >= 0; s = lower.nextSetBit(s + 1)) {
+			low[s] = 1.0;
+		}
+		if (absorbing >= 0) {
+			abs[absorbing] = 1.0;
+		}
+		lastIterations = 0;
+		warmStartedStates = 0;
+		double[][] solution;
+		if (time >= 0) {
+			solution = boundedUntil(maybe, low, abs, time, termCrit / 8.0);
+		}
+		else {
+			maybe.and(canReach(maybe, both));
+			List<State> states = ctmc.getStatesList();
+			warmStartedStates = warmStart(states, maybe, low, abs);
+			previousIterations = lastStates == null ? 0 : lastUnboundedIterations;
+			solution = unboundedUntil(maybe, low, abs, method, termCrit, maxIters);
+			lastStates = states;
+			lastNumStates = numStates;
+			lastLow = solution[0];
+			lastAbs = solution[1];
+			lastUnboundedIterations = lastIterations;
+		}
+		int init = ctmc.getFirstInitialState();
+		return new double[] { solution[0][init], Math.min(solution[0][init] + solution[1][init], 1.0) };
+	}
+
+	/**
+	 * Gets the number of iterations of the last computation.
+	 * @return The number of iterations.
+	 */
+	int getLastIterations() {
+		return lastIterations;
+	}
+
+	/**
+	 * Gets the number of states the last unbounded computation started from the previous
+	 * solution in.
+	 * @return The number of states warm-started, or 0 if it started from scratch.
+	 */
+	int getWarmStartedStates() {
+		return warmStartedStates;
+	}
+
+	/**
+	 * Gets the number of iterations of the unbounded computation before the last one.
+	 * @return The number of iterations, or 0 if there was none.
+	 */
+	int getPreviousIterations() {
+		return previousIterations;
+	}
+
+	/**
+	 * Starts the maybe states from their values in the last solution. The states of the model
+	 * STAMINA builds keep their numbers from one refinement to the next, and the list of states
+	 * only grows, so they are matched by number; otherwise (e.g. PRISM's numbering, which changes
+	 * as states are added) they are matched by their variable values.
+	 * @return The number of states started from the last solution.
+	 */
+	private int warmStart(List<State> states, BitSet maybe, double[] low, double[] abs) {
+		if (lastStates == null || states == null) {
+			return 0;
+		}
+		int count = 0;
+		if (states == lastStates) {
+			for (int s = maybe.nextSetBit(0); s >= 0 && s < lastNumStates; s = maybe.nextSetBit(s + 1)) {
+				low[s] = lastLow[s];
+				abs[s] = lastAbs[s];
+				count++;
+			}
+			return count;
+		}
+		Map<State, Integer> lastIndex = new HashMap<State, Integer>(lastNumStates * 2);
+		for (int s = 0; s < lastNumStates; s++) {
+			lastIndex.put(lastStates.get(s), s);
+		}
+		for (int s = maybe.nextSetBit(0); s >= 0; s = maybe.nextSetBit(s + 1)) {
+			Integer last = lastIndex.get(states.get(s));
+			if (last != null) {
+				low[s] = lastLow[last];
+				abs[s] = lastAbs[last];
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the transitions (other than self-loops) of a CTMC into arrays.
+	 */
+	private void readMatrix(CTMC ctmc) {
+		numStates = ctmc.getNumStates();
+		rowStarts = new int[numStates + 1];
+		exitRates = new double[numStates];
+		int[] cols = new int[Math.max(16, numStates)];
+		double[] vals = new double[cols.length];
+		int n = 0;
+		for (int s = 0; s < numStates; s++) {
+			rowStarts[s] = n;
+			Iterator<Map.Entry<Integer, Double>> iter = ctmc.getTransitionsIterator(s);
+			while (iter.hasNext()) {
+				Map.Entry<Integer, Double> e = iter.next();
+				int t = e.getKey();
+				if (t == s) {
+					continue;
+				}
+				if (n == cols.length) {
+					cols = Arrays.copyOf(cols, n * 2);
+					vals = Arrays.copyOf(vals, n * 2);
+				}
+				cols[n] = t;
+				vals[n] = e.getValue();
+				exitRates[s] += vals[n];
+				n++;
+			}
+		}
+		rowStarts[numStates] = n;
+		columns = cols;
+		rates = vals;
+	}
+
+	/**
+	 * The states of a set, and states that can reach a target through the set.
+	 */
+	private BitSet canReach(BitSet through, BitSet targets) {
+		// Predecessors of each state, only counting transitions out of states in the set
+		int[] predStarts = new int[numStates + 1];
+		for (int s = through.nextSetBit(0); s >= 0; s = through.nextSetBit(s + 1)) {
+			for (int k = rowStarts[s]; k < rowStarts[s + 1]; k++) {
+				predStarts[columns[k] + 1]++;
+			}
+		}
+		for (int s = 0; s < numStates; s++) {
+			predStarts[s + 1] += predStarts[s];
+		}
+		int[] preds = new int[predStarts[numStates]];
+		int[] next = predStarts.clone();
+		for (int s = through.nextSetBit(0); s >= 0; s = through.nextSetBit(s + 1)) {
+			for (int k = rowStarts[s]; k < rowStarts[s + 1]; k++) {
+				preds[next[columns[k]]++] = s;
+			}
+		}
+		BitSet reached = (BitSet) targets.clone();
+		IntQueue queue = new IntQueue();
+		for (int s = targets.nextSetBit(0); s >= 0; s = targets.nextSetBit(s + 1)) {
+			queue.add(s);
+		}
+		while (!queue.isEmpty()) {
+			int t = queue.removeFirst();
+			for (int k = predStarts[t]; k < predStarts[t + 1]; k++) {
+				int s = preds[k];
+				if (!reached.get(s)) {
+					reached.set(s);
+					queue.add(s);
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Backward uniformisation: each of the two vectors starts as its target indicator, and the
+	 * uniformised DTMC (with everything outside maybe made absorbing) is applied to both at once.
+	 * @return The Poisson-weighted sums of the two vectors.
+	 */
+	private double[][] boundedUntil(BitSet maybe, double[] low, double[] abs, double time, double accuracy) throws PrismException {
+		double maxRate = 0.0;
+		for (int s = maybe.nextSetBit(0); s >= 0; s = maybe.nextSetBit(s + 1)) {
+			maxRate = Math.max(maxRate, exitRates[s]);
+		}
+		double q = UNIFORMISATION_FACTOR * maxRate;
+		if (q == 0 || time == 0) {
+			// Nothing can move before the time bound
+			return new double[][] { low, abs };
+		}
+		FoxGlynn fg = new FoxGlynn(q * time, 1.0e-300, 1.0e+300, accuracy);
+		int left = fg.getLeftTruncationPoint();
+		int right = fg.getRightTruncationPoint();
+		if (right < 0) {
+			throw new PrismException("Overflow in Fox-Glynn computation (time bound too big?)");
+		}
+		double[] weights = fg.getWeights();
+		double totalWeight = fg.getTotalWeight();
+		for (int i = left; i <= right; i++) {
+			weights[i - left] /= totalWeight;
+		}
+
+		double[] low2 = low.clone();
+		double[] abs2 = abs.clone();
+		double[] lowSum = new double[numStates];
+		double[] absSum = new double[numStates];
+		if (left == 0) {
+			for (int s = 0; s < numStates; s++) {
+				lowSum[s] = weights[0] * low[s];
+				absSum[s] = weights[0] * abs[s];
+			}
+		}
+		for (int iters = 1; iters <= right; iters++) {
+			for (int s = maybe.nextSetBit(0); s >= 0; s = maybe.nextSetBit(s + 1)) {
+				double stay = 1.0 - exitRates[s] / q;
+				double l = stay * low[s];
+				double a = stay * abs[s];
+				for (int k = rowStarts[s]; k < rowStarts[s + 1]; k++) {
+					double p = rates[k] / q;
+					l += p * low[columns[k]];
+					a += p * abs[columns[k]];
+				}
+				low2[s] = l;
+				abs2[s] = a;
+			}
+			double[] tmp = low;
+			low = low2;
+			low2 = tmp;
+			tmp = abs;
+			abs = abs2;
+			abs2 = tmp;
+			if (iters >= left) {
+				double w = weights[iters - left];
+				for (int s = 0; s < numStates; s++) {
+					lowSum[s] += w * low[s];
+					absSum[s] += w * abs[s];
+				}
+			}
+			lastIterations = iters;
+		}
+		return new double[][] { lowSum, absSum };
+	}
+
+	/**
+	 * Iterates x = P x on the embedded DTMC for the maybe states, for both vectors together,
+	 * until neither changes by more than the (relative) criterion.
+	 * @return The two solution vectors.
+	 */
+	private double[][] unboundedUntil(BitSet maybe, double[] low, double[] abs, int method, double termCrit, int maxIters) throws PrismException {
+		// Gauss-Seidel updates the vectors in place; power/Jacobi alternate between two copies
+		boolean gaussSeidel = method == Prism.GAUSSSEIDEL || method == Prism.BGAUSSSEIDEL;
+		double[] low2 = gaussSeidel ? low : low.clone();
+		double[] abs2 = gaussSeidel ? abs : abs.clone();
+		for (int iters = 1; iters <= maxIters; iters++) {
+			double maxDiff = 0.0;
+			for (int s = maybe.nextSetBit(0); s >= 0; s = maybe.nextSetBit(s + 1)) {
+				double l = 0.0;
+				double a = 0.0;
+				for (int k = rowStarts[s]; k < rowStarts[s + 1]; k++) {
+					l += rates[k] * low[columns[k]];
+					a += rates[k] * abs[columns[k]];
+				}
+				l /= exitRates[s];
+				a /= exitRates[s];
+				maxDiff = Math.max(maxDiff, relativeDiff(low[s], l));
+				maxDiff = Math.max(maxDiff, relativeDiff(abs[s], a));
+				low2[s] = l;
+				abs2[s] = a;
+			}
+			double[] tmp = low;
+			low = low2;
+			low2 = tmp;
+			tmp = abs;
+			abs = abs2;
+			abs2 = tmp;
+			lastIterations = iters;
+			if (maxDiff < termCrit) {
+				return new double[][] { low, abs };
+			}
+		}
+		throw new PrismException("Iterative method did not converge within " + maxIters + " iterations."
+			+ "\nConsider using a different numerical method or increasing the maximum number of iterations");
+	}
+
+	private static double relativeDiff(double oldValue, double newValue) {
+		double diff = Math.abs(newValue - oldValue);
+		return newValue == 0 ? diff : diff / newValue;
+	}
+}
@@ -0,0 +1,182 @@
+package stamina;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * The default {@link StateStore}, keeping everything in Java arrays. Storage is split into
+ * fixed-size pages indexed by id, so adding states never moves existing ones.
+ */
+class HeapStateStore implements StateStore {
+	// States per page
+	private static final int PAGE_BITS = 14;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final int MAX_PAGES = (Integer.MAX_VALUE >>> PAGE_BITS) + 1;
+	private static final int NUM_FLAGS = 3;
+	// Atomic access to array elements, used when the store is concurrent
+	private static final VarHandle DOUBLES = MethodHandles.arrayElementVarHandle(double[].class);
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+	// Publication of new key and reachability pages, which allocate() checks without the lock
+	private static final VarHandle KEY_PAGES = MethodHandles.arrayElementVarHandle(long[][].class);
+	private static final VarHandle REACH_PAGES = MethodHandles.arrayElementVarHandle(double[][].class);
+
+	private final boolean concurrent;
+	private int numWords;
+	private long[][] keyPages = new long[MAX_PAGES][];
+	private final double[][] reachPages = new double[MAX_PAGES][];
+	private final long[][][] flagPages = new long[NUM_FLAGS][MAX_PAGES][];
+	private final Object pageLock = new Object();
+
+	/**
+	 * Creates an empty store.
+	 * @param numWords The number of words per packed state.
+	 * @param concurrent Whether several threads may update states at once.
+	 */
+	HeapStateStore(int numWords, boolean concurrent) {
+		this.numWords = numWords;
+		this.concurrent = concurrent;
+	}
+
+	@Override
+	public void allocate(int id) {
+		int page = id >>> PAGE_BITS;
+		if (KEY_PAGES.getAcquire(keyPages, page) == null || REACH_PAGES.getAcquire(reachPages, page) == null) {
+			synchronized (pageLock) {
+				// The flag pages are written before the reachability page is released, so a thread
+				// that sees the reachability page also sees them
+				if (reachPages[page] == null) {
+					for (int c = 0; c < NUM_FLAGS; c++) {
+						flagPages[c][page] = new long[PAGE_SIZE >>> 6];
+					}
+					REACH_PAGES.setRelease(reachPages, page, new double[PAGE_SIZE]);
+				}
+				if (keyPages[page] == null) {
+					KEY_PAGES.setRelease(keyPages, page, new long[PAGE_SIZE * numWords]);
+				}
+			}
+		}
+		setFlag(TERMINAL, id, true);
+	}
+
+	@Override
+	public int getNumWords() {
+		return numWords;
+	}
+
+	@Override
+	public void writeKey(int id, long[] key) {
+		System.arraycopy(key, 0, keyPages[id >>> PAGE_BITS], (id & PAGE_MASK) * numWords, numWords);
+	}
+
+	@Override
+	public void readKey(int id, long[] key) {
+		System.arraycopy(keyPages[id >>> PAGE_BITS], (id & PAGE_MASK) * numWords, key, 0, numWords);
+	}
+
+	@Override
+	public boolean keyEquals(int id, long[] key) {
+		long[] page = keyPages[id >>> PAGE_BITS];
+		int pos = (id & PAGE_MASK) * numWords;
+		for (int w = 0; w < numWords; w++) {
+			if (page[pos + w] != key[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void rewriteKeys(int count, int newWords, KeyRewriter rewriter) {
+		long[][] newPages = new long[MAX_PAGES][];
+		long[] oldKey = new long[numWords];
+		long[] newKey = new long[newWords];
+		for (int id = 0; id < count; id++) {
+			int page = id >>> PAGE_BITS;
+			if (newPages[page] == null) {
+				newPages[page] = new long[PAGE_SIZE * newWords];
+			}
+			readKey(id, oldKey);
+			rewriter.rewrite(oldKey, newKey);
+			System.arraycopy(newKey, 0, newPages[page], (id & PAGE_MASK) * newWords, newWords);
+		}
+		keyPages = newPages;
+		numWords = newWords;
+	}
+
+	@Override
+	public double getReachability(int id) {
+		double[] page = reachPages[id >>> PAGE_BITS];
+		if (concurrent) {
+			return (double) DOUBLES.getVolatile(page, id & PAGE_MASK);
+		}
+		return page[id & PAGE_MASK];
+	}
+
+	@Override
+	public void setReachability(int id, double reachProb) {
+		double[] page = reachPages[id >>> PAGE_BITS];
+		if (concurrent) {
+			DOUBLES.setVolatile(page, id & PAGE_MASK, reachProb);
+		}
+		else {
+			page[id & PAGE_MASK] = reachProb;
+		}
+	}
+
+	@Override
+	public boolean compareAndSetReachability(int id, double expected, double reachProb) {
+		double[] page = reachPages[id >>> PAGE_BITS];
+		if (concurrent) {
+			return DOUBLES.compareAndSet(page, id & PAGE_MASK, expected, reachProb);
+		}
+		if (Double.doubleToRawLongBits(page[id & PAGE_MASK]) != Double.doubleToRawLongBits(expected)) {
+			return false;
+		}
+		page[id & PAGE_MASK] = reachProb;
+		return true;
+	}
+
+	@Override
+	public boolean getFlag(int column, int id) {
+		long[] page = flagPages[column][id >>> PAGE_BITS];
+		int w = (id & PAGE_MASK) >>> 6;
+		long bits = concurrent ? (long) LONGS.getVolatile(page, w) : page[w];
+		return (bits & (1L << id)) != 0;
+	}
+
+	@Override
+	public boolean setFlag(int column, int id, boolean flag) {
+		long[] page = flagPages[column][id >>> PAGE_BITS];
+		int w = (id & PAGE_MASK) >>> 6;
+		long bit = 1L << id;
+		long old;
+		if (concurrent) {
+			old = flag ? (long) LONGS.getAndBitwiseOr(page, w, bit) : (long) LONGS.getAndBitwiseAnd(page, w, ~bit);
+		}
+		else {
+			old = page[w];
+			page[w] = flag ? old | bit : old & ~bit;
+		}
+		return (old & bit) != 0;
+	}
+
+	@Override
+	public long getFlagWord(int column, int word) {
+		long[] page = flagPages[column][word >>> (PAGE_BITS - 6)];
+		return page == null ? 0L : page[word & (PAGE_MASK >>> 6)];
+	}
+
+	@Override
+	public void clearFlags(int column) {
+		for (int page = 0; page < MAX_PAGES && flagPages[column][page] != null; page++) {
+			Arrays.fill(flagPages[column][page], 0L);
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release; the pages are garbage collected with the store
+	}
+}
@@ -0,0 +1,171 @@
+package stamina;
+
+import java.util.Arrays;
+
+/**
+ * An indexed max-priority queue of state ids keyed by a {@code double}. Each id is in the
+ * queue at most once, and its key can be changed in place. This is used with the current
+ * reachability probability as the key, which only grows while a state waits to be expanded.
+ *
+ * The heap is 4-ary: it is shallower than a binary heap, so raising a key (the common
+ * operation) moves an entry through fewer levels, and the children of a node share a cache
+ * line. Ids, keys and positions are kept in primitive arrays, about 16 bytes per entry.
+ */
+class IndexedMaxHeap {
+	private static final int ARITY = 4;
+
+	// Heap order: the id and key at each heap position
+	private int[] heapIds = new int[16];
+	private double[] heapKeys = new double[16];
+	private int size = 0;
+	// For each id, its heap position + 1, or 0 if it is not in the heap
+	private int[] positions = new int[16];
+
+	/**
+	 * Gets the number of ids in the queue.
+	 * @return The size of the queue.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Whether the queue is empty.
+	 * @return Whether the queue is empty.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Whether an id is in the queue.
+	 * @param id The id.
+	 * @return Whether it is in the queue.
+	 */
+	boolean contains(int id) {
+		return id < positions.length && positions[id] != 0;
+	}
+
+	/**
+	 * Adds an id to the queue, or changes its key if it is already there.
+	 * @param id The id.
+	 * @param key The (new) key of the id.
+	 */
+	void put(int id, double key) {
+		if (contains(id)) {
+			int pos = positions[id] - 1;
+			double old = heapKeys[pos];
+			heapKeys[pos] = key;
+			if (key > old) {
+				siftUp(pos);
+			}
+			else {
+				siftDown(pos);
+			}
+			return;
+		}
+		if (id >= positions.length) {
+			positions = Arrays.copyOf(positions, Math.max(positions.length * 2, id + 1));
+		}
+		if (size == heapIds.length) {
+			heapIds = Arrays.copyOf(heapIds, size * 2);
+			heapKeys = Arrays.copyOf(heapKeys, size * 2);
+		}
+		heapIds[size] = id;
+		heapKeys[size] = key;
+		positions[id] = size + 1;
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Gets the key of the id with the largest key.
+	 * @return The largest key.
+	 */
+	double peekKey() {
+		return heapKeys[0];
+	}
+
+	/**
+	 * Removes the id with the largest key. Ties are broken arbitrarily.
+	 * @return The id removed.
+	 */
+	int poll() {
+		if (size == 0) {
+			throw new IllegalStateException("Heap is empty");
+		}
+		int top = heapIds[0];
+		positions[top] = 0;
+		size--;
+		if (size > 0) {
+			heapIds[0] = heapIds[size];
+			heapKeys[0] = heapKeys[size];
+			positions[heapIds[0]] = 1;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Removes all ids from the queue.
+	 */
+	void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heapIds[i]] = 0;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int pos) {
+		int id = heapIds[pos];
+		double key = heapKeys[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) / ARITY;
+			if (heapKeys[parent] >= key) {
+				break;
+			}
+			move(parent, pos);
+			pos = parent;
+		}
+		place(id, key, pos);
+	}
+
+	private void siftDown(int pos) {
+		int id = heapIds[pos];
+		double key = heapKeys[pos];
+		while (true) {
+			int first = pos * ARITY + 1;
+			if (first >= size) {
+				break;
+			}
+			int best = first;
+			int last = Math.min(first + ARITY, size);
+			for (int c = first + 1; c < last; c++) {
+				if (heapKeys[c] > heapKeys[best]) {
+					best = c;
+				}
+			}
+			if (heapKeys[best] <= key) {
+				break;
+			}
+			move(best, pos);
+			pos = best;
+		}
+		place(id, key, pos);
+	}
+
+	/**
+	 * Moves the entry at one heap position to another.
+	 */
+	private void move(int from, int to) {
+		heapIds[to] = heapIds[from];
+		heapKeys[to] = heapKeys[from];
+		positions[heapIds[to]] = to + 1;
+	}
+
+	private void place(int id, double key, int pos) {
+		heapIds[pos] = id;
+		heapKeys[pos] = key;
+		positions[id] = pos + 1;
+	}
+}
@@ -0,0 +1,78 @@
+package stamina;
+
+/**
+ * A first-in first-out queue of {@code int}s (state ids), backed by a growable ring buffer
+ * so queued ids are not boxed.
+ */
+class IntQueue {
+	private int[] elements = new int[16];
+	private int head = 0;
+	private int size = 0;
+
+	/**
+	 * Adds a value to the back of the queue.
+	 * @param value The value to add.
+	 */
+	void add(int value) {
+		if (size == elements.length) {
+			int[] grown = new int[elements.length * 2];
+			int firstPart = elements.length - head;
+			System.arraycopy(elements, head, grown, 0, firstPart);
+			System.arraycopy(elements, 0, grown, firstPart, head);
+			elements = grown;
+			head = 0;
+		}
+		elements[(head + size) & (elements.length - 1)] = value;
+		size++;
+	}
+
+	/**
+	 * Removes the value at the front of the queue.
+	 * @return The value removed.
+	 */
+	int removeFirst() {
+		if (size == 0) {
+			throw new IllegalStateException("Queue is empty");
+		}
+		int value = elements[head];
+		head = (head + 1) & (elements.length - 1);
+		size--;
+		return value;
+	}
+
+	/**
+	 * Gets the number of values in the queue.
+	 * @return The size of the queue.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Whether the queue is empty.
+	 * @return Whether the queue is empty.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values from the queue.
+	 */
+	void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Copies the values in the queue, front first.
+	 * @return An array of the values.
+	 */
+	int[] toArray() {
+		int[] values = new int[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = elements[(head + i) & (elements.length - 1)];
+		}
+		return values;
+	}
+}
@@ -0,0 +1,116 @@
+package stamina;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads binary data written by {@link ChannelOutput} through a read-only mapping of one window
+ * of the file at a time, so files larger than one mapping can hold are read without parsing,
+ * and arrays are copied out of the mapping in bulk.
+ */
+class MappedInput {
+	// Size of the windows the file is mapped in
+	private static final long WINDOW_SIZE = 1L << 26;
+
+	private final FileChannel channel;
+	private final long size;
+	private final String name;
+	// Where in the file the current window starts
+	private long windowStart = 0;
+	private MappedByteBuffer window;
+
+	/**
+	 * Creates an input reading a channel from the start.
+	 * @param channel The channel, opened for reading.
+	 * @param name What is being read, for error messages.
+	 * @throws IOException
+	 */
+	MappedInput(FileChannel channel, String name) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.name = name;
+		map(0);
+	}
+
+	int getInt() throws IOException {
+		ensure(Integer.BYTES);
+		return window.getInt();
+	}
+
+	long getLong() throws IOException {
+		ensure(Long.BYTES);
+		return window.getLong();
+	}
+
+	double getDouble() throws IOException {
+		ensure(Double.BYTES);
+		return window.getDouble();
+	}
+
+	/**
+	 * Reads a string written by {@link ChannelOutput#putString(String)}.
+	 * @return The string.
+	 * @throws IOException
+	 */
+	String getString() throws IOException {
+		int length = getInt();
+		if (length < 0 || length > size) {
+			throw new IOException(name + " is corrupt");
+		}
+		byte[] bytes = new byte[length];
+		for (int pos = 0; pos < length; ) {
+			ensure(1);
+			int n = Math.min(window.remaining(), length - pos);
+			window.get(bytes, pos, n);
+			pos += n;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Fills an array.
+	 * @param values The array to read into.
+	 * @throws IOException
+	 */
+	void getInts(int[] values) throws IOException {
+		for (int pos = 0; pos < values.length; ) {
+			ensure(Integer.BYTES);
+			int n = Math.min(window.remaining() / Integer.BYTES, values.length - pos);
+			window.asIntBuffer().get(values, pos, n);
+			window.position(window.position() + n * Integer.BYTES);
+			pos += n;
+		}
+	}
+
+	/**
+	 * Fills an array.
+	 * @param values The array to read into.
+	 * @throws IOException
+	 */
+	void getDoubles(double[] values) throws IOException {
+		for (int pos = 0; pos < values.length; ) {
+			ensure(Double.BYTES);
+			int n = Math.min(window.remaining() / Double.BYTES, values.length - pos);
+			window.asDoubleBuffer().get(values, pos, n);
+			window.position(window.position() + n * Double.BYTES);
+			pos += n;
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (window.remaining() < bytes) {
+			long position = windowStart + window.position();
+			if (size - position < bytes) {
+				throw new IOException(name + " is truncated");
+			}
+			map(position);
+		}
+	}
+
+	private void map(long position) throws IOException {
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+	}
+}
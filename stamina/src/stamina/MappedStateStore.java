@@ -0,0 +1,266 @@
+package stamina;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link StateStore} that keeps the packed states, reachability and flags outside the Java
+ * heap, in temporary files mapped into memory a segment at a time. The operating system pages
+ * segments in and out as they are used, so only the hash table of the index and the segments
+ * being worked on have to stay resident, and the state set can grow well beyond the heap.
+ *
+ * Each column has its own file, created in a given directory and deleted when the store is
+ * closed (or when the JVM exits).
+ */
+class MappedStateStore implements StateStore {
+	// States per mapped segment
+	private static final int SEGMENT_BITS = 20;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+	private static final int MAX_SEGMENTS = (Integer.MAX_VALUE >>> SEGMENT_BITS) + 1;
+	private static final int NUM_FLAGS = 3;
+	// Access to the mapped buffers. Atomic access modes are used when the store is concurrent
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle DOUBLES = MethodHandles.byteBufferViewVarHandle(double[].class, ByteOrder.nativeOrder());
+	// Publication of newly mapped segments, which allocate() checks without the lock
+	private static final VarHandle SEGMENTS = MethodHandles.arrayElementVarHandle(ByteBuffer[].class);
+
+	private final Path directory;
+	private final boolean concurrent;
+	private int numWords;
+
+	private FileChannel keyChannel;
+	private ByteBuffer[] keySegments = new ByteBuffer[MAX_SEGMENTS];
+	private final FileChannel reachChannel;
+	private final ByteBuffer[] reachSegments = new ByteBuffer[MAX_SEGMENTS];
+	private final FileChannel[] flagChannels = new FileChannel[NUM_FLAGS];
+	private final ByteBuffer[][] flagSegments = new ByteBuffer[NUM_FLAGS][MAX_SEGMENTS];
+	private final Object segmentLock = new Object();
+
+	/**
+	 * Creates an empty store.
+	 * @param directory The directory to create the backing files in.
+	 * @param numWords The number of words per packed state.
+	 * @param concurrent Whether several threads may update states at once.
+	 * @throws UncheckedIOException If the backing files can't be created.
+	 */
+	MappedStateStore(Path directory, int numWords, boolean concurrent) {
+		this.directory = directory;
+		this.numWords = numWords;
+		this.concurrent = concurrent;
+		keyChannel = openColumn("keys");
+		reachChannel = openColumn("reach");
+		for (int c = 0; c < NUM_FLAGS; c++) {
+			flagChannels[c] = openColumn("flags" + c);
+		}
+	}
+
+	/**
+	 * Creates and opens the backing file of a column.
+	 */
+	private FileChannel openColumn(String name) {
+		try {
+			Path file = Files.createTempFile(directory, "stamina-", "." + name);
+			file.toFile().deleteOnExit();
+			return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Could not create state store file in " + directory, e);
+		}
+	}
+
+	/**
+	 * Maps one segment of a column. The file grows (with zeros) as needed.
+	 */
+	private static ByteBuffer map(FileChannel channel, int segment, long segmentBytes) {
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, segment * segmentBytes, segmentBytes);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Could not map state store segment", e);
+		}
+	}
+
+	@Override
+	public void allocate(int id) {
+		int segment = id >>> SEGMENT_BITS;
+		if (SEGMENTS.getAcquire(keySegments, segment) == null || SEGMENTS.getAcquire(reachSegments, segment) == null) {
+			synchronized (segmentLock) {
+				// The flag segments are written before the reachability segment is released, so a
+				// thread that sees the reachability segment also sees them
+				if (reachSegments[segment] == null) {
+					for (int c = 0; c < NUM_FLAGS; c++) {
+						flagSegments[c][segment] = map(flagChannels[c], segment, SEGMENT_SIZE >>> 3);
+					}
+					SEGMENTS.setRelease(reachSegments, segment, map(reachChannel, segment, (long) SEGMENT_SIZE * Double.BYTES));
+				}
+				if (keySegments[segment] == null) {
+					SEGMENTS.setRelease(keySegments, segment, map(keyChannel, segment, (long) SEGMENT_SIZE * numWords * Long.BYTES));
+				}
+			}
+		}
+		setFlag(TERMINAL, id, true);
+	}
+
+	@Override
+	public int getNumWords() {
+		return numWords;
+	}
+
+	@Override
+	public void writeKey(int id, long[] key) {
+		ByteBuffer segment = keySegments[id >>> SEGMENT_BITS];
+		int pos = (id & SEGMENT_MASK) * numWords * Long.BYTES;
+		for (int w = 0; w < numWords; w++) {
+			LONGS.set(segment, pos + w * Long.BYTES, key[w]);
+		}
+	}
+
+	@Override
+	public void readKey(int id, long[] key) {
+		ByteBuffer segment = keySegments[id >>> SEGMENT_BITS];
+		int pos = (id & SEGMENT_MASK) * numWords * Long.BYTES;
+		for (int w = 0; w < numWords; w++) {
+			key[w] = (long) LONGS.get(segment, pos + w * Long.BYTES);
+		}
+	}
+
+	@Override
+	public boolean keyEquals(int id, long[] key) {
+		ByteBuffer segment = keySegments[id >>> SEGMENT_BITS];
+		int pos = (id & SEGMENT_MASK) * numWords * Long.BYTES;
+		for (int w = 0; w < numWords; w++) {
+			if ((long) LONGS.get(segment, pos + w * Long.BYTES) != key[w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void rewriteKeys(int count, int newWords, KeyRewriter rewriter) {
+		FileChannel newChannel = openColumn("keys");
+		ByteBuffer[] newSegments = new ByteBuffer[MAX_SEGMENTS];
+		long[] oldKey = new long[numWords];
+		long[] newKey = new long[newWords];
+		for (int id = 0; id < count; id++) {
+			int segment = id >>> SEGMENT_BITS;
+			if (newSegments[segment] == null) {
+				newSegments[segment] = map(newChannel, segment, (long) SEGMENT_SIZE * newWords * Long.BYTES);
+			}
+			readKey(id, oldKey);
+			rewriter.rewrite(oldKey, newKey);
+			int pos = (id & SEGMENT_MASK) * newWords * Long.BYTES;
+			for (int w = 0; w < newWords; w++) {
+				LONGS.set(newSegments[segment], pos + w * Long.BYTES, newKey[w]);
+			}
+		}
+		// Segments of ids not stored yet are mapped again, with the new layout, when allocated
+		closeQuietly(keyChannel);
+		keyChannel = newChannel;
+		keySegments = newSegments;
+		numWords = newWords;
+	}
+
+	@Override
+	public double getReachability(int id) {
+		ByteBuffer segment = reachSegments[id >>> SEGMENT_BITS];
+		int pos = (id & SEGMENT_MASK) * Double.BYTES;
+		return concurrent ? (double) DOUBLES.getVolatile(segment, pos) : (double) DOUBLES.get(segment, pos);
+	}
+
+	@Override
+	public void setReachability(int id, double reachProb) {
+		ByteBuffer segment = reachSegments[id >>> SEGMENT_BITS];
+		int pos = (id & SEGMENT_MASK) * Double.BYTES;
+		if (concurrent) {
+			DOUBLES.setVolatile(segment, pos, reachProb);
+		}
+		else {
+			DOUBLES.set(segment, pos, reachProb);
+		}
+	}
+
+	@Override
+	public boolean compareAndSetReachability(int id, double expected, double reachProb) {
+		ByteBuffer segment = reachSegments[id >>> SEGMENT_BITS];
+		int pos = (id & SEGMENT_MASK) * Double.BYTES;
+		if (concurrent) {
+			return DOUBLES.compareAndSet(segment, pos, expected, reachProb);
+		}
+		double current = (double) DOUBLES.get(segment, pos);
+		if (Double.doubleToRawLongBits(current) != Double.doubleToRawLongBits(expected)) {
+			return false;
+		}
+		DOUBLES.set(segment, pos, reachProb);
+		return true;
+	}
+
+	@Override
+	public boolean getFlag(int column, int id) {
+		ByteBuffer segment = flagSegments[column][id >>> SEGMENT_BITS];
+		int pos = ((id & SEGMENT_MASK) >>> 6) * Long.BYTES;
+		long bits = concurrent ? (long) LONGS.getVolatile(segment, pos) : (long) LONGS.get(segment, pos);
+		return (bits & (1L << id)) != 0;
+	}
+
+	@Override
+	public boolean setFlag(int column, int id, boolean flag) {
+		ByteBuffer segment = flagSegments[column][id >>> SEGMENT_BITS];
+		int pos = ((id & SEGMENT_MASK) >>> 6) * Long.BYTES;
+		long bit = 1L << id;
+		long old;
+		if (concurrent) {
+			old = flag ? (long) LONGS.getAndBitwiseOr(segment, pos, bit) : (long) LONGS.getAndBitwiseAnd(segment, pos, ~bit);
+		}
+		else {
+			old = (long) LONGS.get(segment, pos);
+			LONGS.set(segment, pos, flag ? old | bit : old & ~bit);
+		}
+		return (old & bit) != 0;
+	}
+
+	@Override
+	public long getFlagWord(int column, int word) {
+		ByteBuffer segment = flagSegments[column][word >>> (SEGMENT_BITS - 6)];
+		return segment == null ? 0L : (long) LONGS.get(segment, (word & (SEGMENT_MASK >>> 6)) * Long.BYTES);
+	}
+
+	@Override
+	public void clearFlags(int column) {
+		for (int segment = 0; segment < MAX_SEGMENTS && flagSegments[column][segment] != null; segment++) {
+			ByteBuffer buffer = flagSegments[column][segment];
+			for (int pos = 0; pos < buffer.capacity(); pos += Long.BYTES) {
+				LONGS.set(buffer, pos, 0L);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		// The mappings themselves are released once the buffers are garbage collected
+		keySegments = new ByteBuffer[MAX_SEGMENTS];
+		closeQuietly(keyChannel);
+		closeQuietly(reachChannel);
+		for (FileChannel channel : flagChannels) {
+			closeQuietly(channel);
+		}
+	}
+
+	private static void closeQuietly(FileChannel channel) {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			StaminaLog.warning("Could not close state store file: " + e.getMessage());
+		}
+	}
+}
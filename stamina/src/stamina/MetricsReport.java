@@ -0,0 +1,104 @@
+package stamina;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes the {@link RunStatistics} of a run as JSON, for {@code -metricsReport}: the totals,
+ * then each refinement with the time spent in each phase and the bounds it ended with, and
+ * within it each exploration sweep with the states it expanded (and re-expanded), the
+ * transitions it generated, the states it added, the hash probes it made and the perimeter it
+ * left. Times are in milliseconds; bounds that were not computed are null.
+ */
+class MetricsReport {
+	private MetricsReport() {
+	}
+
+	/**
+	 * Writes a report.
+	 * @param fileName The file to write.
+	 * @param options The options of the run.
+	 * @param stats The statistics of the run.
+	 * @throws IOException If the file can't be written.
+	 */
+	static void write(String fileName, Options options, RunStatistics stats) throws IOException {
+		try (Writer writer = new BufferedWriter(new FileWriter(fileName))) {
+			writer.write("{\n");
+			writer.write("  \"model\": " + quote(options.getModelFileName()) + ",\n");
+			writer.write("  \"properties\": " + quote(options.getPropertyFileName()) + ",\n");
+			writer.write("  \"threads\": " + options.getNumThreads() + ",\n");
+			writer.write("  \"explorationTime\": " + stats.getExplorationTime() + ",\n");
+			writer.write("  \"buildTime\": " + stats.getBuildTime() + ",\n");
+			writer.write("  \"checkTime\": " + stats.getCheckTime() + ",\n");
+			writer.write("  \"statesExplored\": " + stats.getStatesExplored() + ",\n");
+			writer.write("  \"refinements\": [");
+			List<RunStatistics.Refinement> refinements = stats.getRefinementRecords();
+			for (int i = 0; i < refinements.size(); i++) {
+				RunStatistics.Refinement refinement = refinements.get(i);
+				writer.write(i == 0 ? "\n" : ",\n");
+				writer.write("    {\n");
+				writer.write("      \"property\": " + quote(refinement.property) + ",\n");
+				writer.write("      \"kappa\": " + number(refinement.kappa) + ",\n");
+				writer.write("      \"explorationTime\": " + refinement.explorationTime + ",\n");
+				writer.write("      \"buildTime\": " + refinement.buildTime + ",\n");
+				writer.write("      \"checkTime\": " + refinement.checkTime + ",\n");
+				writer.write("      \"lowerBound\": " + number(refinement.lowerBound) + ",\n");
+				writer.write("      \"upperBound\": " + number(refinement.upperBound) + ",\n");
+				writer.write("      \"sweeps\": [");
+				for (int j = 0; j < refinement.sweeps.size(); j++) {
+					RunStatistics.Sweep sweep = refinement.sweeps.get(j);
+					writer.write(j == 0 ? "\n" : ",\n");
+					writer.write("        { \"kappa\": " + number(sweep.kappa)
+						+ ", \"time\": " + sweep.time
+						+ ", \"statesExpanded\": " + sweep.statesExpanded
+						+ ", \"statesReexpanded\": " + sweep.statesReexpanded
+						+ ", \"transitions\": " + sweep.transitions
+						+ ", \"newStates\": " + sweep.newStates
+						+ ", \"hashProbes\": " + sweep.hashProbes
+						+ ", \"perimeterStates\": " + sweep.perimeterStates
+						+ ", \"perimeterMass\": " + number(sweep.perimeterMass) + " }");
+				}
+				writer.write(refinement.sweeps.isEmpty() ? "]\n" : "\n      ]\n");
+				writer.write("    }");
+			}
+			writer.write(refinements.isEmpty() ? "]\n" : "\n  ]\n");
+			writer.write("}\n");
+		}
+	}
+
+	/**
+	 * Formats a number for JSON, which has no NaN or infinity.
+	 * @param d The number.
+	 * @return The number, or null if it is not finite.
+	 */
+	static String number(double d) {
+		return Double.isNaN(d) || Double.isInfinite(d) ? "null" : Double.toString(d);
+	}
+
+	/**
+	 * Quotes a string for JSON.
+	 * @param s The string, or null.
+	 * @return The quoted string, or null.
+	 */
+	static String quote(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -2,364 +2,952 @@ package stamina;
 
 import prism.Prism; // For method enum
 
-public class Options {
+/**
+ * The options of one STAMINA run. Options are immutable, so one object can be shared by the
+ * model checker, the model generator and the threads they start, and checks with different
+ * options can run side by side in one JVM. They are made with a {@link Builder}, which the
+ * command line parser fills in. What changes in the course of a run (the current reachability
+ * threshold and misprediction factor) is kept in a {@link RunContext} instead.
+ */
+public final class Options {
 	// Model and property file names
-	private static String modelFileName;
-	private static String propertyFileName;
+	private final String modelFileName;
+	private final String propertyFileName;
 
 	//Probabilistic state search termination value, should start at 1 in most normal cases : Defined by kappa in command line argument
-	private static double reachabilityThreshold = 1;
+	private final double reachabilityThreshold;
 
 	// Kappa reduction factor
-	private static double kappaReductionFactor = 1.25;
+	private final double kappaReductionFactor;
 
 	// The amount we divide our estimated perimeter reachabilty by before comparing it to the target
-	private static double mispredictionFactor = 2;
+	private final double mispredictionFactor;
 
 	// max number of refinement count
-	private static int maxApproxCount = 10;
+	private final int maxApproxCount;
 
 	// termination Error window
-	private static double probErrorWindow = 1.0e-3;
+	private final double probErrorWindow;
 
 	// Use property based refinement
-	private static boolean noPropRefine = false;
+	private final boolean noPropRefine;
 
 	// Rank transitions
-	private static boolean rankTransitions = false;
+	private final boolean rankTransitions;
 
 	// Set cudd Memory limit
-	private static String cuddMemoryLimit = "1g";
+	private final String cuddMemoryLimit;
 
 	// Saving variables
-	private static boolean exportModel = false;
+	private final boolean exportModel;
 
 	// Saving filenames
-	private static String exportFileName = null;
+	private final String exportFileName;
 
 	//Variables for exporting perimeter states
-	private static boolean exportPerimeterStates = false;
-	private static String exportPerimeterFilename = null;
+	private final boolean exportPerimeterStates;
+	private final String exportPerimeterFilename;
 
 	// Import variables
-	private static boolean importModel = false;
+	private final boolean importModel;
 
 	// Import filenames
-	private static String importFileName = null;
+	private final String importFileName;
 
 	// Specific Property
-	private static boolean specificProperty = false;
-	private static String property = null;
+	private final boolean specificProperty;
+	private final String property;
 
 	// Should the transitions be exported to a file?
-	private static String exportTransitionsToFile = null;
+	private final String exportTransitionsToFile;
 
 	// Max iterations
-	private static int maxIterations = 10000;
+	private final int maxIterations;
 
 	// Undefined constants
-	private static String undefinedConstants = null;
+	private final String undefinedConstants;
 
 	// Export to MRMC
-	private static boolean mrmc = false;
+	private final boolean mrmc;
 
 	// The method to use (see the final ints in Prism.java:116)
-	private static int method = Prism.EXPLICIT;
+	private final int method;
+
+	// Number of worker threads used during state space exploration
+	private final int numThreads;
+
+	// Whether multi-threaded exploration must reproduce the single-threaded search exactly
+	private final boolean deterministicExploration;
+
+	// Whether each kappa refinement restarts only from the states holding reachability
+	private final boolean incrementalRefinement;
+
+	// Memory budget of the transition cache, in megabytes (0 disables the cache)
+	private final int transitionCacheSize;
+
+	// Directory for the memory-mapped state store, or null to keep the state set on the heap
+	private final String mappedStateStoreDirectory;
+
+	// Whether the truncated CTMC is built directly from the explored state set instead of by PRISM
+	private final boolean directModelBuild;
+
+	// Whether transient analysis uses STAMINA's own uniformisation instead of PRISM's
+	private final boolean nativeTransientEngine;
+
+	// Accuracy of the Fox-Glynn truncation (and convergence check) of STAMINA's transient analysis
+	private final double transientAccuracy;
+
+	// Whether both bounds are computed in one pass when the property isn't refined for
+	private final boolean dualBound;
+
+	// Whether the properties are checked together over one truncated state space
+	private final boolean batchProperties;
+
+	// Number of points of a constant sweep checked at the same time
+	private final int sweepThreads;
+
+	// Directory snapshots of the explored state space are kept in, or null for none
+	private final String snapshotDirectory;
+
+	// Whether models are exported and imported in the binary format
+	private final boolean binaryModel;
+
+	// File the metrics report is written to at the end of the run, or null for none
+	private final String metricsReportFile;
+
+	// Whether the model's commands are compiled for successor generation instead of interpreted by PRISM
+	private final boolean compileCommands;
+
+	// File the bounds of each property are written to, or null for none
+	private final String resultsFileName;
+
+	private Options(Builder builder) {
+		modelFileName = builder.modelFileName;
+		propertyFileName = builder.propertyFileName;
+		reachabilityThreshold = builder.reachabilityThreshold;
+		kappaReductionFactor = builder.kappaReductionFactor;
+		mispredictionFactor = builder.mispredictionFactor;
+		maxApproxCount = builder.maxApproxCount;
+		probErrorWindow = builder.probErrorWindow;
+		noPropRefine = builder.noPropRefine;
+		rankTransitions = builder.rankTransitions;
+		cuddMemoryLimit = builder.cuddMemoryLimit;
+		exportModel = builder.exportModel;
+		exportFileName = builder.exportFileName;
+		exportPerimeterStates = builder.exportPerimeterStates;
+		exportPerimeterFilename = builder.exportPerimeterFilename;
+		importModel = builder.importModel;
+		importFileName = builder.importFileName;
+		specificProperty = builder.specificProperty;
+		property = builder.property;
+		exportTransitionsToFile = builder.exportTransitionsToFile;
+		maxIterations = builder.maxIterations;
+		undefinedConstants = builder.undefinedConstants;
+		mrmc = builder.mrmc;
+		method = builder.method;
+		numThreads = builder.numThreads;
+		deterministicExploration = builder.deterministicExploration;
+		incrementalRefinement = builder.incrementalRefinement;
+		transitionCacheSize = builder.transitionCacheSize;
+		mappedStateStoreDirectory = builder.mappedStateStoreDirectory;
+		directModelBuild = builder.directModelBuild;
+		nativeTransientEngine = builder.nativeTransientEngine;
+		transientAccuracy = builder.transientAccuracy;
+		dualBound = builder.dualBound;
+		batchProperties = builder.batchProperties;
+		sweepThreads = builder.sweepThreads;
+		snapshotDirectory = builder.snapshotDirectory;
+		binaryModel = builder.binaryModel;
+		metricsReportFile = builder.metricsReportFile;
+		compileCommands = builder.compileCommands;
+		resultsFileName = builder.resultsFileName;
+	}
 
 	/**
-	 * Gets reachability threshold (&kappa;) as double.
-	 * @return The reachability threshold.
+	 * Creates a builder with the default options.
+	 * @return The builder.
 	 */
-	public static double getReachabilityThreshold() {
-		return reachabilityThreshold;
+	public static Builder builder() {
+		return new Builder();
 	}
+
 	/**
-	 * Sets the reachability threshold (&kappa;).
-	 * @param reach New reachability threshold.
+	 * Creates a builder starting from these options, to make options that differ in a few.
+	 * @return The builder.
 	 */
-	public static void setReachabilityThreshold(double reach) {
-		reachabilityThreshold = reach;
+	public Builder toBuilder() {
+		return new Builder(this);
 	}
+
 	/**
-	 * Gets the reduction factor associated with the reachability
-	 * threshold (r<sub>&kappa;</sub>).
-	 * @return Kappa reduction factor.
+	 * Gets the reachability threshold (&kappa;) the run starts with. The current one is kept
+	 * in the {@link RunContext}.
+	 * @return The reachability threshold.
 	 */
-	public static double getKappaReductionFactor() {
-		return kappaReductionFactor;
+	public double getReachabilityThreshold() {
+		return reachabilityThreshold;
 	}
 	/**
-	 * Sets the reduction factor associated with the reachability
+	 * Gets the reduction factor associated with the reachability
 	 * threshold (r<sub>&kappa;</sub>).
-	 * @param fac New kappa reduction factor
+	 * @return Kappa reduction factor.
 	 */
-	public static void setKappaReductionFactor(double fac) {
-		kappaReductionFactor = fac;
+	public double getKappaReductionFactor() {
+		return kappaReductionFactor;
 	}
 	/**
-	 * Gets the misprediction factor.
+	 * Gets the misprediction factor the run starts with. The current one is kept in the
+	 * {@link RunContext}.
 	 * @return The misprediction factor.
 	 */
-	public static double getMispredictionFactor() {
+	public double getMispredictionFactor() {
 		return mispredictionFactor;
 	}
-	/**
-	 * Sets a new misprediction factor.
-	 * @param fac New misprediction factor.
-	 */
-	public static void setMispredictionFactor(double fac) {
-		mispredictionFactor = fac;
-	}
 	/**
 	 * Gets the max approximate count:  maximum number of iterations used in computing the upper and lower bounds of the
 	 * probabilities of reaching a certain state.
 	 * @return Max approximate count.
 	 */
-	public static int getMaxApproxCount() {
+	public int getMaxApproxCount() {
 		return maxApproxCount;
 	}
-	/**
-	 * Sets the maximum number of iterations used in computing the upper and lower bounds of the
-	 * probabilities of reaching a certain state.
-	 * @param rc The maximum number of iterations.
-	 */
-	public static void setMaxRefinementCount(int rc) {
-		maxApproxCount = rc;
-	}
 	/**
 	 * Gets the maximum allowed difference between P<sub>min</sub> and P<sub>max</sub>.
 	 * @return Probability error window.
 	 */
-	public static double getProbErrorWindow() {
+	public double getProbErrorWindow() {
 		return probErrorWindow;
 	}
-	/**
-	 * Sets the maximum allowed difference between P<sub>min</sub> and P<sub>max</sub>.
-	 * @param w The window to be set.
-	 */
-	public static void setProbErrorWindow(double w) {
-		probErrorWindow = w;
-	}
-	/**
-	 * Sets whether or not we are using property based refinement.
-	 * @param o Whether or not to use property based refinement.
-	 */
-	public static void setNoPropRefine(boolean o) {
-		noPropRefine = o;
-	}
 	/**
 	 * Gets whether or not we are using property based refinement.
 	 * @return Whether or not we are using property based refinement.
 	 */
-	public static boolean getNoPropRefine() {
+	public boolean getNoPropRefine() {
 		return noPropRefine;
 	}
-	/**
-	 * Sets whether or not we are using rank transitions.
-	 * @param o Rank transitions are used or not.
-	 */
-	public static void setRankTransitions(boolean o) {
-		rankTransitions = o;
-	}
 	/**
 	 * Gets whether or not we are using rank transitions.
 	 * @return Whether rank transitions are used or not.
 	 */
-	public static boolean getRankTransitions() {
+	public boolean getRankTransitions() {
 		return rankTransitions;
 	}
-	/**
-	 * Sets the cudd memory limit available to STAMINA.
-	 * @param limit The memory limit formatted as string.
-	 */
-	public static void setCuddMemoryLimit(String limit) {
-		cuddMemoryLimit = new String(limit);
-	}
 	/**
 	 * Gets the cudd memory limit available to STAMINA.
 	 * @return The memory limit formatted as a string.
 	 */
-	public static String getCuddMemoryLimit() {
+	public String getCuddMemoryLimit() {
 		return cuddMemoryLimit;
 	}
 	/**
 	 * Gets whether or not we will be exporting the model
 	 * @return Whether or not the model is to be exported.
 	 */
-	public static boolean getExportModel() {
+	public boolean getExportModel() {
 		return exportModel;
 	}
-	/**
-	 * Sets whether or not we will be exporting the model.
-	 * @param e Whether or not the model is to be exported.
-	 */
-	public static void setExportModel(boolean e) {
-		exportModel = e;
-	}
 	/**
 	 * Gets the filename the model will be exported to.
 	 * @return The filename.
 	 */
-	public static String getExportFileName() {
+	public String getExportFileName() {
 		return exportFileName;
 	}
-	/**
-	 * Sets the filename the model will be exported to.
-	 * @param s The filename.
-	 */
-	public static void setExportFileName(String s) {
-		exportFileName = s;
-	}
 	/**
 	 * Gets whether or not we are going to export perimeter states.
 	 * @return If perimeter states are to be exported.
 	 */
-	public static boolean getExportPerimeterStates() {
+	public boolean getExportPerimeterStates() {
 		return exportPerimeterStates;
 	}
-	/**
-	 * Sets whether or not we are going to export perimeter states.
-	 * @param b If perimeter states are to be exported.
-	 */
-	public static void setExportPerimeterStates(boolean b) {
-		exportPerimeterStates = b;
-	}
 	/**
 	 * Gets the filename we will export perimter states to.
 	 * @return The filename.
 	 */
-	public static String getExportPerimeterFilename() {
+	public String getExportPerimeterFilename() {
 		return exportPerimeterFilename;
 	}
-	/**
-	 * Sets the filename we will export perimeter states to.
-	 * @param s The filename.
-	 */
-	public static void setExportPerimeterFilename(String s) {
-		exportPerimeterFilename = s;
-	}
 	/**
 	 * Gets whether or not we are going to import a model.
 	 * @return Whether or not to import a model.
 	 */
-	public static boolean getImportModel() {
+	public boolean getImportModel() {
 		return importModel;
 	}
-	/**
-	 * Sets whether or not we are going to import a model.
-	 * @param e Whether or not to import a model.
-	 */
-	public static void setImportModel(boolean e) {
-		importModel = e;
-	}
 	/**
 	 * Gets the filename we are going to import from.
 	 * @return The filename.
 	 */
-	public static String getImportFileName() {
+	public String getImportFileName() {
 		return importFileName;
 	}
-	/**
-	 * Sets the filename we are going to import from.
-	 * @param s The filename.
-	 */
-	public static void setImportFileName(String s) {
-		importFileName = s;
-	}
 	/**
 	 * Gets whether or not this is a specific property.
 	 * @return Whether or not this is a specific property.
 	 */
-	public static boolean getSpecificProperty() {
+	public boolean getSpecificProperty() {
 		return specificProperty;
 	}
-	/**
-	 * Sets whether or not this is a specific property.
-	 * @param b Whether or not this is a specific property.
-	 */
-	public static void setSpecificProperty(boolean b) {
-		specificProperty = b;
-	}
 	/**
 	 * Gets the property name of this property.
 	 * @return The property name.
 	 */
-	public static String getPropertyName() {
+	public String getPropertyName() {
 		return property;
 	}
-	/**
-	 * Sets the property name of this property.
-	 * @param s The property name.
-	 */
-	public static void setPropertyName(String s) {
-		property = s;
-	}
 	/**
 	 * Gets the filename where the transition matrix will be
 	 * exported.
 	 * @return The filename.
 	 */
-	public static String getExportTransitionsToFile() {
+	public String getExportTransitionsToFile() {
 		return exportTransitionsToFile;
 	}
-	/**
-	 * Sets the filename where the transition matrix will be
-	 * exported.
-	 * @param b The filename.
-	 */
-	public static void setExportTransitionsToFile(String b) {
-		exportTransitionsToFile = b;
-	}
-
-	public static void setMaxIterations(int mi) {
-		maxIterations = mi;
-	}
 
-	public static int getMaxIterations() {
+	public int getMaxIterations() {
 		return maxIterations;
 	}
 
-	public static void appendUndefinedConsts(String newConstants) {
-		if (undefinedConstants == null) {
-			undefinedConstants = newConstants;
-			return;
-		}
-		undefinedConstants += "," + newConstants;
-	}
-
-	public static String getUndefinedConstants() {
+	public String getUndefinedConstants() {
 		return undefinedConstants;
 	}
 
-	public static void setMrmc(boolean m) {
-		mrmc = m;
-	}
-
-	public static boolean getMrmc() {
+	public boolean getMrmc() {
 		return mrmc;
 	}
 
-	public static void setModelFileName(String model) {
-		modelFileName = model;
-	}
-
-	public static String getModelFileName() {
+	public String getModelFileName() {
 		return modelFileName;
 	}
 
-	public static void setPropertyFileName(String prop) {
-		propertyFileName = prop;
-	}
-
-	public static String getPropertyFileName() {
+	public String getPropertyFileName() {
 		return propertyFileName;
 	}
 
-	public static void setMethod(int mthd) {
-		method = mthd;
+	public int getMethod() {
+		return method;
+	}
+	/**
+	 * Gets the number of worker threads used for state space exploration. A value of 1
+	 * means the original single-threaded breadth first search is used.
+	 * @return The number of exploration threads.
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+	/**
+	 * Gets whether multi-threaded exploration is deterministic, i.e., produces exactly the
+	 * same state set and reachability values as the single-threaded search.
+	 * @return Whether exploration is deterministic.
+	 */
+	public boolean getDeterministicExploration() {
+		return deterministicExploration;
+	}
+	/**
+	 * Gets the directory in which the state set is kept in memory-mapped files.
+	 * @return The directory, or null if the state set is kept on the heap.
+	 */
+	public String getMappedStateStoreDirectory() {
+		return mappedStateStoreDirectory;
+	}
+	/**
+	 * Gets whether kappa refinement is incremental, i.e., each search restarts only from the
+	 * states holding reachability instead of from the initial state.
+	 * @return Whether refinement is incremental.
+	 */
+	public boolean getIncrementalRefinement() {
+		return incrementalRefinement;
+	}
+	/**
+	 * Gets the memory budget of the cache of transitions of expanded states.
+	 * @return The budget in megabytes, or 0 if the cache is disabled.
+	 */
+	public int getTransitionCacheSize() {
+		return transitionCacheSize;
+	}
+	/**
+	 * Gets whether the truncated CTMC is built directly from the explored state set rather than
+	 * by PRISM exploring the model again.
+	 * @return Whether the model is built directly.
+	 */
+	public boolean getDirectModelBuild() {
+		return directModelBuild;
+	}
+	/**
+	 * Gets whether transient analysis uses STAMINA's own parallel uniformisation rather than PRISM's.
+	 * @return Whether the STAMINA transient engine is used.
+	 */
+	public boolean getNativeTransientEngine() {
+		return nativeTransientEngine;
+	}
+	/**
+	 * Gets the accuracy of STAMINA's transient analysis.
+	 * @return The accuracy.
+	 */
+	public double getTransientAccuracy() {
+		return transientAccuracy;
+	}
+	/**
+	 * Gets whether the lower and upper bound are computed together, over one model, when
+	 * property-based refinement is off.
+	 * @return Whether both bounds are computed in one pass.
+	 */
+	public boolean getDualBound() {
+		return dualBound;
+	}
+	/**
+	 * Gets whether the properties are checked together over one truncated state space.
+	 * @return Whether the properties are batched.
+	 */
+	public boolean getBatchProperties() {
+		return batchProperties;
+	}
+	/**
+	 * Gets the number of points of a constant sweep checked at the same time.
+	 * @return The number of sweep threads (1 checks the points one after another).
+	 */
+	public int getSweepThreads() {
+		return sweepThreads;
+	}
+	/**
+	 * Gets the directory snapshots of the explored state space are kept in.
+	 * @return The directory, or null if no snapshots are written or read.
+	 */
+	public String getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+	/**
+	 * Gets whether models are exported and imported in STAMINA's binary format rather than
+	 * PRISM's text files.
+	 * @return Whether the binary model format is used.
+	 */
+	public boolean getBinaryModel() {
+		return binaryModel;
+	}
+	/**
+	 * Gets the file the metrics report of the run is written to.
+	 * @return The file name, or null if no report is written.
+	 */
+	public String getMetricsReportFile() {
+		return metricsReportFile;
+	}
+	/**
+	 * Gets whether the guards, rates and updates of the model's commands are compiled for
+	 * exploration rather than evaluated by PRISM's updater.
+	 * @return Whether the commands are compiled.
+	 */
+	public boolean getCompileCommands() {
+		return compileCommands;
+	}
+	/**
+	 * Gets the file the bounds of each property are written to (replacing those of the last one).
+	 * @return The file name, or null if no results file is written.
+	 */
+	public String getResultsFileName() {
+		return resultsFileName;
 	}
 
-	public static int getMethod() {
-		return method;
+	/**
+	 * Builds {@link Options}. Every option starts at its default.
+	 */
+	public static final class Builder {
+		// Model and property file names
+		private String modelFileName;
+		private String propertyFileName;
+
+		//Probabilistic state search termination value, should start at 1 in most normal cases : Defined by kappa in command line argument
+		private double reachabilityThreshold = 1;
+
+		// Kappa reduction factor
+		private double kappaReductionFactor = 1.25;
+
+		// The amount we divide our estimated perimeter reachabilty by before comparing it to the target
+		private double mispredictionFactor = 2;
+
+		// max number of refinement count
+		private int maxApproxCount = 10;
+
+		// termination Error window
+		private double probErrorWindow = 1.0e-3;
+
+		// Use property based refinement
+		private boolean noPropRefine = false;
+
+		// Rank transitions
+		private boolean rankTransitions = false;
+
+		// Set cudd Memory limit
+		private String cuddMemoryLimit = "1g";
+
+		// Saving variables
+		private boolean exportModel = false;
+
+		// Saving filenames
+		private String exportFileName = null;
+
+		//Variables for exporting perimeter states
+		private boolean exportPerimeterStates = false;
+		private String exportPerimeterFilename = null;
+
+		// Import variables
+		private boolean importModel = false;
+
+		// Import filenames
+		private String importFileName = null;
+
+		// Specific Property
+		private boolean specificProperty = false;
+		private String property = null;
+
+		// Should the transitions be exported to a file?
+		private String exportTransitionsToFile = null;
+
+		// Max iterations
+		private int maxIterations = 10000;
+
+		// Undefined constants
+		private String undefinedConstants = null;
+
+		// Export to MRMC
+		private boolean mrmc = false;
+
+		// The method to use (see the final ints in Prism.java:116)
+		private int method = Prism.EXPLICIT;
+
+		// Number of worker threads used during state space exploration
+		private int numThreads = 1;
+
+		// Whether multi-threaded exploration must reproduce the single-threaded search exactly
+		private boolean deterministicExploration = false;
+
+		// Whether each kappa refinement restarts only from the states holding reachability
+		private boolean incrementalRefinement = false;
+
+		// Memory budget of the transition cache, in megabytes (0 disables the cache)
+		private int transitionCacheSize = 0;
+
+		// Directory for the memory-mapped state store, or null to keep the state set on the heap
+		private String mappedStateStoreDirectory = null;
+
+		// Whether the truncated CTMC is built directly from the explored state set instead of by PRISM
+		private boolean directModelBuild = false;
+
+		// Whether transient analysis uses STAMINA's own uniformisation instead of PRISM's
+		private boolean nativeTransientEngine = false;
+
+		// Accuracy of the Fox-Glynn truncation (and convergence check) of STAMINA's transient analysis
+		private double transientAccuracy = 1.0e-6;
+
+		// Whether both bounds are computed in one pass when the property isn't refined for
+		private boolean dualBound = false;
+
+		// Whether the properties are checked together over one truncated state space
+		private boolean batchProperties = false;
+
+		// Number of points of a constant sweep checked at the same time
+		private int sweepThreads = 1;
+
+		// Directory snapshots of the explored state space are kept in, or null for none
+		private String snapshotDirectory = null;
+
+		// Whether models are exported and imported in the binary format
+		private boolean binaryModel = false;
+
+		// File the metrics report is written to at the end of the run, or null for none
+		private String metricsReportFile = null;
+
+		// Whether the model's commands are compiled for successor generation
+		private boolean compileCommands = false;
+
+		// File the bounds of each property are written to, or null for none
+		private String resultsFileName = "results.txt";
+
+		private Builder() {
+		}
+
+		private Builder(Options options) {
+			modelFileName = options.modelFileName;
+			propertyFileName = options.propertyFileName;
+			reachabilityThreshold = options.reachabilityThreshold;
+			kappaReductionFactor = options.kappaReductionFactor;
+			mispredictionFactor = options.mispredictionFactor;
+			maxApproxCount = options.maxApproxCount;
+			probErrorWindow = options.probErrorWindow;
+			noPropRefine = options.noPropRefine;
+			rankTransitions = options.rankTransitions;
+			cuddMemoryLimit = options.cuddMemoryLimit;
+			exportModel = options.exportModel;
+			exportFileName = options.exportFileName;
+			exportPerimeterStates = options.exportPerimeterStates;
+			exportPerimeterFilename = options.exportPerimeterFilename;
+			importModel = options.importModel;
+			importFileName = options.importFileName;
+			specificProperty = options.specificProperty;
+			property = options.property;
+			exportTransitionsToFile = options.exportTransitionsToFile;
+			maxIterations = options.maxIterations;
+			undefinedConstants = options.undefinedConstants;
+			mrmc = options.mrmc;
+			method = options.method;
+			numThreads = options.numThreads;
+			deterministicExploration = options.deterministicExploration;
+			incrementalRefinement = options.incrementalRefinement;
+			transitionCacheSize = options.transitionCacheSize;
+			mappedStateStoreDirectory = options.mappedStateStoreDirectory;
+			directModelBuild = options.directModelBuild;
+			nativeTransientEngine = options.nativeTransientEngine;
+			transientAccuracy = options.transientAccuracy;
+			dualBound = options.dualBound;
+			batchProperties = options.batchProperties;
+			sweepThreads = options.sweepThreads;
+			snapshotDirectory = options.snapshotDirectory;
+			binaryModel = options.binaryModel;
+			metricsReportFile = options.metricsReportFile;
+			compileCommands = options.compileCommands;
+			resultsFileName = options.resultsFileName;
+		}
+
+		/**
+		 * Sets the reachability threshold (&kappa;).
+		 * @param reach New reachability threshold.
+		 * @return This builder.
+		 */
+		public Builder setReachabilityThreshold(double reach) {
+			reachabilityThreshold = reach;
+			return this;
+		}
+		/**
+		 * Sets the reduction factor associated with the reachability
+		 * threshold (r<sub>&kappa;</sub>).
+		 * @param fac New kappa reduction factor
+		 * @return This builder.
+		 */
+		public Builder setKappaReductionFactor(double fac) {
+			kappaReductionFactor = fac;
+			return this;
+		}
+		/**
+		 * Sets a new misprediction factor.
+		 * @param fac New misprediction factor.
+		 * @return This builder.
+		 */
+		public Builder setMispredictionFactor(double fac) {
+			mispredictionFactor = fac;
+			return this;
+		}
+		/**
+		 * Sets the maximum number of iterations used in computing the upper and lower bounds of the
+		 * probabilities of reaching a certain state.
+		 * @param rc The maximum number of iterations.
+		 * @return This builder.
+		 */
+		public Builder setMaxRefinementCount(int rc) {
+			maxApproxCount = rc;
+			return this;
+		}
+		/**
+		 * Sets the maximum allowed difference between P<sub>min</sub> and P<sub>max</sub>.
+		 * @param w The window to be set.
+		 * @return This builder.
+		 */
+		public Builder setProbErrorWindow(double w) {
+			probErrorWindow = w;
+			return this;
+		}
+		/**
+		 * Sets whether or not we are using property based refinement.
+		 * @param o Whether or not to use property based refinement.
+		 * @return This builder.
+		 */
+		public Builder setNoPropRefine(boolean o) {
+			noPropRefine = o;
+			return this;
+		}
+		/**
+		 * Sets whether or not we are using rank transitions.
+		 * @param o Rank transitions are used or not.
+		 * @return This builder.
+		 */
+		public Builder setRankTransitions(boolean o) {
+			rankTransitions = o;
+			return this;
+		}
+		/**
+		 * Sets the cudd memory limit available to STAMINA.
+		 * @param limit The memory limit formatted as string.
+		 * @return This builder.
+		 */
+		public Builder setCuddMemoryLimit(String limit) {
+			cuddMemoryLimit = new String(limit);
+			return this;
+		}
+		/**
+		 * Sets whether or not we will be exporting the model.
+		 * @param e Whether or not the model is to be exported.
+		 * @return This builder.
+		 */
+		public Builder setExportModel(boolean e) {
+			exportModel = e;
+			return this;
+		}
+		/**
+		 * Sets the filename the model will be exported to.
+		 * @param s The filename.
+		 * @return This builder.
+		 */
+		public Builder setExportFileName(String s) {
+			exportFileName = s;
+			return this;
+		}
+		/**
+		 * Sets whether or not we are going to export perimeter states.
+		 * @param b If perimeter states are to be exported.
+		 * @return This builder.
+		 */
+		public Builder setExportPerimeterStates(boolean b) {
+			exportPerimeterStates = b;
+			return this;
+		}
+		/**
+		 * Sets the filename we will export perimeter states to.
+		 * @param s The filename.
+		 * @return This builder.
+		 */
+		public Builder setExportPerimeterFilename(String s) {
+			exportPerimeterFilename = s;
+			return this;
+		}
+		/**
+		 * Sets whether or not we are going to import a model.
+		 * @param e Whether or not to import a model.
+		 * @return This builder.
+		 */
+		public Builder setImportModel(boolean e) {
+			importModel = e;
+			return this;
+		}
+		/**
+		 * Sets the filename we are going to import from.
+		 * @param s The filename.
+		 * @return This builder.
+		 */
+		public Builder setImportFileName(String s) {
+			importFileName = s;
+			return this;
+		}
+		/**
+		 * Sets whether or not this is a specific property.
+		 * @param b Whether or not this is a specific property.
+		 * @return This builder.
+		 */
+		public Builder setSpecificProperty(boolean b) {
+			specificProperty = b;
+			return this;
+		}
+		/**
+		 * Sets the property name of this property.
+		 * @param s The property name.
+		 * @return This builder.
+		 */
+		public Builder setPropertyName(String s) {
+			property = s;
+			return this;
+		}
+		/**
+		 * Sets the filename where the transition matrix will be
+		 * exported.
+		 * @param b The filename.
+		 * @return This builder.
+		 */
+		public Builder setExportTransitionsToFile(String b) {
+			exportTransitionsToFile = b;
+			return this;
+		}
+
+		public Builder setMaxIterations(int mi) {
+			maxIterations = mi;
+			return this;
+		}
+
+		public Builder appendUndefinedConsts(String newConstants) {
+			if (undefinedConstants == null) {
+				undefinedConstants = newConstants;
+				return this;
+			}
+			undefinedConstants += "," + newConstants;
+			return this;
+		}
+
+		public Builder setMrmc(boolean m) {
+			mrmc = m;
+			return this;
+		}
+
+		public Builder setModelFileName(String model) {
+			modelFileName = model;
+			return this;
+		}
+
+		public Builder setPropertyFileName(String prop) {
+			propertyFileName = prop;
+			return this;
+		}
+
+		public Builder setMethod(int mthd) {
+			method = mthd;
+			return this;
+		}
+		/**
+		 * Sets the number of worker threads used for state space exploration.
+		 * @param n The number of exploration threads.
+		 * @return This builder.
+		 */
+		public Builder setNumThreads(int n) {
+			numThreads = n;
+			return this;
+		}
+		/**
+		 * Sets whether multi-threaded exploration is deterministic.
+		 * @param d Whether exploration is deterministic.
+		 * @return This builder.
+		 */
+		public Builder setDeterministicExploration(boolean d) {
+			deterministicExploration = d;
+			return this;
+		}
+		/**
+		 * Sets the directory in which the state set is kept in memory-mapped files.
+		 * @param dir The directory, or null to keep the state set on the heap.
+		 * @return This builder.
+		 */
+		public Builder setMappedStateStoreDirectory(String dir) {
+			mappedStateStoreDirectory = dir;
+			return this;
+		}
+		/**
+		 * Sets whether kappa refinement is incremental.
+		 * @param inc Whether refinement is incremental.
+		 * @return This builder.
+		 */
+		public Builder setIncrementalRefinement(boolean inc) {
+			incrementalRefinement = inc;
+			return this;
+		}
+		/**
+		 * Sets the memory budget of the cache of transitions of expanded states.
+		 * @param mb The budget in megabytes, or 0 to disable the cache.
+		 * @return This builder.
+		 */
+		public Builder setTransitionCacheSize(int mb) {
+			transitionCacheSize = mb;
+			return this;
+		}
+		/**
+		 * Sets whether the truncated CTMC is built directly from the explored state set.
+		 * @param direct Whether the model is built directly.
+		 * @return This builder.
+		 */
+		public Builder setDirectModelBuild(boolean direct) {
+			directModelBuild = direct;
+			return this;
+		}
+		/**
+		 * Sets whether transient analysis uses STAMINA's own parallel uniformisation.
+		 * @param n Whether the STAMINA transient engine is used.
+		 * @return This builder.
+		 */
+		public Builder setNativeTransientEngine(boolean n) {
+			nativeTransientEngine = n;
+			return this;
+		}
+		/**
+		 * Sets the accuracy of STAMINA's transient analysis.
+		 * @param acc The accuracy.
+		 * @return This builder.
+		 */
+		public Builder setTransientAccuracy(double acc) {
+			transientAccuracy = acc;
+			return this;
+		}
+		/**
+		 * Sets whether the lower and upper bound are computed together.
+		 * @param d Whether both bounds are computed in one pass.
+		 * @return This builder.
+		 */
+		public Builder setDualBound(boolean d) {
+			dualBound = d;
+			return this;
+		}
+		/**
+		 * Sets whether the properties are checked together over one truncated state space.
+		 * @param b Whether the properties are batched.
+		 * @return This builder.
+		 */
+		public Builder setBatchProperties(boolean b) {
+			batchProperties = b;
+			return this;
+		}
+		/**
+		 * Sets the number of points of a constant sweep checked at the same time.
+		 * @param n The number of sweep threads.
+		 * @return This builder.
+		 */
+		public Builder setSweepThreads(int n) {
+			sweepThreads = n;
+			return this;
+		}
+		/**
+		 * Sets the directory snapshots of the explored state space are kept in.
+		 * @param dir The directory, or null for no snapshots.
+		 * @return This builder.
+		 */
+		public Builder setSnapshotDirectory(String dir) {
+			snapshotDirectory = dir;
+			return this;
+		}
+		/**
+		 * Sets whether models are exported and imported in the binary format.
+		 * @param b Whether the binary model format is used.
+		 * @return This builder.
+		 */
+		public Builder setBinaryModel(boolean b) {
+			binaryModel = b;
+			return this;
+		}
+		/**
+		 * Sets the file the metrics report is written to at the end of the run.
+		 * @param fileName The file name, or null for no report.
+		 * @return This builder.
+		 */
+		public Builder setMetricsReportFile(String fileName) {
+			metricsReportFile = fileName;
+			return this;
+		}
+		/**
+		 * Sets whether the model's commands are compiled for exploration.
+		 * @param compile Whether the commands are compiled.
+		 * @return This builder.
+		 */
+		public Builder setCompileCommands(boolean compile) {
+			compileCommands = compile;
+			return this;
+		}
+		/**
+		 * Sets the file the bounds of each property are written to.
+		 * @param fileName The file name, or null for no results file.
+		 * @return This builder.
+		 */
+		public Builder setResultsFileName(String fileName) {
+			resultsFileName = fileName;
+			return this;
+		}
+
+		/**
+		 * Makes the options.
+		 * @return The options.
+		 */
+		public Options build() {
+			return new Options(this);
+		}
 	}
 }
@@ -0,0 +1,538 @@
+package stamina;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import parser.State;
+import parser.VarList;
+
+/**
+ * The global state set of the truncated model. Each state is stored once, bit-packed by a
+ * {@link StateEncoder}, and given a dense integer id in the order it was added. Lookups hash
+ * the packed words into an open-addressing table of ids, so no boxed keys or map entries are
+ * kept per state.
+ *
+ * The table is split into segments, each with its own lock, so that several exploration
+ * threads can add states at once when the index is created as concurrent.
+ *
+ * The attributes used by the exploration are kept in columns indexed by id rather than in an
+ * object per state: the reachability probability in a {@code double} column, and the terminal,
+ * absorbing and queued flags in bit columns. Scans over all states, like counting the terminal
+ * states, are sweeps over these columns. The packed states and the columns are held by a
+ * {@link StateStore}, either on the heap or in memory-mapped files; only the hash table of
+ * ids is always on the heap.
+ */
+class PackedStateIndex {
+	// Initial number of slots in each segment's table
+	private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+	private final boolean concurrent;
+	private StateEncoder encoder;
+	private final StateStore store;
+	// Only used when states can be added concurrently and the layout can change
+	private final ReentrantReadWriteLock layoutLock;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * One part of the hash table. Slots hold id + 1, or 0 if empty.
+	 */
+	private final class Segment {
+		int[] slots = new int[INITIAL_SEGMENT_CAPACITY];
+		int count = 0;
+		// Slots looked at by find() and findOrAdd(), for the exploration metrics
+		long probes = 0;
+
+		/**
+		 * Finds the id of a packed state in this segment.
+		 * @return The id, or -1 if not present.
+		 */
+		int find(long[] key, int hash) {
+			int mask = slots.length - 1;
+			for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+				int entry = slots[slot];
+				probes++;
+				if (entry == 0) {
+					return -1;
+				}
+				if (store.keyEquals(entry - 1, key)) {
+					return entry - 1;
+				}
+			}
+		}
+
+		/**
+		 * Finds the id of a packed state in this segment, adding it if not present.
+		 */
+		int findOrAdd(long[] key, int hash) {
+			int mask = slots.length - 1;
+			int slot = hash & mask;
+			for (; ; slot = (slot + 1) & mask) {
+				int entry = slots[slot];
+				probes++;
+				if (entry == 0) {
+					break;
+				}
+				if (store.keyEquals(entry - 1, key)) {
+					return entry - 1;
+				}
+			}
+			int id = addState(key);
+			slots[slot] = id + 1;
+			if (++count * 4 >= slots.length * 3) {
+				grow();
+			}
+			return id;
+		}
+
+		/**
+		 * Doubles the number of slots.
+		 */
+		void grow() {
+			int[] old = slots;
+			slots = new int[old.length * 2];
+			long[] key = new long[store.getNumWords()];
+			for (int entry : old) {
+				if (entry != 0) {
+					store.readKey(entry - 1, key);
+					insertId(entry - 1, hash(key));
+				}
+			}
+		}
+
+		/**
+		 * Puts an id in the table without checking for duplicates.
+		 */
+		void insertId(int id, int hash) {
+			int mask = slots.length - 1;
+			int slot = hash & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Creates an empty index.
+	 * @param varList The variables of the model.
+	 * @param concurrent Whether states may be looked up and added by several threads at once.
+	 * @param storeDirectory Directory for a memory-mapped state store, or null to keep states on the heap.
+	 */
+	PackedStateIndex(VarList varList, boolean concurrent, Path storeDirectory) {
+		this.concurrent = concurrent;
+		encoder = new StateEncoder(varList);
+		if (storeDirectory == null) {
+			store = new HeapStateStore(encoder.getNumWords(), concurrent);
+		}
+		else {
+			store = new MappedStateStore(storeDirectory, encoder.getNumWords(), concurrent);
+		}
+		layoutLock = concurrent && encoder.isDynamic() ? new ReentrantReadWriteLock() : null;
+		int numSegments = concurrent ? 64 : 1;
+		segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new Segment();
+		}
+		segmentMask = numSegments - 1;
+	}
+
+	/**
+	 * Gets the number of states in the index. Ids run from 0 to {@code size() - 1}.
+	 * @return The number of states.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Whether the states in this index are valid for a list of variables, i.e., whether the
+	 * variables still have the same types and ranges.
+	 * @param varList The variables to check.
+	 * @return Whether the index can be kept for these variables.
+	 */
+	boolean fits(VarList varList) {
+		return encoder.matches(varList);
+	}
+
+	/**
+	 * Gets the id of a state.
+	 * @param state The state to look up.
+	 * @return The id of the state, or -1 if it is not in the index.
+	 */
+	int find(State state) {
+		return lookup(state, false);
+	}
+
+	/**
+	 * Gets the id of a state, adding the state if it is not in the index yet.
+	 * @param state The state to look up.
+	 * @return The id of the state.
+	 */
+	int findOrAdd(State state) {
+		return lookup(state, true);
+	}
+
+	/**
+	 * Decodes the state with a given id from its packed form.
+	 * @param id The id of the state.
+	 * @return The state.
+	 */
+	State getState(int id) {
+		if (layoutLock == null) {
+			return readState(id);
+		}
+		layoutLock.readLock().lock();
+		try {
+			return readState(id);
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	private State readState(int id) {
+		long[] key = new long[store.getNumWords()];
+		store.readKey(id, key);
+		return encoder.decode(key, 0);
+	}
+
+	/**
+	 * Gets the current reachability probability of a state.
+	 * @param id The id of the state.
+	 * @return The current reachability probability.
+	 */
+	double getReachability(int id) {
+		return store.getReachability(id);
+	}
+
+	/**
+	 * Sets the current reachability probability of a state.
+	 * @param id The id of the state.
+	 * @param reachProb The new reachability probability.
+	 */
+	void setReachability(int id, double reachProb) {
+		store.setReachability(id, reachProb);
+	}
+
+	/**
+	 * Adds to the reachability probability of a state, maxing at 1.0. When the index is
+	 * concurrent, this is safe to call while other threads add to (or claim) the same state.
+	 * @param id The id of the state.
+	 * @param newReach Amount to add to reachability probability.
+	 */
+	void addToReachability(int id, double newReach) {
+		if (!concurrent) {
+			store.setReachability(id, Math.min(store.getReachability(id) + newReach, 1.0));
+			return;
+		}
+		double old;
+		do {
+			old = store.getReachability(id);
+		} while (!store.compareAndSetReachability(id, old, Math.min(old + newReach, 1.0)));
+	}
+
+	/**
+	 * Atomically decides whether a state should be expanded and, if so, takes all of its
+	 * reachability probability and marks it as no longer terminal. A state is expanded if it
+	 * has been explored before or its reachability is at least the threshold.
+	 * @param id The id of the state.
+	 * @param threshold The reachability threshold (&kappa;).
+	 * @return The reachability probability taken from the state, or NaN if it should not be expanded.
+	 */
+	double claimForExpansion(int id, double threshold) {
+		double reach;
+		// Retry if another thread pushes reachability into the state while we take it
+		do {
+			reach = store.getReachability(id);
+			if (isTerminal(id) && reach < threshold) {
+				return Double.NaN;
+			}
+		} while (!store.compareAndSetReachability(id, reach, 0.0));
+		setTerminal(id, false);
+		return reach;
+	}
+
+	/**
+	 * Gets whether or not a state is terminal, i.e., has not been expanded yet.
+	 * @param id The id of the state.
+	 * @return Whether or not the state is terminal.
+	 */
+	boolean isTerminal(int id) {
+		return store.getFlag(StateStore.TERMINAL, id);
+	}
+
+	/**
+	 * Sets whether or not a state is terminal.
+	 * @param id The id of the state.
+	 * @param flag Whether or not the state is terminal.
+	 */
+	void setTerminal(int id, boolean flag) {
+		store.setFlag(StateStore.TERMINAL, id, flag);
+	}
+
+	/**
+	 * Gets whether or not a state is absorbing.
+	 * @param id The id of the state.
+	 * @return Whether the state is absorbing or not.
+	 */
+	boolean isAbsorbing(int id) {
+		return store.getFlag(StateStore.ABSORBING, id);
+	}
+
+	/**
+	 * Sets whether or not a state is absorbing.
+	 * @param id The id of the state.
+	 * @param flag Whether or not the state is absorbing.
+	 */
+	void setAbsorbing(int id, boolean flag) {
+		store.setFlag(StateStore.ABSORBING, id, flag);
+	}
+
+	/**
+	 * Marks a state as queued for exploration with the current kappa.
+	 * @param id The id of the state.
+	 * @return True if the state was not queued before, i.e., the caller should queue it.
+	 */
+	boolean markQueued(int id) {
+		return !store.setFlag(StateStore.QUEUED, id, true);
+	}
+
+	/**
+	 * Gets whether a state has been queued for exploration with the current kappa.
+	 * @param id The id of the state.
+	 * @return Whether the state is queued.
+	 */
+	boolean isQueued(int id) {
+		return store.getFlag(StateStore.QUEUED, id);
+	}
+
+	/**
+	 * Clears the queued flag of every state, ready for exploration with a new kappa.
+	 */
+	void clearQueued() {
+		store.clearFlags(StateStore.QUEUED);
+	}
+
+	/**
+	 * Counts the terminal states.
+	 * @return The number of terminal states.
+	 */
+	int countTerminal() {
+		int count = 0;
+		int words = (size() + 63) >>> 6;
+		for (int w = 0; w < words; w++) {
+			count += Long.bitCount(store.getFlagWord(StateStore.TERMINAL, w));
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the absorbing states.
+	 * @return The number of absorbing states.
+	 */
+	int countAbsorbing() {
+		int count = 0;
+		int words = (size() + 63) >>> 6;
+		for (int w = 0; w < words; w++) {
+			count += Long.bitCount(store.getFlagWord(StateStore.ABSORBING, w));
+		}
+		return count;
+	}
+
+	/**
+	 * Sums the reachability of the terminal (perimeter) states.
+	 * @return The reachability held by the perimeter.
+	 */
+	double terminalReachability() {
+		double sum = 0;
+		int words = (size() + 63) >>> 6;
+		for (int w = 0; w < words; w++) {
+			long word = store.getFlagWord(StateStore.TERMINAL, w);
+			while (word != 0) {
+				sum += getReachability((w << 6) + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Gets the number of hash table slots looked at to find or add states so far. Not to be
+	 * called while states are being looked up.
+	 * @return The number of probes.
+	 */
+	long getProbes() {
+		long probes = 0;
+		for (Segment segment : segments) {
+			probes += segment.probes;
+		}
+		return probes;
+	}
+
+	/**
+	 * Whether any state is terminal.
+	 * @return Whether there is a terminal state.
+	 */
+	boolean hasTerminal() {
+		int words = (size() + 63) >>> 6;
+		for (int w = 0; w < words; w++) {
+			if (store.getFlagWord(StateStore.TERMINAL, w) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the encoder the states are currently packed with. It changes when an unbounded
+	 * variable is widened.
+	 * @return The encoder.
+	 */
+	StateEncoder getEncoder() {
+		return encoder;
+	}
+
+	/**
+	 * Reads the packed form of a state, as packed by {@link #getEncoder()}. Not to be called
+	 * while states are being added.
+	 * @param id The id of the state.
+	 * @param key Array to read the packed state into.
+	 */
+	void readKey(int id, long[] key) {
+		store.readKey(id, key);
+	}
+
+	/**
+	 * Releases the storage of the index, e.g., the files behind a memory-mapped store.
+	 */
+	void close() {
+		store.close();
+	}
+
+	private int lookup(State state, boolean add) {
+		if (layoutLock == null) {
+			return lookupWithLayout(state, add);
+		}
+		layoutLock.readLock().lock();
+		try {
+			return lookupWithLayout(state, add);
+		}
+		finally {
+			layoutLock.readLock().unlock();
+		}
+	}
+
+	private int lookupWithLayout(State state, boolean add) {
+		long[] key = new long[store.getNumWords()];
+		int overflowVar = encoder.encode(state, key, 0);
+		while (overflowVar >= 0) {
+			// A state we have never seen can't be in the index
+			if (!add) {
+				return -1;
+			}
+			if (!encoder.isUnbounded(overflowVar)) {
+				throw new IllegalArgumentException("Value " + state.varValues[overflowVar] + " of variable "
+					+ overflowVar + " is outside its declared range");
+			}
+			if (layoutLock != null) {
+				// Swap the read lock for the write lock while relaying out, then swap back
+				layoutLock.readLock().unlock();
+				layoutLock.writeLock().lock();
+				try {
+					relayout(state);
+				}
+				finally {
+					layoutLock.readLock().lock();
+					layoutLock.writeLock().unlock();
+				}
+			}
+			else {
+				relayout(state);
+			}
+			key = new long[store.getNumWords()];
+			overflowVar = encoder.encode(state, key, 0);
+		}
+		int hash = hash(key);
+		Segment segment = segmentOf(hash);
+		if (!concurrent) {
+			return add ? segment.findOrAdd(key, hash) : segment.find(key, hash);
+		}
+		synchronized (segment) {
+			return add ? segment.findOrAdd(key, hash) : segment.find(key, hash);
+		}
+	}
+
+	/**
+	 * Gives a new id to a state and stores it as terminal, with zero reachability. Called with
+	 * the lock of the segment the state goes in.
+	 */
+	private int addState(long[] key) {
+		int id = size.getAndIncrement();
+		store.allocate(id);
+		store.writeKey(id, key);
+		return id;
+	}
+
+	/**
+	 * Hashes a packed state.
+	 */
+	private static int hash(long[] key) {
+		long h = 0x9E3779B97F4A7C15L;
+		for (long word : key) {
+			h = (h ^ word) * 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 31;
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Widens the unbounded variable of a state whose value does not fit, and re-packs every
+	 * stored state with the new layout. Needs exclusive access to the index.
+	 * @param state The state that could not be encoded.
+	 */
+	private void relayout(State state) {
+		// Another thread may already have widened the variable while we waited for the lock
+		int var = encoder.encode(state, new long[store.getNumWords()], 0);
+		if (var < 0) {
+			return;
+		}
+		StateEncoder oldEncoder = encoder;
+		StateEncoder newEncoder = oldEncoder.widen(var, (Integer) state.varValues[var]);
+		int n = size.get();
+		store.rewriteKeys(n, newEncoder.getNumWords(), (oldKey, newKey) -> newEncoder.encode(oldEncoder.decode(oldKey, 0), newKey, 0));
+		encoder = newEncoder;
+		// Ids stay the same, but every state now hashes differently, so a segment can get more
+		// states than before. Count them first and size each table for its new count.
+		int[] hashes = new int[n];
+		int[] counts = new int[segments.length];
+		long[] key = new long[store.getNumWords()];
+		for (int id = 0; id < n; id++) {
+			store.readKey(id, key);
+			hashes[id] = hash(key);
+			counts[(hashes[id] >>> 24) & segmentMask]++;
+		}
+		for (int i = 0; i < segments.length; i++) {
+			int capacity = INITIAL_SEGMENT_CAPACITY;
+			while (counts[i] * 4 >= capacity * 3) {
+				capacity *= 2;
+			}
+			segments[i].slots = new int[capacity];
+			segments[i].count = counts[i];
+		}
+		for (int id = 0; id < n; id++) {
+			segmentOf(hashes[id]).insertId(id, hashes[id]);
+		}
+	}
+
+	/**
+	 * Gets the segment a hash belongs to. Uses the high bits, as slots within a segment use the low ones.
+	 */
+	private Segment segmentOf(int hash) {
+		return segments[(hash >>> 24) & segmentMask];
+	}
+}
@@ -0,0 +1,316 @@
+package stamina;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import parser.State;
+import parser.ast.ExpressionTemporal;
+import parser.ast.ModulesFile;
+import prism.PrismException;
+import prism.ProgressDisplay;
+import simulator.ModulesFileModelGenerator;
+
+/**
+ * Multi-threaded version of the search done by each kappa iteration of
+ * {@link StaminaModelGenerator#doReachabilityAnalysis()}. Each worker thread has its own
+ * model generator (over its own copy of the modules file), and work is spread over the
+ * threads of a fork/join pool, so idle threads steal chunks of the frontier from busy ones.
+ *
+ * There are two modes:
+ * <ul>
+ * <li>Level-synchronous (default): the frontier is expanded one breadth first level at a time,
+ * with all workers pushing reachability into the global state set concurrently. This scales
+ * best, but states may be expanded in a different order than the single-threaded search, so
+ * the state set (and hence the bounds) may differ slightly between runs.</li>
+ * <li>Deterministic: the transitions of the next states in the queue are computed ahead of time
+ * in parallel, and the reachability is then passed on in exactly the order the single-threaded
+ * search would use. This gives the same state set and bounds as the single-threaded search.</li>
+ * </ul>
+ */
+class ParallelExplorer {
+	// The number of frontier states below which a task stops splitting and just does the work
+	private static final int CHUNK_SIZE = 64;
+	// The number of queued states (per thread) whose transitions are computed ahead in deterministic mode
+	private static final int LOOKAHEAD_PER_THREAD = 256;
+
+	private final StaminaModelGenerator generator;
+	private final ModulesFile modulesFile;
+	private final ForkJoinPool pool;
+	private final boolean deterministic;
+	// Per-thread model generators and property expressions
+	private final ThreadLocal<Worker> workers;
+
+	/**
+	 * The state each worker thread keeps to itself.
+	 */
+	private class Worker {
+		final ModulesFileModelGenerator modelGen;
+		final ExpressionTemporal property;
+
+		Worker() throws PrismException {
+			modelGen = new ModulesFileModelGenerator(modulesFile.deepCopy(), generator.parent);
+			ExpressionTemporal prop = generator.getPropertyExpression();
+			property = prop == null ? null : prop.deepCopy();
+		}
+	}
+
+	/**
+	 * Carries a PrismException out of a fork/join task.
+	 */
+	private static class ExplorationFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		ExplorationFailure(PrismException e) {
+			super(e);
+		}
+	}
+
+	/**
+	 * Creates an explorer for one call of {@code doReachabilityAnalysis()}.
+	 * @param generator The model generator whose state set is being explored.
+	 * @param modulesFile The (constant-free) modules file to generate the model from.
+	 * @param pool The thread pool to run the workers in.
+	 * @param deterministic Whether to reproduce the single-threaded search exactly.
+	 */
+	ParallelExplorer(StaminaModelGenerator generator, ModulesFile modulesFile, ForkJoinPool pool, boolean deterministic) {
+		this.generator = generator;
+		this.modulesFile = modulesFile;
+		this.pool = pool;
+		this.deterministic = deterministic;
+		this.workers = ThreadLocal.withInitial(() -> {
+			try {
+				return new Worker();
+			}
+			catch (PrismException e) {
+				throw new ExplorationFailure(e);
+			}
+		});
+	}
+
+	/**
+	 * Does one search of the state space with the current kappa.
+	 * The start states must already be marked as queued in the global state set.
+	 * @param start The ids of the states to start from.
+	 * @param modelGen A generator for use on the calling thread.
+	 * @param progress The progress display to update.
+	 * @throws PrismException
+	 */
+	void sweep(int[] start, ModulesFileModelGenerator modelGen, ProgressDisplay progress) throws PrismException {
+		try {
+			if (deterministic) {
+				sweepOrdered(start, modelGen, progress);
+			}
+			else {
+				sweepLevels(start, progress);
+			}
+		}
+		catch (ExplorationFailure e) {
+			// The pool may have wrapped the exception again on its way out
+			Throwable cause = e;
+			while (cause != null && !(cause instanceof PrismException)) {
+				cause = cause.getCause();
+			}
+			if (cause == null) {
+				throw e;
+			}
+			throw (PrismException) cause;
+		}
+	}
+
+	/**
+	 * Level-synchronous search: every state in the frontier is visited concurrently, and the
+	 * states they queue form the next frontier.
+	 */
+	private void sweepLevels(int[] start, ProgressDisplay progress) {
+		int[] frontier = start;
+		double threshold = generator.getReachabilityThreshold();
+		while (frontier.length > 0) {
+			generator.getMonitor().setFrontierStates(frontier.length);
+			ConcurrentLinkedQueue<IntQueue> nextParts = new ConcurrentLinkedQueue<IntQueue>();
+			pool.invoke(new LevelTask(frontier, 0, frontier.length, threshold, nextParts));
+			int size = 0;
+			for (IntQueue part : nextParts) {
+				size += part.size();
+			}
+			int[] next = new int[size];
+			int pos = 0;
+			for (IntQueue part : nextParts) {
+				while (!part.isEmpty()) {
+					next[pos++] = part.removeFirst();
+				}
+			}
+			frontier = next;
+			progress.updateIfReady(generator.getGlobalStateSet().size() + 1);
+		}
+	}
+
+	/**
+	 * Visits one frontier state. This may run at the same time as visits of other states,
+	 * including ones that push reachability into this state or its successors.
+	 */
+	private void visitConcurrent(int curId, Worker worker, double threshold, IntQueue next) throws PrismException {
+		PackedStateIndex globalStateSet = generator.getGlobalStateSet();
+		State curState = globalStateSet.getState(curId);
+		if (generator.isPropertyAbsorbing(curState, worker.property)) {
+			globalStateSet.setAbsorbing(curId, true);
+			globalStateSet.setTerminal(curId, false);
+			return;
+		}
+		double curStateReachability = globalStateSet.claimForExpansion(curId, threshold);
+		if (Double.isNaN(curStateReachability) || (curStateReachability == 0 && generator.isIncrementalRefinement())) {
+			return;
+		}
+		if (curStateReachability == 0) {
+			// Nothing to pass on, just make sure explored successors are visited again
+			StateExpansion expansion = generator.getCachedExpansion(curId);
+			if (expansion == null) {
+				expansion = generator.expandState(worker.modelGen, curState);
+			}
+			generator.countExpansion(expansion.size());
+			for (int k = 0; k < expansion.size(); k++) {
+				int nxtId = expansion.findSuccessor(k, globalStateSet);
+				if (nxtId >= 0 && globalStateSet.markQueued(nxtId)) {
+					next.add(nxtId);
+				}
+			}
+			return;
+		}
+		StateExpansion expansion = generator.expand(curId, curState, worker.modelGen);
+		generator.countExpansion(expansion.size());
+		for (int k = 0; k < expansion.size(); k++) {
+			int nxtId = expansion.successor(k);
+			double tranProb = expansion.rates[k] / expansion.exitRateSum;
+			globalStateSet.addToReachability(nxtId, tranProb * curStateReachability);
+			if (globalStateSet.markQueued(nxtId)) {
+				next.add(nxtId);
+			}
+		}
+	}
+
+	/**
+	 * Visits a range of the frontier, splitting it so idle workers can steal part of it.
+	 */
+	private class LevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] frontier;
+		private final int lo;
+		private final int hi;
+		private final double threshold;
+		private final ConcurrentLinkedQueue<IntQueue> nextParts;
+
+		LevelTask(int[] frontier, int lo, int hi, double threshold, ConcurrentLinkedQueue<IntQueue> nextParts) {
+			this.frontier = frontier;
+			this.lo = lo;
+			this.hi = hi;
+			this.threshold = threshold;
+			this.nextParts = nextParts;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > CHUNK_SIZE) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new LevelTask(frontier, lo, mid, threshold, nextParts)
+					, new LevelTask(frontier, mid, hi, threshold, nextParts));
+				return;
+			}
+			Worker worker = workers.get();
+			IntQueue next = new IntQueue();
+			try {
+				for (int i = lo; i < hi; i++) {
+					visitConcurrent(frontier[i], worker, threshold, next);
+				}
+			}
+			catch (PrismException e) {
+				throw new ExplorationFailure(e);
+			}
+			nextParts.add(next);
+		}
+	}
+
+	/**
+	 * Deterministic search: the queue is handled in the same order as the single-threaded
+	 * search, but the transitions of the next batch of queued states are computed in parallel first.
+	 */
+	private void sweepOrdered(int[] start, ModulesFileModelGenerator modelGen, ProgressDisplay progress) throws PrismException {
+		IntQueue exploredK = new IntQueue();
+		for (int id : start) {
+			exploredK.add(id);
+		}
+		int lookahead = LOOKAHEAD_PER_THREAD * pool.getParallelism();
+		double threshold = generator.getReachabilityThreshold();
+		while (!exploredK.isEmpty()) {
+			int[] batch = new int[Math.min(lookahead, exploredK.size())];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = exploredK.removeFirst();
+			}
+			generator.getMonitor().setFrontierStates(exploredK.size() + batch.length);
+			StateExpansion[] expansions = new StateExpansion[batch.length];
+			pool.invoke(new ExpandTask(batch, 0, batch.length, expansions, threshold));
+			// States visited earlier in the batch may have pushed enough reachability into a later one
+			// to make it worth expanding after all; visitState() computes those expansions itself
+			for (int i = 0; i < batch.length; i++) {
+				generator.visitState(batch[i], expansions[i], modelGen, exploredK);
+				progress.updateIfReady(generator.getGlobalStateSet().size() + 1);
+			}
+		}
+	}
+
+	/**
+	 * Computes, in parallel, the transitions of each state in a batch that would be expanded
+	 * if it were visited now.
+	 */
+	private class ExpandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] batch;
+		private final int lo;
+		private final int hi;
+		private final StateExpansion[] expansions;
+		private final double threshold;
+
+		ExpandTask(int[] batch, int lo, int hi, StateExpansion[] expansions, double threshold) {
+			this.batch = batch;
+			this.lo = lo;
+			this.hi = hi;
+			this.expansions = expansions;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > CHUNK_SIZE) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new ExpandTask(batch, lo, mid, expansions, threshold)
+					, new ExpandTask(batch, mid, hi, expansions, threshold));
+				return;
+			}
+			Worker worker = workers.get();
+			PackedStateIndex globalStateSet = generator.getGlobalStateSet();
+			try {
+				for (int i = lo; i < hi; i++) {
+					int id = batch[i];
+					if (globalStateSet.isAbsorbing(id)) {
+						continue;
+					}
+					double reach = globalStateSet.getReachability(id);
+					if (reach == 0 && generator.isIncrementalRefinement()) {
+						continue;
+					}
+					if (!globalStateSet.isTerminal(id) || reach >= threshold) {
+						// Successors are resolved to ids later, in queue order, so ids match the single-threaded search
+						expansions[i] = generator.getCachedExpansion(id);
+						if (expansions[i] == null) {
+							expansions[i] = generator.expandState(worker.modelGen, globalStateSet.getState(id));
+						}
+					}
+				}
+			}
+			catch (PrismException e) {
+				throw new ExplorationFailure(e);
+			}
+		}
+	}
+}
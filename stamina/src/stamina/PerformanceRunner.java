@@ -0,0 +1,407 @@
+package stamina;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import prism.PrismException;
+
+/**
+ * Runs a corpus of models, properties and constants through STAMINA, as {@link StaminaCL} does
+ * from the command line, and records how each performed: the wall time of each phase (see
+ * {@link RunStatistics}), the peak heap, the states explored, the number of refinements and
+ * the final bounds. The results are written as JSON and CSV and, given a baseline (the CSV of
+ * an earlier run), every metric that got worse by more than the baseline's tolerance is
+ * flagged as a regression.
+ *
+ * The corpus is a text file whose first line (after any comments, which start with
+ * {@code #}) is {@code version N}. Each line after that is an entry: a name, the model file,
+ * the properties file, and any STAMINA options, separated by whitespace. Files are relative to
+ * the corpus. For example:
+ * <pre>
+ * version 1
+ * tandem-8   tandem.sm   tandem.csl   -const c=8 -kappa 1e-3
+ * </pre>
+ *
+ * The tolerances are kept in the baseline as comment lines, e.g. {@code # tolerance time=0.25},
+ * and every results CSV records the ones it was compared with, so a results CSV can be used as
+ * the next baseline as it is. Times and the peak heap may grow by their tolerance (a fraction),
+ * the states explored by theirs (a fraction) and the refinements by theirs (a number), and the
+ * bounds may move by theirs (an absolute difference) either way. Times also have to grow by
+ * more than {@code timeSlack} milliseconds, so very short phases are not flagged for noise.
+ *
+ * The entries run one after another in the same JVM, so later entries run on warmer code.
+ * An entry whose run fails is recorded with its metrics unknown, and its failure counts as a
+ * regression, so the other entries still run and the results are still written. The exit
+ * status is 2 if an entry failed or there are regressions.
+ */
+public class PerformanceRunner {
+	private static final String VERSION_PREFIX = "version ";
+	private static final String TOLERANCE_PREFIX = "# tolerance ";
+	private static final String[] COLUMNS = { "name", "totalTime", "explorationTime", "buildTime", "checkTime"
+		, "peakHeap", "states", "refinements", "lowerBound", "upperBound" };
+	private static final String[] TIME_COLUMNS = { "totalTime", "explorationTime", "buildTime", "checkTime" };
+
+	private final Map<String, Double> tolerances = new LinkedHashMap<String, Double>();
+	private int corpusVersion = -1;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final List<Map<String, String>> results = new ArrayList<Map<String, String>>();
+	private final List<List<String>> regressions = new ArrayList<List<String>>();
+
+	/**
+	 * One model, properties file and set of options from the corpus.
+	 */
+	private static final class Entry {
+		final String name;
+		final String[] arguments;
+
+		Entry(String name, String[] arguments) {
+			this.name = name;
+			this.arguments = arguments;
+		}
+	}
+
+	/**
+	 * Creates a runner with the default tolerances.
+	 */
+	PerformanceRunner() {
+		tolerances.put("time", 0.25);
+		tolerances.put("timeSlack", 100.0);
+		tolerances.put("heap", 0.25);
+		tolerances.put("states", 0.0);
+		tolerances.put("refinements", 0.0);
+		tolerances.put("probability", 1e-6);
+	}
+
+	/**
+	 * Runs a corpus.
+	 * @param args The corpus file, the name of the result files (without extension), and
+	 * optionally the baseline CSV.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: PerformanceRunner <corpus file> <results name> [<baseline CSV>]");
+			System.exit(1);
+		}
+		PerformanceRunner runner = new PerformanceRunner();
+		int numRegressions = 0;
+		try {
+			runner.readCorpus(new File(args[0]));
+			Map<String, Map<String, String>> baseline = null;
+			if (args.length == 3) {
+				baseline = runner.readBaseline(new File(args[2]));
+			}
+			numRegressions = runner.runAll();
+			if (baseline != null) {
+				numRegressions += runner.compare(baseline);
+			}
+			runner.writeCsv(new File(args[1] + ".csv"));
+			runner.writeJson(new File(args[1] + ".json"));
+		}
+		catch (IOException e) {
+			StaminaLog.errorAndExit(e.getMessage(), StaminaLog.GENERAL_ERROR);
+		}
+		StaminaLog.log("Wrote " + args[1] + ".csv and " + args[1] + ".json");
+		if (numRegressions > 0) {
+			StaminaLog.error(numRegressions + " regressions against the baseline");
+			StaminaLog.flushLogs();
+			System.exit(2);
+		}
+		StaminaLog.flushLogs();
+		System.exit(0);
+	}
+
+	/**
+	 * Reads the entries of a corpus.
+	 * @param corpusFile The corpus file.
+	 * @throws IOException If the corpus can't be read or is malformed.
+	 */
+	void readCorpus(File corpusFile) throws IOException {
+		File directory = corpusFile.getAbsoluteFile().getParentFile();
+		try (BufferedReader reader = new BufferedReader(new FileReader(corpusFile))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				if (corpusVersion < 0) {
+					if (!line.startsWith(VERSION_PREFIX)) {
+						throw new IOException(corpusFile + " does not start with its version");
+					}
+					corpusVersion = Integer.parseInt(line.substring(VERSION_PREFIX.length()).trim());
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if (fields.length < 3) {
+					throw new IOException("Corpus entry needs a name, a model file and a properties file: " + line);
+				}
+				String[] arguments = new String[fields.length - 1];
+				arguments[0] = new File(directory, fields[1]).getPath();
+				arguments[1] = new File(directory, fields[2]).getPath();
+				System.arraycopy(fields, 3, arguments, 2, fields.length - 3);
+				entries.add(new Entry(fields[0], arguments));
+			}
+		}
+		if (corpusVersion < 0) {
+			throw new IOException(corpusFile + " is empty");
+		}
+	}
+
+	/**
+	 * Reads a baseline, and the tolerances it holds.
+	 * @param baselineFile The CSV of an earlier run.
+	 * @return The metrics of each entry in the baseline, by name.
+	 * @throws IOException If the baseline can't be read.
+	 */
+	Map<String, Map<String, String>> readBaseline(File baselineFile) throws IOException {
+		Map<String, Map<String, String>> baseline = new HashMap<String, Map<String, String>>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(baselineFile))) {
+			String[] header = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(TOLERANCE_PREFIX)) {
+					String[] tolerance = line.substring(TOLERANCE_PREFIX.length()).split("=", 2);
+					tolerances.put(tolerance[0].trim(), Double.parseDouble(tolerance[1].trim()));
+				}
+				else if (line.startsWith("# corpus " + VERSION_PREFIX)) {
+					int version = Integer.parseInt(line.substring(("# corpus " + VERSION_PREFIX).length()).trim());
+					if (version != corpusVersion) {
+						StaminaLog.warning("The baseline is of version " + version + " of the corpus, not version " + corpusVersion);
+					}
+				}
+				else if (line.startsWith("#") || line.trim().isEmpty()) {
+					continue;
+				}
+				else if (header == null) {
+					header = line.split(",");
+				}
+				else {
+					String[] values = line.split(",");
+					Map<String, String> metrics = new HashMap<String, String>();
+					for (int i = 0; i < header.length && i < values.length; i++) {
+						metrics.put(header[i], values[i]);
+					}
+					baseline.put(metrics.get("name"), metrics);
+				}
+			}
+		}
+		return baseline;
+	}
+
+	/**
+	 * Runs every entry of the corpus, in order. An entry that fails is recorded with unknown
+	 * metrics and its failure as a regression.
+	 * @return The number of entries that failed.
+	 */
+	int runAll() {
+		int failures = 0;
+		for (Entry entry : entries) {
+			StaminaLog.header("Corpus entry " + entry.name);
+			List<String> found = new ArrayList<String>();
+			try {
+				results.add(run(entry));
+			}
+			catch (PrismException | RuntimeException e) {
+				StaminaLog.error(entry.name + " failed: " + e.getMessage());
+				results.add(failed(entry));
+				found.add("failed: " + e.getMessage());
+				failures++;
+			}
+			regressions.add(found);
+		}
+		return failures;
+	}
+
+	/**
+	 * Runs one entry as {@link StaminaCL} would, and measures it.
+	 * @param entry The entry.
+	 * @return The metrics of the run, by column.
+	 * @throws PrismException If the run fails.
+	 */
+	private Map<String, String> run(Entry entry) throws PrismException {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		// Start from as little garbage as we can, so the peak is of this entry
+		System.gc();
+		for (MemoryPoolMXBean pool : heapPools) {
+			pool.resetPeakUsage();
+		}
+
+		long timer = System.currentTimeMillis();
+		StaminaCL cl = new StaminaCL();
+		long peakHeap = 0;
+		RunStatistics stats;
+		try {
+			cl.runChecked(entry.arguments);
+			timer = System.currentTimeMillis() - timer;
+
+			// The pools peak at different times, so this is an upper bound on the peak of the heap
+			for (MemoryPoolMXBean pool : heapPools) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+			stats = cl.getModelChecker().getStatistics();
+		}
+		finally {
+			// Also release the checker of a run that failed
+			if (cl.getModelChecker() != null) {
+				cl.getModelChecker().closeDown();
+			}
+		}
+
+		Map<String, String> metrics = new LinkedHashMap<String, String>();
+		metrics.put("name", entry.name);
+		metrics.put("totalTime", Long.toString(timer));
+		metrics.put("explorationTime", Long.toString(stats.getExplorationTime()));
+		metrics.put("buildTime", Long.toString(stats.getBuildTime()));
+		metrics.put("checkTime", Long.toString(stats.getCheckTime()));
+		metrics.put("peakHeap", Long.toString(peakHeap));
+		metrics.put("states", Integer.toString(stats.getStatesExplored()));
+		metrics.put("refinements", Integer.toString(stats.getRefinements()));
+		metrics.put("lowerBound", Double.toString(stats.getLowerBound()));
+		metrics.put("upperBound", Double.toString(stats.getUpperBound()));
+		return metrics;
+	}
+
+	/**
+	 * Makes the row of an entry that failed, with every metric unknown.
+	 */
+	private static Map<String, String> failed(Entry entry) {
+		Map<String, String> metrics = new LinkedHashMap<String, String>();
+		metrics.put("name", entry.name);
+		for (int c = 1; c < COLUMNS.length; c++) {
+			metrics.put(COLUMNS[c], Double.toString(Double.NaN));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Compares the results with a baseline, and logs every regression. Entries that failed
+	 * already have their failure as their regression, and are not compared.
+	 * @param baseline The metrics of each entry in the baseline, by name.
+	 * @return The number of regressions.
+	 */
+	int compare(Map<String, Map<String, String>> baseline) {
+		int count = 0;
+		for (int i = 0; i < results.size(); i++) {
+			Map<String, String> now = results.get(i);
+			Map<String, String> before = baseline.get(now.get("name"));
+			List<String> found = regressions.get(i);
+			if (!found.isEmpty()) {
+				continue;
+			}
+			if (before == null) {
+				StaminaLog.warning("No baseline for " + now.get("name"));
+				continue;
+			}
+			for (String column : TIME_COLUMNS) {
+				double slack = Math.max(value(before, column) * tolerances.get("time"), tolerances.get("timeSlack"));
+				checkIncrease(found, now, before, column, slack);
+			}
+			checkIncrease(found, now, before, "peakHeap", value(before, "peakHeap") * tolerances.get("heap"));
+			checkIncrease(found, now, before, "states", value(before, "states") * tolerances.get("states"));
+			checkIncrease(found, now, before, "refinements", tolerances.get("refinements"));
+			for (String column : new String[] { "lowerBound", "upperBound" }) {
+				double change = Math.abs(value(now, column) - value(before, column));
+				// NaN for a bound that is no longer (or only now) computed
+				if (!(change <= tolerances.get("probability"))) {
+					found.add(column + " " + before.get(column) + " -> " + now.get(column));
+				}
+			}
+			for (String regression : found) {
+				StaminaLog.error(now.get("name") + ": " + regression);
+			}
+			count += found.size();
+		}
+		return count;
+	}
+
+	private static void checkIncrease(List<String> found, Map<String, String> now, Map<String, String> before
+		, String column, double allowed) {
+		if (value(now, column) > value(before, column) + allowed) {
+			found.add(column + " " + before.get(column) + " -> " + now.get(column));
+		}
+	}
+
+	private static double value(Map<String, String> metrics, String column) {
+		String value = metrics.get(column);
+		return value == null ? Double.NaN : Double.parseDouble(value);
+	}
+
+	/**
+	 * Writes the results as CSV, with the corpus version and tolerances as comments.
+	 * @param file The file to write.
+	 * @throws IOException If the file can't be written.
+	 */
+	void writeCsv(File file) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			writer.write("# STAMINA " + StaminaCL.versionMajor + "." + StaminaCL.versionMinor + " performance results\n");
+			writer.write("# corpus " + VERSION_PREFIX + corpusVersion + "\n");
+			for (Map.Entry<String, Double> tolerance : tolerances.entrySet()) {
+				writer.write(TOLERANCE_PREFIX + tolerance.getKey() + "=" + tolerance.getValue() + "\n");
+			}
+			writer.write(String.join(",", COLUMNS) + "\n");
+			for (Map<String, String> metrics : results) {
+				List<String> values = new ArrayList<String>();
+				for (String column : COLUMNS) {
+					values.add(metrics.get(column));
+				}
+				writer.write(String.join(",", values) + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes the results, and the regressions found, as JSON.
+	 * @param file The file to write.
+	 * @throws IOException If the file can't be written.
+	 */
+	void writeJson(File file) throws IOException {
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+			writer.write("{\n");
+			writer.write("  \"staminaVersion\": " + quote(StaminaCL.versionMajor + "." + StaminaCL.versionMinor) + ",\n");
+			writer.write("  \"javaVersion\": " + quote(System.getProperty("java.version")) + ",\n");
+			writer.write("  \"corpusVersion\": " + corpusVersion + ",\n");
+			writer.write("  \"results\": [");
+			for (int i = 0; i < results.size(); i++) {
+				Map<String, String> metrics = results.get(i);
+				writer.write(i == 0 ? "\n" : ",\n");
+				writer.write("    {\n");
+				writer.write("      \"name\": " + quote(metrics.get("name")) + ",\n");
+				for (int c = 1; c < COLUMNS.length; c++) {
+					writer.write("      " + quote(COLUMNS[c]) + ": " + jsonNumber(metrics.get(COLUMNS[c])) + ",\n");
+				}
+				writer.write("      \"regressions\": [");
+				List<String> found = regressions.get(i);
+				for (int r = 0; r < found.size(); r++) {
+					writer.write((r == 0 ? "" : ", ") + quote(found.get(r)));
+				}
+				writer.write("]\n    }");
+			}
+			writer.write("\n  ]\n}\n");
+		}
+	}
+
+	private static String jsonNumber(String value) {
+		return MetricsReport.number(Double.parseDouble(value));
+	}
+
+	private static String quote(String s) {
+		return MetricsReport.quote(s);
+	}
+}
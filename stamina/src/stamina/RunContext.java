@@ -0,0 +1,68 @@
+package stamina;
+
+/**
+ * The state of one run that changes as it goes: the reachability threshold (&kappa;), which
+ * the model generator lowers from one refinement to the next, and the misprediction factor,
+ * which the model checker adjusts according to how far the bounds are from the window. Both
+ * start at the values given in the {@link Options}. Each model checker has its own context,
+ * so runs in the same JVM do not affect each other. The context also keeps the
+ * {@link RunStatistics} of the run, and the {@link StaminaMonitor} that shows it live.
+ */
+public class RunContext {
+	private double reachabilityThreshold;
+	private double mispredictionFactor;
+	private final StaminaMonitor monitor = new StaminaMonitor();
+	private final RunStatistics statistics = new RunStatistics(monitor);
+
+	/**
+	 * Creates a context starting from the given options.
+	 * @param options The options of the run.
+	 */
+	public RunContext(Options options) {
+		reachabilityThreshold = options.getReachabilityThreshold();
+		mispredictionFactor = options.getMispredictionFactor();
+	}
+
+	/**
+	 * Gets the current reachability threshold (&kappa;).
+	 * @return The reachability threshold.
+	 */
+	public double getReachabilityThreshold() {
+		return reachabilityThreshold;
+	}
+	/**
+	 * Sets the reachability threshold (&kappa;) for the next refinement.
+	 * @param reach New reachability threshold.
+	 */
+	public void setReachabilityThreshold(double reach) {
+		reachabilityThreshold = reach;
+	}
+	/**
+	 * Gets the current misprediction factor.
+	 * @return The misprediction factor.
+	 */
+	public double getMispredictionFactor() {
+		return mispredictionFactor;
+	}
+	/**
+	 * Sets a new misprediction factor.
+	 * @param fac New misprediction factor.
+	 */
+	public void setMispredictionFactor(double fac) {
+		mispredictionFactor = fac;
+	}
+	/**
+	 * Gets the statistics of the run.
+	 * @return The statistics.
+	 */
+	public RunStatistics getStatistics() {
+		return statistics;
+	}
+	/**
+	 * Gets the monitor of the run.
+	 * @return The monitor.
+	 */
+	public StaminaMonitor getMonitor() {
+		return monitor;
+	}
+}
@@ -0,0 +1,263 @@
+package stamina;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a run has done so far, for reporting rather than for steering it: the time spent in
+ * each phase, the number of refinements, the number of states explored, and the last bounds
+ * computed. Times are in milliseconds, summed over every refinement of every property the
+ * model checker has checked.
+ *
+ * The model generator adds the exploration time, and the model checker the checking time; the
+ * rest of each refinement (building the truncated model, mainly) is counted as build time.
+ *
+ * Each refinement, and each exploration sweep (one search with one &kappa;), is also kept as a
+ * record, for the report written with {@code -metricsReport} (see {@link MetricsReport}), and
+ * each refinement is a {@link StaminaEvents.RefinementEvent} for the flight recorder.
+ */
+public class RunStatistics {
+	/**
+	 * What one exploration sweep did.
+	 */
+	public static final class Sweep {
+		/** The reachability threshold (&kappa;) of the sweep. */
+		public final double kappa;
+		/** The time the sweep took, in milliseconds. */
+		public final long time;
+		/** The number of states whose transitions were gone through. */
+		public final long statesExpanded;
+		/** The number of those states that had been expanded in an earlier sweep. */
+		public final long statesReexpanded;
+		/** The number of transitions of the states expanded. */
+		public final long transitions;
+		/** The number of states added to the state set. */
+		public final int newStates;
+		/** The number of hash table slots looked at to find or add states. */
+		public final long hashProbes;
+		/** The number of perimeter (terminal) states after the sweep. */
+		public final int perimeterStates;
+		/** The reachability held by the perimeter states after the sweep. */
+		public final double perimeterMass;
+
+		Sweep(double kappa, long time, long statesExpanded, long statesReexpanded, long transitions
+			, int newStates, long hashProbes, int perimeterStates, double perimeterMass) {
+			this.kappa = kappa;
+			this.time = time;
+			this.statesExpanded = statesExpanded;
+			this.statesReexpanded = statesReexpanded;
+			this.transitions = transitions;
+			this.newStates = newStates;
+			this.hashProbes = hashProbes;
+			this.perimeterStates = perimeterStates;
+			this.perimeterMass = perimeterMass;
+		}
+	}
+
+	/**
+	 * What one refinement did: the time in each phase, the bounds it ended with, and the
+	 * exploration sweeps it ran.
+	 */
+	public static final class Refinement {
+		/** The property (or properties) being checked. */
+		public final String property;
+		/** The reachability threshold (&kappa;) the refinement started with. */
+		public final double kappa;
+		/** The time spent exploring, in milliseconds. */
+		public final long explorationTime;
+		/** The time spent building the truncated model (and anything else), in milliseconds. */
+		public final long buildTime;
+		/** The time spent checking, in milliseconds. */
+		public final long checkTime;
+		/** The lower bound computed, or NaN if none was. */
+		public final double lowerBound;
+		/** The upper bound computed, or NaN if none was. */
+		public final double upperBound;
+		/** The sweeps run by the refinement. */
+		public final List<Sweep> sweeps;
+
+		Refinement(String property, double kappa, long explorationTime, long buildTime, long checkTime
+			, double lowerBound, double upperBound, List<Sweep> sweeps) {
+			this.property = property;
+			this.kappa = kappa;
+			this.explorationTime = explorationTime;
+			this.buildTime = buildTime;
+			this.checkTime = checkTime;
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+			this.sweeps = sweeps;
+		}
+	}
+
+	private long explorationTime = 0;
+	private long buildTime = 0;
+	private long checkTime = 0;
+	private int refinements = 0;
+	private int statesExplored = 0;
+	private double lowerBound = Double.NaN;
+	private double upperBound = Double.NaN;
+
+	private final StaminaMonitor monitor;
+	private final List<Refinement> refinementRecords = new ArrayList<Refinement>();
+	// The sweeps since the last refinement ended
+	private List<Sweep> sweeps = new ArrayList<Sweep>();
+
+	// The current refinement: its property and kappa, when it started, and the exploration
+	// and checking time at that point
+	private String refinementProperty;
+	private double refinementKappa;
+	private long refinementStart;
+	private long explorationAtStart;
+	private long checkAtStart;
+	private StaminaEvents.RefinementEvent refinementEvent;
+
+	/**
+	 * Creates empty statistics.
+	 * @param monitor The monitor refinements and bounds are passed on to.
+	 */
+	RunStatistics(StaminaMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Marks the start of a refinement.
+	 * @param property The property (or properties) being checked.
+	 * @param kappa The reachability threshold (&kappa;) the refinement starts with.
+	 */
+	void startRefinement(String property, double kappa) {
+		refinementProperty = property;
+		refinementKappa = kappa;
+		refinementStart = System.currentTimeMillis();
+		explorationAtStart = explorationTime;
+		checkAtStart = checkTime;
+		lowerBound = Double.NaN;
+		upperBound = Double.NaN;
+		refinementEvent = new StaminaEvents.RefinementEvent();
+		refinementEvent.begin();
+		monitor.startRefinement(property, refinements + 1);
+	}
+
+	/**
+	 * Marks the end of a refinement started with {@link #startRefinement()}, counting the time
+	 * not spent exploring or checking as build time.
+	 */
+	void endRefinement() {
+		long total = System.currentTimeMillis() - refinementStart;
+		long explored = explorationTime - explorationAtStart;
+		long checked = checkTime - checkAtStart;
+		long built = Math.max(0, total - explored - checked);
+		buildTime += built;
+		refinements++;
+		refinementRecords.add(new Refinement(refinementProperty, refinementKappa, explored, built, checked
+			, lowerBound, upperBound, sweeps));
+		sweeps = new ArrayList<Sweep>();
+
+		refinementEvent.end();
+		if (refinementEvent.shouldCommit()) {
+			refinementEvent.property = refinementProperty;
+			refinementEvent.iteration = refinements;
+			refinementEvent.kappa = refinementKappa;
+			refinementEvent.states = statesExplored;
+			refinementEvent.lowerBound = lowerBound;
+			refinementEvent.upperBound = upperBound;
+			refinementEvent.window = upperBound - lowerBound;
+			refinementEvent.commit();
+		}
+	}
+
+	/**
+	 * Records an exploration sweep, as part of the current refinement.
+	 * @param sweep The sweep.
+	 */
+	void addSweep(Sweep sweep) {
+		sweeps.add(sweep);
+	}
+
+	/**
+	 * Adds the time taken by an exploration, and records the size of the state space it left.
+	 * @param time The time taken, in milliseconds.
+	 * @param numStates The number of states explored so far.
+	 */
+	void addExploration(long time, int numStates) {
+		explorationTime += time;
+		statesExplored = numStates;
+	}
+
+	/**
+	 * Adds the time taken by checking a property on a truncated model.
+	 * @param time The time taken, in milliseconds.
+	 */
+	void addCheckTime(long time) {
+		checkTime += time;
+	}
+
+	/**
+	 * Records the bounds last computed for a property.
+	 * @param lower The lower bound (Pmin).
+	 * @param upper The upper bound (Pmax).
+	 */
+	void setBounds(double lower, double upper) {
+		lowerBound = lower;
+		upperBound = upper;
+		monitor.setBounds(lower, upper);
+	}
+
+	/**
+	 * Gets the time spent exploring the state space.
+	 * @return The time, in milliseconds.
+	 */
+	public long getExplorationTime() {
+		return explorationTime;
+	}
+	/**
+	 * Gets the time spent building truncated models (and anything else that is neither
+	 * exploring nor checking).
+	 * @return The time, in milliseconds.
+	 */
+	public long getBuildTime() {
+		return buildTime;
+	}
+	/**
+	 * Gets the time spent checking properties on truncated models.
+	 * @return The time, in milliseconds.
+	 */
+	public long getCheckTime() {
+		return checkTime;
+	}
+	/**
+	 * Gets the number of refinements finished.
+	 * @return The number of refinements.
+	 */
+	public int getRefinements() {
+		return refinements;
+	}
+	/**
+	 * Gets the number of states in the explored state space after the last exploration.
+	 * @return The number of states.
+	 */
+	public int getStatesExplored() {
+		return statesExplored;
+	}
+	/**
+	 * Gets the lower bound (Pmin) last computed.
+	 * @return The lower bound, or NaN if none has been computed.
+	 */
+	public double getLowerBound() {
+		return lowerBound;
+	}
+	/**
+	 * Gets the upper bound (Pmax) last computed.
+	 * @return The upper bound, or NaN if none has been computed.
+	 */
+	public double getUpperBound() {
+		return upperBound;
+	}
+	/**
+	 * Gets the record of each refinement finished, in order.
+	 * @return The refinements.
+	 */
+	public List<Refinement> getRefinementRecords() {
+		return Collections.unmodifiableList(refinementRecords);
+	}
+}
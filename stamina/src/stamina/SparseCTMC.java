@@ -0,0 +1,351 @@
+package stamina;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import explicit.CTMCSimple;
+import parser.State;
+import parser.Values;
+import parser.ast.Expression;
+import parser.ast.LabelList;
+import prism.PrismException;
+
+/**
+ * The truncated CTMC as a sparse rate matrix that grows with the exploration. The transitions
+ * out of each state (its row) are stored one after another, as a target state and a rate,
+ * sorted by target. Rows can be added and replaced: a replaced row is written over the old one
+ * if it fits, or else appended after the last row, and the rows are compacted once too much
+ * space is wasted. So each refinement only has to write the rows of the states that are new
+ * or have changed.
+ *
+ * State 0 is the absorbing state, which the transitions cut off by truncation go to, with a
+ * single self-loop. The other states are numbered in the order they are added.
+ */
+class SparseCTMC {
+	private int numStates = 0;
+	// Where the row of each state starts, and its length
+	private int[] rowStarts = new int[16];
+	private int[] rowLengths = new int[16];
+	// The target state and rate of each transition
+	private int[] columns = new int[64];
+	private double[] rates = new double[64];
+	// The space used in columns and rates, and how much of it is left over from replaced rows
+	private int used = 0;
+	private int wasted = 0;
+	private int numTransitions = 0;
+	private final int initialState;
+	private final List<State> statesList = new ArrayList<State>();
+
+	// The PRISM copy of this CTMC, and the rows changed since it was last brought up to date
+	private CTMCSimple explicitModel = null;
+	private int explicitStates = 0;
+	private final IntQueue changedRows = new IntQueue();
+	private final BitSet changed = new BitSet();
+	private final List<BitSet> labelStates = new ArrayList<BitSet>();
+	// The names of the labels, set when the labels are first evaluated, or given with the model
+	// when it is read from a file (the label expressions are then not evaluated)
+	private List<String> labelNames = null;
+	private boolean labelsGiven = false;
+
+	/**
+	 * Creates a CTMC with just the absorbing state, which has a single self-loop.
+	 * @param absorbingState The absorbing state.
+	 * @param initialState The number the initial state will have once it is added.
+	 */
+	SparseCTMC(State absorbingState, int initialState) {
+		this.initialState = initialState;
+		addState(absorbingState);
+		setRow(0, new int[] { 0 }, new double[] { 1.0 }, 1);
+	}
+
+	/**
+	 * Creates a CTMC from its rows in compressed sparse row form, e.g. as read from a file.
+	 * State 0 must be the absorbing state. The arrays are used, not copied.
+	 * @param initialState The initial state.
+	 * @param rowStarts Where the row of each state starts, with the number of transitions at the end.
+	 * @param columns The target state of each transition.
+	 * @param rates The rate of each transition.
+	 * @param states The variable values of each state.
+	 * @param labelNames The names of the labels.
+	 * @param labelStates The states each label holds in.
+	 */
+	SparseCTMC(int initialState, int[] rowStarts, int[] columns, double[] rates, List<State> states
+		, List<String> labelNames, List<BitSet> labelStates) {
+		this.initialState = initialState;
+		numStates = rowStarts.length - 1;
+		this.rowStarts = Arrays.copyOf(rowStarts, Math.max(numStates, 16));
+		rowLengths = new int[this.rowStarts.length];
+		for (int s = 0; s < numStates; s++) {
+			rowLengths[s] = rowStarts[s + 1] - rowStarts[s];
+			changed.set(s);
+			changedRows.add(s);
+		}
+		this.columns = columns;
+		this.rates = rates;
+		used = rowStarts[numStates];
+		numTransitions = used;
+		statesList.addAll(states);
+		this.labelNames = new ArrayList<String>(labelNames);
+		this.labelStates.addAll(labelStates);
+		labelsGiven = true;
+	}
+
+	/**
+	 * Adds a state, with no transitions yet.
+	 * @param state The variable values of the state.
+	 * @return The number of the state.
+	 */
+	int addState(State state) {
+		if (numStates == rowStarts.length) {
+			rowStarts = Arrays.copyOf(rowStarts, numStates * 2);
+			rowLengths = Arrays.copyOf(rowLengths, numStates * 2);
+		}
+		rowStarts[numStates] = used;
+		rowLengths[numStates] = 0;
+		statesList.add(state);
+		return numStates++;
+	}
+
+	/**
+	 * Replaces the transitions of a state. Transitions to the same target are merged by adding
+	 * their rates, and zero rates are dropped.
+	 * @param s The state.
+	 * @param targets The target of each transition. Reordered by this method.
+	 * @param targetRates The rate of each transition. Reordered by this method.
+	 * @param length The number of transitions.
+	 */
+	void setRow(int s, int[] targets, double[] targetRates, int length) {
+		// Sort the row by target (rows are short, so by insertion), merging equal targets
+		int merged = 0;
+		for (int k = 0; k < length; k++) {
+			int col = targets[k];
+			double rate = targetRates[k];
+			int j = merged - 1;
+			while (j >= 0 && targets[j] > col) {
+				j--;
+			}
+			if (j >= 0 && targets[j] == col) {
+				targetRates[j] += rate;
+				continue;
+			}
+			System.arraycopy(targets, j + 1, targets, j + 2, merged - j - 1);
+			System.arraycopy(targetRates, j + 1, targetRates, j + 2, merged - j - 1);
+			targets[j + 1] = col;
+			targetRates[j + 1] = rate;
+			merged++;
+		}
+		int rowLength = 0;
+		for (int k = 0; k < merged; k++) {
+			if (targetRates[k] != 0) {
+				targets[rowLength] = targets[k];
+				targetRates[rowLength] = targetRates[k];
+				rowLength++;
+			}
+		}
+		numTransitions += rowLength - rowLengths[s];
+		if (rowLength > rowLengths[s]) {
+			// Doesn't fit where the old row was, so goes after the last row
+			if (wasted > used / 2) {
+				compact();
+			}
+			wasted += rowLengths[s];
+			columns = ensureCapacity(columns, used + rowLength);
+			rates = ensureCapacity(rates, used + rowLength);
+			rowStarts[s] = used;
+			used += rowLength;
+		}
+		else {
+			wasted += rowLengths[s] - rowLength;
+		}
+		System.arraycopy(targets, 0, columns, rowStarts[s], rowLength);
+		System.arraycopy(targetRates, 0, rates, rowStarts[s], rowLength);
+		rowLengths[s] = rowLength;
+		if (!changed.get(s)) {
+			changed.set(s);
+			changedRows.add(s);
+		}
+	}
+
+	/**
+	 * Moves the rows next to each other, in order, dropping the space left by replaced rows.
+	 */
+	private void compact() {
+		int[] newColumns = new int[Math.max(64, used - wasted)];
+		double[] newRates = new double[newColumns.length];
+		int pos = 0;
+		for (int s = 0; s < numStates; s++) {
+			System.arraycopy(columns, rowStarts[s], newColumns, pos, rowLengths[s]);
+			System.arraycopy(rates, rowStarts[s], newRates, pos, rowLengths[s]);
+			rowStarts[s] = pos;
+			pos += rowLengths[s];
+		}
+		columns = newColumns;
+		rates = newRates;
+		used = pos;
+		wasted = 0;
+	}
+
+	/**
+	 * Gets the number of states.
+	 * @return The number of states.
+	 */
+	int getNumStates() {
+		return numStates;
+	}
+
+	/**
+	 * Gets the number of transitions.
+	 * @return The number of transitions.
+	 */
+	int getNumTransitions() {
+		return numTransitions;
+	}
+
+	/**
+	 * Gets the initial state.
+	 * @return The number of the initial state.
+	 */
+	int getInitialState() {
+		return initialState;
+	}
+
+	/**
+	 * Whether the model has an absorbing state. It always does, as state 0, though the state
+	 * is unreachable (and so has probability 0) if no transitions were cut off.
+	 * @return Whether the model has an absorbing state.
+	 */
+	boolean hasAbsorbingState() {
+		return true;
+	}
+
+	/**
+	 * Gets the position of the first transition of a state, for use with
+	 * {@link #getColumn(int)} and {@link #getRate(int)}.
+	 * @param s The state.
+	 * @return The position of its first transition.
+	 */
+	int getRowStart(int s) {
+		return rowStarts[s];
+	}
+
+	/**
+	 * Gets the position after the last transition of a state.
+	 * @param s The state.
+	 * @return The position after its last transition.
+	 */
+	int getRowEnd(int s) {
+		return rowStarts[s] + rowLengths[s];
+	}
+
+	/**
+	 * Gets the target of a transition.
+	 * @param k The position of the transition.
+	 * @return The target state.
+	 */
+	int getColumn(int k) {
+		return columns[k];
+	}
+
+	/**
+	 * Gets the rate of a transition.
+	 * @param k The position of the transition.
+	 * @return The rate.
+	 */
+	double getRate(int k) {
+		return rates[k];
+	}
+
+	/**
+	 * Gets the variable values of each state.
+	 * @return The states, in order.
+	 */
+	List<State> getStatesList() {
+		return statesList;
+	}
+
+	/**
+	 * Gets a PRISM explicit-state copy of this CTMC, so it can be checked by PRISM's model
+	 * checkers. The copy is made the first time, and afterwards only the new states and the
+	 * rows changed since the last call are written to it. Labels are evaluated in each new
+	 * state, and deadlocks are fixed with self-loops, as PRISM does when it builds a model.
+	 * @param constantValues The values of the model constants.
+	 * @param labelList The labels of the model.
+	 * @return The explicit-state CTMC.
+	 * @throws PrismException
+	 */
+	CTMCSimple toCTMCSimple(Values constantValues, LabelList labelList) throws PrismException {
+		if (explicitModel == null) {
+			explicitModel = new CTMCSimple(numStates);
+			explicitModel.addInitialState(initialState);
+			explicitStates = numStates;
+		}
+		else if (numStates > explicitStates) {
+			explicitModel.addStates(numStates - explicitStates);
+		}
+		while (!changedRows.isEmpty()) {
+			int s = changedRows.removeFirst();
+			changed.clear(s);
+			explicitModel.clearState(s);
+			for (int k = rowStarts[s]; k < rowStarts[s] + rowLengths[s]; k++) {
+				explicitModel.setProbability(s, columns[k], rates[k]);
+			}
+		}
+		explicitModel.setStatesList(statesList);
+		explicitModel.setConstantValues(constantValues);
+		if (labelsGiven) {
+			for (int i = 0; i < labelNames.size(); i++) {
+				explicitModel.addLabel(labelNames.get(i), labelStates.get(i));
+			}
+		}
+		else {
+			int labelsFrom = labelNames == null ? 0 : explicitStates;
+			if (labelNames == null) {
+				labelNames = new ArrayList<String>();
+				for (int i = 0; i < labelList.size(); i++) {
+					labelNames.add(labelList.getLabelName(i));
+					labelStates.add(new BitSet(numStates));
+				}
+			}
+			for (int i = 0; i < labelList.size(); i++) {
+				Expression label = labelList.getLabel(i);
+				BitSet states = labelStates.get(i);
+				for (int s = labelsFrom; s < numStates; s++) {
+					if (label.evaluateBoolean(statesList.get(s))) {
+						states.set(s);
+					}
+				}
+				explicitModel.addLabel(labelNames.get(i), states);
+			}
+		}
+		explicitStates = numStates;
+		explicitModel.findDeadlocks(true);
+		return explicitModel;
+	}
+
+	/**
+	 * Gets the names of the labels, as of the last {@link #toCTMCSimple(Values, LabelList)}.
+	 * @return The label names, or null if the labels have not been evaluated yet.
+	 */
+	List<String> getLabelNames() {
+		return labelNames;
+	}
+
+	/**
+	 * Gets the states a label holds in, as of the last {@link #toCTMCSimple(Values, LabelList)}.
+	 * @param i The index of the label.
+	 * @return The states.
+	 */
+	BitSet getLabelStates(int i) {
+		return labelStates.get(i);
+	}
+
+	private static int[] ensureCapacity(int[] array, int size) {
+		return size <= array.length ? array : Arrays.copyOf(array, Math.max(array.length * 2, size));
+	}
+
+	private static double[] ensureCapacity(double[] array, int size) {
+		return size <= array.length ? array : Arrays.copyOf(array, Math.max(array.length * 2, size));
+	}
+}
@@ -0,0 +1,231 @@
+package stamina;
+
+import java.util.Arrays;
+
+import parser.State;
+import prism.ModelGenerator;
+import prism.PrismException;
+
+/**
+ * Builds the truncated CTMC straight from the global state set, so PRISM does not have to walk
+ * the model again with {@link StaminaModelGenerator#exploreState(State)} and
+ * {@link StaminaModelGenerator#computeTransitionTarget(int, int)}, which look every state up
+ * again.
+ *
+ * The rows of states are recorded while they are expanded: a state's successors are all in the
+ * global state set once it has been expanded, so its resolved expansion is its row in the
+ * truncated model. When the model is built, only the states the exploration stopped at need
+ * work: perimeter (terminal) states are expanded, with the transitions leaving the state set
+ * going to the absorbing state, and states made absorbing by the property get a self-loop.
+ *
+ * The model is kept from one refinement to the next and brought up to date rather than built
+ * again: the states added since the last update are appended, and only the rows of states
+ * that are new or have changed kind (e.g. perimeter states that have since been expanded) are
+ * written. The rows of perimeter states are kept unresolved, so their transitions to the
+ * absorbing state can be redirected to states added later without expanding them again.
+ * State {@code id} of the global state set is state {@code id + 1} of the model.
+ */
+class SparseCTMCBuilder {
+	// What the row of a state was written from
+	private static final byte EXPANDED = 1;
+	private static final byte PERIMETER = 2;
+	private static final byte ABSORBING = 3;
+
+	private final PackedStateIndex globalStateSet;
+	// Rows recorded as states are expanded, and unresolved rows of perimeter states
+	private final RowTable expandedRows = new RowTable();
+	private final RowTable perimeterRows = new RowTable();
+
+	private SparseCTMC model = null;
+	// The number of states of the global state set in the model, and the kind of each row
+	private int numStates = 0;
+	private byte[] rowKinds = new byte[16];
+	// Scratch space for writing rows
+	private int[] targets = new int[16];
+	private double[] targetRates = new double[16];
+
+	/**
+	 * Expansions indexed by state id, split into pages so it can grow without moving them.
+	 */
+	private static final class RowTable {
+		private static final int PAGE_BITS = 14;
+		private static final int PAGE_SIZE = 1 << PAGE_BITS;
+		private static final int PAGE_MASK = PAGE_SIZE - 1;
+		private static final int MAX_PAGES = (Integer.MAX_VALUE >>> PAGE_BITS) + 1;
+
+		private final StateExpansion[][] pages = new StateExpansion[MAX_PAGES][];
+		private final Object pageLock = new Object();
+
+		void set(int id, StateExpansion expansion) {
+			int page = id >>> PAGE_BITS;
+			if (pages[page] == null) {
+				if (expansion == null) {
+					return;
+				}
+				synchronized (pageLock) {
+					if (pages[page] == null) {
+						pages[page] = new StateExpansion[PAGE_SIZE];
+					}
+				}
+			}
+			pages[page][id & PAGE_MASK] = expansion;
+		}
+
+		StateExpansion get(int id) {
+			StateExpansion[] page = pages[id >>> PAGE_BITS];
+			return page == null ? null : page[id & PAGE_MASK];
+		}
+	}
+
+	/**
+	 * Creates a builder with no rows recorded.
+	 * @param globalStateSet The global state set the rows refer to.
+	 */
+	SparseCTMCBuilder(PackedStateIndex globalStateSet) {
+		this.globalStateSet = globalStateSet;
+	}
+
+	/**
+	 * Records the row of an expanded state. May be called by several threads at once.
+	 * @param id The id of the state.
+	 * @param expansion The resolved expansion of the state.
+	 */
+	void recordRow(int id, StateExpansion expansion) {
+		expandedRows.set(id, expansion);
+	}
+
+	/**
+	 * Brings the truncated CTMC up to date with the global state set, as it stands after the
+	 * last exploration, and returns it. Every state in the global state set is in the model;
+	 * states that can't be reached from the initial state (which can only happen when the
+	 * state set is kept from an earlier property) are left in with probability 0.
+	 * @param initId The id of the initial state.
+	 * @param absorbingState The absorbing state that truncated transitions go to.
+	 * @param modelGen A generator used to expand the states that have no recorded row.
+	 * @param commands The compiled commands of the model, used instead of {@code modelGen} if not null.
+	 * @return The truncated CTMC.
+	 * @throws PrismException
+	 */
+	SparseCTMC update(int initId, State absorbingState, ModelGenerator modelGen, CompiledCommands commands) throws PrismException {
+		if (model == null) {
+			model = new SparseCTMC(absorbingState, initId + 1);
+		}
+		int n = globalStateSet.size();
+		// Perimeter rows only change if states were added, which some of their transitions may now reach
+		boolean grown = n > numStates;
+		if (n > rowKinds.length) {
+			rowKinds = Arrays.copyOf(rowKinds, Math.max(rowKinds.length * 2, n));
+		}
+		for (int id = numStates; id < n; id++) {
+			model.addState(globalStateSet.getState(id));
+		}
+		for (int id = 0; id < n; id++) {
+			byte kind = globalStateSet.isAbsorbing(id) ? ABSORBING : globalStateSet.isTerminal(id) ? PERIMETER : EXPANDED;
+			if (id < numStates && kind == rowKinds[id] && (kind != PERIMETER || !grown)) {
+				continue;
+			}
+			if (kind == EXPANDED) {
+				writeExpandedRow(id, modelGen, commands);
+			}
+			else if (kind == PERIMETER) {
+				writePerimeterRow(id, modelGen, commands);
+			}
+			else {
+				writeAbsorbingRow(id, modelGen, commands);
+			}
+			rowKinds[id] = kind;
+		}
+		numStates = n;
+		return model;
+	}
+
+	/**
+	 * Takes new rates for every row, after the model constants have changed in a way that only
+	 * affects rates (see {@link ConstantAnalysis}). The rows that can't be re-rated in place are
+	 * dropped and expanded again when needed, and every row is written again on the next update.
+	 * @param modelGen The generator of the model with the new constants.
+	 * @param commands The compiled commands of the model with the new constants, used instead of
+	 * {@code modelGen} if not null.
+	 * @throws PrismException
+	 */
+	void updateRates(ModelGenerator modelGen, CompiledCommands commands) throws PrismException {
+		for (int id = 0; id < numStates; id++) {
+			StateExpansion row = expandedRows.get(id);
+			if (row != null) {
+				expandedRows.set(id, withNewRates(row, modelGen, commands, globalStateSet.getState(id)));
+			}
+			row = perimeterRows.get(id);
+			if (row != null) {
+				perimeterRows.set(id, withNewRates(row, modelGen, commands, globalStateSet.getState(id)));
+			}
+			rowKinds[id] = 0;
+		}
+	}
+
+	/**
+	 * Writes the row of an expanded state, all of whose successors are in the global state set.
+	 */
+	private void writeExpandedRow(int id, ModelGenerator modelGen, CompiledCommands commands) throws PrismException {
+		StateExpansion row = expandedRows.get(id);
+		if (row == null) {
+			// Expanded before the builder was created, e.g. with other constants
+			row = expand(modelGen, commands, globalStateSet.getState(id)).resolveWithin(globalStateSet, -1);
+		}
+		perimeterRows.set(id, null);
+		ensureScratch(row.size());
+		for (int k = 0; k < row.size(); k++) {
+			// Ids of the global state set are one less than the states of the model, and -1 is the absorbing state
+			targets[k] = row.successor(k) + 1;
+			targetRates[k] = row.rates[k];
+		}
+		model.setRow(id + 1, targets, targetRates, row.size());
+	}
+
+	/**
+	 * Writes the row of a perimeter state, whose transitions to states outside the global state
+	 * set go to the absorbing state.
+	 */
+	private void writePerimeterRow(int id, ModelGenerator modelGen, CompiledCommands commands) throws PrismException {
+		StateExpansion row = perimeterRows.get(id);
+		if (row == null) {
+			row = expand(modelGen, commands, globalStateSet.getState(id));
+			perimeterRows.set(id, row);
+		}
+		ensureScratch(row.size());
+		for (int k = 0; k < row.size(); k++) {
+			targets[k] = row.findSuccessor(k, globalStateSet) + 1;
+			targetRates[k] = row.rates[k];
+		}
+		model.setRow(id + 1, targets, targetRates, row.size());
+	}
+
+	/**
+	 * Writes the row of a state made absorbing by the property: a self-loop with its exit rate.
+	 */
+	private void writeAbsorbingRow(int id, ModelGenerator modelGen, CompiledCommands commands) throws PrismException {
+		StateExpansion row = perimeterRows.get(id);
+		if (row == null) {
+			row = expandedRows.get(id);
+		}
+		double exitRate = row != null ? row.exitRateSum : expand(modelGen, commands, globalStateSet.getState(id)).exitRateSum;
+		perimeterRows.set(id, null);
+		targets[0] = id + 1;
+		targetRates[0] = exitRate;
+		model.setRow(id + 1, targets, targetRates, 1);
+	}
+
+	private static StateExpansion expand(ModelGenerator modelGen, CompiledCommands commands, State state) throws PrismException {
+		return commands != null ? commands.expand(state) : StateExpansion.of(modelGen, state);
+	}
+
+	private static StateExpansion withNewRates(StateExpansion row, ModelGenerator modelGen, CompiledCommands commands, State state) throws PrismException {
+		return commands != null ? row.withNewRates(commands, state) : row.withNewRates(modelGen, state);
+	}
+
+	private void ensureScratch(int size) {
+		if (size > targets.length) {
+			targets = new int[Math.max(targets.length * 2, size)];
+			targetRates = new double[targets.length];
+		}
+	}
+}
@@ -2,6 +2,7 @@ package stamina;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +22,9 @@ public class StaminaCL {
 	// Argument parser
 	ArgumentParser argParse;
 
+	// The options given on the command line
+	private Options options = null;
+
 	// Stamina Object
 	private StaminaModelChecker staminaMC = null;
 
@@ -60,9 +64,6 @@ public class StaminaCL {
 
 
 	//////////////////////////////////// Command lines args to pass to prism ///////////////////
-	// Solutions method max iteration
-	private int maxLinearSolnIter = -1;
-
 	// Solution method
 	private String solutionMethod = null;
 
@@ -92,6 +93,20 @@ public class StaminaCL {
 	 * @param args Command line arguments to parse.
 	 */
 	public void run(String[] args) {
+		try {
+			runChecked(args);
+		} catch (PrismException e) {
+			StaminaLog.errorAndExit(e.getMessage(), StaminaLog.GENERAL_ERROR);
+		}
+	}
+
+	/**
+	 * Runs the StaminaCL, but throws an error that ends the run instead of exiting, so that a
+	 * caller running several models (the {@link PerformanceRunner}) can carry on with the next.
+	 * @param args Command line arguments to parse.
+	 * @throws PrismException If the model or properties can't be loaded, or the run fails.
+	 */
+	void runChecked(String[] args) throws PrismException {
 
 		Result res;
 		argParse = new ArgumentParser();
@@ -99,6 +114,7 @@ public class StaminaCL {
 // 		doParsing(args);
 		argParse.setupArgs();
 		argParse.parseArguments(args);
+		options = argParse.getOptions();
 
 		//Initialize
 		initializeSTAMINA();
@@ -106,158 +122,261 @@ public class StaminaCL {
 
 		// Process options
 		processOptions();
-		try {
-			// process info about undefined constant
-			undefinedMFConstants = new UndefinedConstants(modulesFile, null);
+		// process info about undefined constant
+		undefinedMFConstants = new UndefinedConstants(modulesFile, null);
 
-			undefinedConstants = new UndefinedConstants[numPropertiesToCheck];
-			for (int i = 0; i < numPropertiesToCheck; i++) {
-				undefinedConstants[i] = new UndefinedConstants(modulesFile, propertiesFile, propertiesToCheck.get(i));
+		undefinedConstants = new UndefinedConstants[numPropertiesToCheck];
+		for (int i = 0; i < numPropertiesToCheck; i++) {
+			undefinedConstants[i] = new UndefinedConstants(modulesFile, propertiesFile, propertiesToCheck.get(i));
+		}
+
+		// then set up value using const switch definitions
+		undefinedMFConstants.defineUsingConstSwitch(options.getUndefinedConstants());
+		for (int i = 0; i < numPropertiesToCheck; i++) {
+			undefinedConstants[i].defineUsingConstSwitch(options.getUndefinedConstants());
+		}
+
+		// initialise storage for results
+		results = new ResultsCollection[numPropertiesToCheck];
+		for (int i = 0; i < numPropertiesToCheck; i++) {
+			results[i] = new ResultsCollection(undefinedConstants[i], propertiesToCheck.get(i).getName());
+		}
+
+		if (options.getSweepThreads() > 1) {
+			if (options.getMetricsReportFile() != null) {
+				StaminaLog.warning("Sweep points are checked on checkers of their own, so no metrics report is written");
 			}
+			runSweep();
+			return;
+		}
 
-			// then set up value using const switch definitions
-			undefinedMFConstants.defineUsingConstSwitch(Options.getUndefinedConstants());
-			for (int i = 0; i < numPropertiesToCheck; i++) {
-				undefinedConstants[i].defineUsingConstSwitch(Options.getUndefinedConstants());
+		// Properties are only checked together if their constants have a single value
+		Values batchPFConstants = null;
+		if (options.getBatchProperties() && propertiesFile != null) {
+			UndefinedConstants batchConstants = new UndefinedConstants(modulesFile, propertiesFile);
+			batchConstants.defineUsingConstSwitch(options.getUndefinedConstants());
+			if (batchConstants.getNumPropertyIterations() == 1) {
+				batchPFConstants = batchConstants.getPFConstantValues();
+			}
+			else {
+				StaminaLog.warning("Properties file constants have ranges, so properties are checked one at a time");
 			}
+		}
 
-			// initialise storage for results
-			results = new ResultsCollection[numPropertiesToCheck];
-			for (int i = 0; i < numPropertiesToCheck; i++) {
-				results[i] = new ResultsCollection(undefinedConstants[i], propertiesToCheck.get(i).getName());
+		// iterate through as many models as necessary
+		for (int i = 0; i < undefinedMFConstants.getNumModelIterations(); i++) {
+			// set values for ModulesFile constants
+			try {
+				definedMFConstants = undefinedMFConstants.getMFConstantValues();
+				staminaMC.setPRISMModelConstants(definedMFConstants);
+			} catch (PrismException e) {
+				// in case of error, report it, store as result for any properties, and go on to the next model
+				// (might happen for example if overflow or another numerical problem is detected at this stage)
+				StaminaLog.log("\nError: " + e.getMessage() + ".");
+				for (int j = 0; j < numPropertiesToCheck; j++) {
+					results[j].setMultipleErrors(definedMFConstants, null, e);
+				}
+				// iterate to next model
+				undefinedMFConstants.iterateModel();
+				for (int j = 0; j < numPropertiesToCheck; j++) {
+					undefinedConstants[j].iterateModel();
+				}
+				continue;
 			}
 
-			// iterate through as many models as necessary
-			for (int i = 0; i < undefinedMFConstants.getNumModelIterations(); i++) {
-				// set values for ModulesFile constants
+			// Check the properties that can be checked together over one state space
+			Result[] batchResults = null;
+			if (batchPFConstants != null) {
 				try {
-					definedMFConstants = undefinedMFConstants.getMFConstantValues();
-					staminaMC.setPRISMModelConstants(definedMFConstants);
+					propertiesFile.setSomeUndefinedConstants(batchPFConstants);
+					batchResults = staminaMC.modelCheckStaminaBatch(propertiesFile, propertiesToCheck);
 				} catch (PrismException e) {
-					// in case of error, report it, store as result for any properties, and go on to the next model
-					// (might happen for example if overflow or another numerical problem is detected at this stage)
 					StaminaLog.log("\nError: " + e.getMessage() + ".");
+					batchResults = new Result[numPropertiesToCheck];
 					for (int j = 0; j < numPropertiesToCheck; j++) {
-						results[j].setMultipleErrors(definedMFConstants, null, e);
+						batchResults[j] = new Result(e);
 					}
-					// iterate to next model
-					undefinedMFConstants.iterateModel();
-					for (int j = 0; j < numPropertiesToCheck; j++) {
-						undefinedConstants[j].iterateModel();
-					}
-					continue;
 				}
+			}
 
-				// Work through list of properties to be checked
-				for (int j = 0; j < numPropertiesToCheck; j++) {
-
-
-					for (int k = 0; k < undefinedConstants[j].getNumPropertyIterations(); k++) {
-
-						try {
-							// Set values for PropertiesFile constants
-							if (propertiesFile != null) {
-								definedPFConstants = undefinedConstants[j].getPFConstantValues();
-								propertiesFile.setSomeUndefinedConstants(definedPFConstants);
-							}
-							res = staminaMC.modelCheckStamina(propertiesFile, propertiesToCheck.get(j));
+			// Work through list of properties to be checked
+			for (int j = 0; j < numPropertiesToCheck; j++) {
 
+				if (batchResults != null && batchResults[j] != null) {
+					definedPFConstants = undefinedConstants[j].getPFConstantValues();
+					results[j].setResult(definedMFConstants, definedPFConstants, batchResults[j].getResult());
+					undefinedConstants[j].iterateProperty();
+					continue;
+				}
 
+				for (int k = 0; k < undefinedConstants[j].getNumPropertyIterations(); k++) {
 
-						} catch (PrismException e) {
-							StaminaLog.log("\nError: " + e.getMessage() + ".");
-							res = new Result(e);
+					try {
+						// Set values for PropertiesFile constants
+						if (propertiesFile != null) {
+							definedPFConstants = undefinedConstants[j].getPFConstantValues();
+							propertiesFile.setSomeUndefinedConstants(definedPFConstants);
 						}
+						res = staminaMC.modelCheckStamina(propertiesFile, propertiesToCheck.get(j));
 
-						// store result of model checking
-						results[j].setResult(definedMFConstants, definedPFConstants, res.getResult());
-						//results[j+1].setResult(definedMFConstants, definedPFConstants, res[1].getResult());
 
-						// iterate to next property
-						undefinedConstants[j].iterateProperty();
 
+					} catch (PrismException e) {
+						StaminaLog.log("\nError: " + e.getMessage() + ".");
+						res = new Result(e);
 					}
-				}
 
-				// iterate to next model
-				undefinedMFConstants.iterateModel();
-				for (int j = 0; j < numPropertiesToCheck; j++) {
-					undefinedConstants[j].iterateModel();
+					// store result of model checking
+					results[j].setResult(definedMFConstants, definedPFConstants, res.getResult());
+					//results[j+1].setResult(definedMFConstants, definedPFConstants, res[1].getResult());
+
+					// iterate to next property
+					undefinedConstants[j].iterateProperty();
+
 				}
+			}
 
+			// iterate to next model
+			undefinedMFConstants.iterateModel();
+			for (int j = 0; j < numPropertiesToCheck; j++) {
+				undefinedConstants[j].iterateModel();
 			}
 
-		} catch (PrismException e) {
-			StaminaLog.errorAndExit(e.getMessage(), StaminaLog.GENERAL_ERROR);
 		}
 
+		if (options.getMetricsReportFile() != null) {
+			writeMetricsReport();
+		}
+
+
+	}
+
+	/**
+	 * Writes the metrics report of the run, with a {@link MetricsReport}.
+	 */
+	private void writeMetricsReport() {
+		try {
+			MetricsReport.write(options.getMetricsReportFile(), options, staminaMC.getStatistics());
+			StaminaLog.log("Wrote metrics report to " + options.getMetricsReportFile());
+		}
+		catch (IOException e) {
+			StaminaLog.error("Could not write metrics report to " + options.getMetricsReportFile() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the model checker of the last run.
+	 * @return The model checker, or null if there has been no run.
+	 */
+	StaminaModelChecker getModelChecker() {
+		return staminaMC;
+	}
+
+	/**
+	 * Checks every point of the constant sweep in parallel, with a {@link SweepExecutor}, and
+	 * stores the results in the same order as checking them one after another would.
+	 * @throws PrismException
+	 */
+	private void runSweep() throws PrismException {
+		SweepExecutor sweep = new SweepExecutor(options, options.getSweepThreads());
+		for (int i = 0; i < undefinedMFConstants.getNumModelIterations(); i++) {
+			Values mfConstants = undefinedMFConstants.getMFConstantValues();
+			for (int j = 0; j < numPropertiesToCheck; j++) {
+				int property = propertyFileIndex(propertiesToCheck.get(j));
+				for (int k = 0; k < undefinedConstants[j].getNumPropertyIterations(); k++) {
+					sweep.addPoint(mfConstants, property, undefinedConstants[j].getPFConstantValues());
+					undefinedConstants[j].iterateProperty();
+				}
+			}
+			undefinedMFConstants.iterateModel();
+			for (int j = 0; j < numPropertiesToCheck; j++) {
+				undefinedConstants[j].iterateModel();
+			}
+		}
+		StaminaLog.log("Checking " + sweep.getNumPoints() + " sweep points on " + options.getSweepThreads() + " threads");
+		List<SweepExecutor.Point> points = sweep.run();
+		// The points were added property by property within each model, as are the collections
+		int next = 0;
+		for (int i = 0; i < undefinedMFConstants.getNumModelIterations(); i++) {
+			for (int j = 0; j < numPropertiesToCheck; j++) {
+				for (int k = 0; k < undefinedConstants[j].getNumPropertyIterations(); k++) {
+					SweepExecutor.Point point = points.get(next++);
+					results[j].setResult(point.mfConstants, point.pfConstants, point.result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the index of a property in the properties file.
+	 */
+	private int propertyFileIndex(Property prop) {
+		for (int i = 0; i < propertiesFile.getNumProperties(); i++) {
+			if (propertiesFile.getPropertyObject(i) == prop) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	/**
 	 * Initializes STAMINA to ready state. Also initializes the PRISM engine we're using.
+	 * @throws PrismException If PRISM can't be set up or the model can't be loaded.
 	 */
-	public void initializeSTAMINA() {
+	public void initializeSTAMINA() throws PrismException {
 
 		//init prism
 		try {
 			// Print our version
 			StaminaLog.log("STAMINA\n=====\nVersion: " + Integer.toString(versionMajor) + "." + Integer.toString(versionMinor) + "\n");
 			// Initialise PRISM engine
-			staminaMC = new StaminaModelChecker();
+			staminaMC = new StaminaModelChecker(options);
 			// Parse and load a PRISM model from a file
-			modulesFile = staminaMC.parseModelFile(new File(Options.getModelFileName()));
+			modulesFile = staminaMC.parseModelFile(new File(options.getModelFileName()));
 			staminaMC.loadPRISMModel(modulesFile);
 			staminaMC.initialise();
-		} catch (PrismException e) {
-			StaminaLog.errorAndExit(e.getMessage(), StaminaLog.GENERAL_ERROR);
 		} catch (FileNotFoundException e) {
-			StaminaLog.errorAndExit("Model file did not exist.", StaminaLog.GENERAL_ERROR);
+			throw new PrismException("Model file did not exist.");
 		}
 	}
 
 
 	/**
 	 * Processes command line arguments.
+	 * @throws PrismException
 	 */
-	private void processOptions() {
-		try {
-			if (maxLinearSolnIter >= 0) {
-				staminaMC.setMaxIters(Options.getMaxIterations());
-			}
-			staminaMC.setEngine(Options.getMethod());
-			staminaMC.loadPRISMModel(modulesFile);
-
-		} catch (PrismException e) {
-			StaminaLog.errorAndExit(e.getMessage(), StaminaLog.GENERAL_ERROR);
-		}
+	private void processOptions() throws PrismException {
+		staminaMC.applyPrismSettings();
+		staminaMC.loadPRISMModel(modulesFile);
 	}
 
 	/**
 	 * parse model and properties file
+	 * @throws PrismException If the properties file can't be read or parsed.
 	 */
-	void parseModelProperties(){
+	void parseModelProperties() throws PrismException {
 		propertiesToCheck = new ArrayList<Property>();
 		try {
 
 			// Parse and load a properties model for the model
-			propertiesFile = staminaMC.parsePropertiesFile(modulesFile, new File(Options.getPropertyFileName()));
+			propertiesFile = staminaMC.parsePropertiesFile(modulesFile, new File(options.getPropertyFileName()));
 
 			if (propertiesFile == null) {
 				numPropertiesToCheck = 0;
 			}
 			// unless specified, verify all properties
 			else {
-				if (Options.getSpecificProperty()) {
+				if (options.getSpecificProperty()) {
 					int tempProperties = propertiesFile.getNumProperties();
 					for (int i = 0; i<tempProperties; ++i) {
-						if (propertiesFile.getPropertyObject(i).getName().equals(Options.getPropertyName())) {
+						if (propertiesFile.getPropertyObject(i).getName().equals(options.getPropertyName())) {
 							propertiesToCheck.add(propertiesFile.getPropertyObject(i));
 							numPropertiesToCheck = 1;
 							break;
 						}
 					}
 					if (numPropertiesToCheck != 1) {
-						throw new PrismException("Did not find property " + Options.getPropertyName());
+						throw new PrismException("Did not find property " + options.getPropertyName());
 					}
 				} else {
 					numPropertiesToCheck = propertiesFile.getNumProperties();
@@ -268,11 +387,7 @@ public class StaminaCL {
 			}
 
 		} catch (FileNotFoundException e) {
-			System.out.println("Error: " + e.getMessage());
-			System.exit(1);
-		} catch (PrismException e) {
-			System.out.println("Error: " + e.getMessage());
-			System.exit(1);
+			throw new PrismException(e.getMessage());
 		}
 	}
 
@@ -0,0 +1,162 @@
+package stamina;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the phases of a STAMINA run, so a recording (e.g. with
+ * {@code -XX:StartFlightRecording}) shows refinements, exploration sweeps, model builds,
+ * transient solves and exports next to the JVM's own GC and allocation events. They are all in
+ * the "STAMINA" category.
+ *
+ * Each event is begun before its phase and committed after it. Anything that takes work to
+ * find out, like the size of a file, is only worked out if {@link Event#shouldCommit()} says the
+ * event is recorded, so with recording off an event costs no more than creating it, which the
+ * JIT can usually do away with.
+ */
+final class StaminaEvents {
+	private StaminaEvents() {
+	}
+
+	@Name("stamina.Refinement")
+	@Label("Refinement")
+	@Category("STAMINA")
+	@Description("One refinement: exploring with a reachability threshold, building the truncated model and checking it")
+	static final class RefinementEvent extends Event {
+		@Label("Property")
+		String property;
+
+		@Label("Iteration")
+		int iteration;
+
+		@Label("Kappa")
+		@Description("The reachability threshold the refinement started with")
+		double kappa;
+
+		@Label("States")
+		@Description("The states explored when the refinement ended")
+		int states;
+
+		@Label("Lower Bound")
+		double lowerBound;
+
+		@Label("Upper Bound")
+		double upperBound;
+
+		@Label("Window")
+		@Description("The difference between the bounds reached")
+		double window;
+	}
+
+	@Name("stamina.ExplorationSweep")
+	@Label("Exploration Sweep")
+	@Category("STAMINA")
+	@Description("One search of the state space with one reachability threshold")
+	static final class SweepEvent extends Event {
+		@Label("Kappa")
+		double kappa;
+
+		@Label("States Expanded")
+		long statesExpanded;
+
+		@Label("States Re-expanded")
+		long statesReexpanded;
+
+		@Label("Transitions")
+		long transitions;
+
+		@Label("New States")
+		int newStates;
+
+		@Label("Total States")
+		int totalStates;
+
+		@Label("Hash Probes")
+		long hashProbes;
+
+		@Label("Perimeter States")
+		int perimeterStates;
+
+		@Label("Perimeter Mass")
+		@Description("The reachability held by the perimeter states after the sweep")
+		double perimeterMass;
+
+		/**
+		 * Fills in the event from the metrics recorded for the sweep.
+		 * @param sweep The metrics of the sweep.
+		 * @param total The number of states after the sweep.
+		 */
+		void set(RunStatistics.Sweep sweep, int total) {
+			kappa = sweep.kappa;
+			statesExpanded = sweep.statesExpanded;
+			statesReexpanded = sweep.statesReexpanded;
+			transitions = sweep.transitions;
+			newStates = sweep.newStates;
+			totalStates = total;
+			hashProbes = sweep.hashProbes;
+			perimeterStates = sweep.perimeterStates;
+			perimeterMass = sweep.perimeterMass;
+		}
+	}
+
+	@Name("stamina.ModelBuild")
+	@Label("Model Build")
+	@Category("STAMINA")
+	@Description("Building (or importing) the truncated model")
+	static final class ModelBuildEvent extends Event {
+		@Label("Source")
+		@Description("Where the model came from: 'direct', 'prism' or 'binary import'")
+		String source;
+
+		@Label("States")
+		int states;
+
+		@Label("Transitions")
+		long transitions;
+	}
+
+	@Name("stamina.TransientSolve")
+	@Label("Transient Solve")
+	@Category("STAMINA")
+	@Description("Computing the transient (or until) probabilities of the truncated model")
+	static final class TransientSolveEvent extends Event {
+		@Label("Engine")
+		@Description("'stamina' (uniformisation), 'prism' or 'dual-bound'")
+		String engine;
+
+		@Label("States")
+		int states;
+
+		@Label("Time Bound")
+		@Description("The time bound, or -1 if unbounded")
+		double timeBound;
+
+		@Label("Iterations")
+		@Description("The iterations taken, or -1 if not known")
+		int iterations;
+	}
+
+	@Name("stamina.Export")
+	@Label("Export")
+	@Category("STAMINA")
+	@Description("Writing a model, transition list or state space snapshot to files")
+	static final class ExportEvent extends Event {
+		@Label("Kind")
+		@Description("What was written: 'binary model', 'prism model', 'transitions' or 'snapshot'")
+		String kind;
+
+		@Label("File")
+		String file;
+
+		@Label("States")
+		int states;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+	}
+}
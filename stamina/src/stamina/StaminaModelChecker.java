@@ -1,7 +1,12 @@
 package stamina;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import parser.State;
 import parser.ast.*;
@@ -19,18 +24,96 @@ public class StaminaModelChecker extends Prism {
 
 	private StaminaModelGenerator infModelGen = null;
 
+	// The options of this checker, and the state of its run that changes from one refinement to the next
+	private final Options options;
+	private final RunContext context;
+
+	// STAMINA's own transient engine, created when first used
+	private UniformisationSolver transientSolver = null;
+	// Checks both bounds at once, keeping its solution for the next refinement of the same property
+	private DualBoundChecker dualBoundChecker = null;
+	// The absorbing state of the last model built for the dual-bound checker, or -1 if it has none
+	private int builtAbsorbingState = -1;
+
+	// Numbers the checkers in this JVM, so each registers its monitor under its own name
+	private static final AtomicInteger checkerCount = new AtomicInteger();
+	// The name the monitor is registered under, or null if it could not be registered
+	private ObjectName monitorName = null;
+
 	/**
-	 * Construct a new Prism object.
-	 * @param mainLog PrismLog where all output will be sent.
+	 * Construct a new Prism object with the default options.
 	 */
 	public StaminaModelChecker() {
+		this(Options.builder().build());
+	}
+
+	/**
+	 * Construct a new Prism object.
+	 * @param options The options of this checker.
+	 */
+	public StaminaModelChecker(Options options) {
 		super(StaminaLog.getMainLog());
+		this.options = options;
+		this.context = new RunContext(options);
 		try {
-			super.setCUDDMaxMem(Options.getCuddMemoryLimit());
+			super.setCUDDMaxMem(options.getCuddMemoryLimit());
 		}
 		catch (Exception e) {
 			StaminaLog.error("Got error when trying to set CUDD max memory limit:" + e);
 		}
+		registerMonitor();
+	}
+
+	/**
+	 * Passes the options that are PRISM settings (the iteration limit and the engine) on to
+	 * PRISM, so a single run and each point of a constant sweep are set up the same way.
+	 * @throws PrismException
+	 */
+	void applyPrismSettings() throws PrismException {
+		setMaxIters(options.getMaxIterations());
+		setEngine(options.getMethod());
+	}
+
+	/**
+	 * Registers the monitor of this checker's runs with the platform MBean server, so the run
+	 * can be watched over JMX. A monitor that can't be registered is only warned about.
+	 */
+	private void registerMonitor() {
+		try {
+			ObjectName name = new ObjectName("stamina:type=StaminaModelChecker,id=" + checkerCount.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(context.getMonitor(), name);
+			monitorName = name;
+		}
+		catch (JMException e) {
+			StaminaLog.warning("Could not register the JMX monitor: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Unregisters the monitor, once this checker's runs are over.
+	 */
+	private void unregisterMonitor() {
+		if (monitorName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(monitorName);
+			}
+			catch (JMException e) {
+				StaminaLog.warning("Could not unregister the JMX monitor: " + e.getMessage());
+			}
+			monitorName = null;
+		}
+	}
+
+	/**
+	 * Unregisters the monitor and shuts down the exploration threads, then closes down PRISM.
+	 */
+	@Override
+	public void closeDown() {
+		unregisterMonitor();
+		if (infModelGen != null) {
+			infModelGen.shutDown();
+		}
+		super.closeDown();
 	}
 
 	/**
@@ -39,7 +122,7 @@ public class StaminaModelChecker extends Prism {
 	 * @param isMin Expression is minimum.
 	 * @throws PrismLangException
 	 */
-	private void modifyExpression(Expression expr, boolean isMin) throws PrismLangException {
+	void modifyExpression(Expression expr, boolean isMin) throws PrismLangException {
 
 		if (expr instanceof ExpressionBinaryOp) {
 			Expression op1 = ((ExpressionBinaryOp) expr).getOperand1();
@@ -87,6 +170,248 @@ public class StaminaModelChecker extends Prism {
 		//return expr;
 	}
 
+	/**
+	 * Whether both bounds of a property can be computed in one pass by {@link DualBoundChecker}:
+	 * it must be a {@code P=?} query of an until or eventually formula from time 0, whose operands
+	 * are built from comparisons of variables with {@code &} and {@code |}, so that the bounds
+	 * {@link #modifyExpression(Expression, boolean)} gives are the absorbing state satisfying
+	 * neither operand, or satisfying both.
+	 * @param exprProb The property.
+	 * @param exprTemp Its path formula.
+	 * @return Whether the dual-bound checker can be used.
+	 */
+	private boolean canCheckDualBound(ExpressionProb exprProb, ExpressionTemporal exprTemp) throws PrismException {
+		if (exprProb.getProb() != null) {
+			return false;
+		}
+		int op = exprTemp.getOperator();
+		if (op != ExpressionTemporal.P_U && op != ExpressionTemporal.P_F) {
+			return false;
+		}
+		Expression lower = exprTemp.getLowerBound();
+		if (lower != null && lower.evaluateDouble(getPRISMModelStamina().getConstantValues()) != 0) {
+			return false;
+		}
+		return (exprTemp.getOperand1() == null || isMonotoneInAtoms(exprTemp.getOperand1())) && isMonotoneInAtoms(exprTemp.getOperand2());
+	}
+
+	/**
+	 * Whether an expression only combines comparisons of variables (the atoms modified by
+	 * {@link #modifyExpression(Expression, boolean)}) and literals with {@code &}, {@code |} and parentheses.
+	 */
+	private static boolean isMonotoneInAtoms(Expression expr) {
+		if (expr instanceof ExpressionLiteral) {
+			return true;
+		}
+		if (expr instanceof ExpressionUnaryOp) {
+			ExpressionUnaryOp unary = (ExpressionUnaryOp) expr;
+			return unary.getOperator() == ExpressionUnaryOp.PARENTH && isMonotoneInAtoms(unary.getOperand());
+		}
+		if (expr instanceof ExpressionBinaryOp) {
+			ExpressionBinaryOp binary = (ExpressionBinaryOp) expr;
+			int op = binary.getOperator();
+			if (ExpressionBinaryOp.isRelOp(op)) {
+				return binary.getOperand1() instanceof ExpressionVar;
+			}
+			return (op == ExpressionBinaryOp.AND || op == ExpressionBinaryOp.OR)
+				&& isMonotoneInAtoms(binary.getOperand1()) && isMonotoneInAtoms(binary.getOperand2());
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the truncated model and computes the lower and upper bound of an until (or
+	 * eventually) property together, instead of checking the min and max properties one after
+	 * the other.
+	 * @param propertiesFile Parent property file of the property.
+	 * @param propName The name of the property.
+	 * @param exprTemp The path formula of the property.
+	 * @param resultsMinMax Where the lower and upper bound are stored.
+	 * @throws PrismException
+	 */
+	private void checkDualBound(PropertiesFile propertiesFile, String propName, ExpressionTemporal exprTemp, Result[] resultsMinMax) throws PrismException {
+		explicit.Model builtModel = buildModelForDualBound(propertiesFile);
+		computeDualBound(builtModel, dualBoundChecker, propName, exprTemp, resultsMinMax);
+	}
+
+	/**
+	 * Builds the truncated model for {@link DualBoundChecker}: directly from the explored state
+	 * set if {@code -directBuild} is given, or else with PRISM. Sets {@code builtAbsorbingState}.
+	 * @param propertiesFile Parent property file (for exporting the model).
+	 * @return The explicit-state model.
+	 * @throws PrismException
+	 */
+	private explicit.Model buildModelForDualBound(PropertiesFile propertiesFile) throws PrismException {
+		SparseCTMC truncatedModel = buildTruncatedModel();
+		if (truncatedModel != null) {
+			builtAbsorbingState = 0;
+			return truncatedModelToExplicit(truncatedModel);
+		}
+		if (options.getImportModel()) {
+			importModel();
+		}
+		buildModelWithPRISM();
+		if (options.getExportModel()) {
+			exportModel(propertiesFile);
+		}
+		builtAbsorbingState = infModelGen.finalModelHasAbsorbing() ? 0 : -1;
+		return super.getBuiltModelExplicit();
+	}
+
+	/**
+	 * Has PRISM build the model (exploring it through the STAMINA model generator), as a
+	 * {@link StaminaEvents.ModelBuildEvent}.
+	 * @throws PrismException
+	 */
+	private void buildModelWithPRISM() throws PrismException {
+		StaminaEvents.ModelBuildEvent event = new StaminaEvents.ModelBuildEvent();
+		event.begin();
+		super.buildModel();
+		event.end();
+		if (event.shouldCommit()) {
+			explicit.Model builtModel = super.getBuiltModelExplicit();
+			event.source = "prism";
+			if (builtModel != null) {
+				event.states = builtModel.getNumStates();
+				event.transitions = builtModel.getNumTransitions();
+			}
+			event.commit();
+		}
+	}
+
+	/**
+	 * Gets the truncated model as a {@link SparseCTMC}: imported from STAMINA's binary format
+	 * with {@code -import -binaryModel}, or built from the explored state set with
+	 * {@code -directBuild} (unless the model is exported or imported in PRISM's text format,
+	 * which needs PRISM to build it).
+	 * @return The truncated model, or null if PRISM is to build it.
+	 * @throws PrismException
+	 */
+	private SparseCTMC buildTruncatedModel() throws PrismException {
+		SparseCTMC truncatedModel;
+		StaminaEvents.ModelBuildEvent event = new StaminaEvents.ModelBuildEvent();
+		if (options.getImportModel() && options.getBinaryModel()) {
+			event.begin();
+			truncatedModel = BinaryModelFile.read(options.getImportFileName());
+			event.source = "binary import";
+			StaminaLog.log("Imported truncated model: " + truncatedModel.getNumStates() + " states, "
+				+ truncatedModel.getNumTransitions() + " transitions");
+		}
+		else if (options.getDirectModelBuild() && (options.getBinaryModel() || (!options.getImportModel() && !options.getExportModel()))) {
+			// Build the truncated model from the explored state set, without PRISM walking it again
+			infModelGen.doReachabilityAnalysis();
+			event.begin();
+			truncatedModel = infModelGen.buildTruncatedModel();
+			event.source = "direct";
+			StaminaLog.log("Built truncated model: " + truncatedModel.getNumStates() + " states, "
+				+ truncatedModel.getNumTransitions() + " transitions");
+		}
+		else {
+			return null;
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.states = truncatedModel.getNumStates();
+			event.transitions = truncatedModel.getNumTransitions();
+			event.commit();
+		}
+		return truncatedModel;
+	}
+
+	/**
+	 * Gets PRISM's copy of a truncated model from {@link #buildTruncatedModel()}, and exports
+	 * the model in the binary format if asked to.
+	 * @param truncatedModel The truncated model.
+	 * @return The explicit-state CTMC.
+	 * @throws PrismException
+	 */
+	private explicit.Model truncatedModelToExplicit(SparseCTMC truncatedModel) throws PrismException {
+		explicit.Model builtModel = truncatedModel.toCTMCSimple(infModelGen.getConstantValues(), infModelGen.getLabelList());
+		if (options.getExportModel() && options.getBinaryModel()) {
+			long timer = System.currentTimeMillis();
+			StaminaEvents.ExportEvent event = new StaminaEvents.ExportEvent();
+			event.begin();
+			BinaryModelFile.write(options.getExportFileName(), truncatedModel, infModelGen);
+			event.end();
+			if (event.shouldCommit()) {
+				event.kind = "binary model";
+				event.file = options.getExportFileName();
+				event.states = truncatedModel.getNumStates();
+				event.bytes = BinaryModelFile.size(options.getExportFileName());
+				event.commit();
+			}
+			StaminaLog.log("Exported truncated model in " + (System.currentTimeMillis() - timer) / 1000.0 + " seconds");
+		}
+		return builtModel;
+	}
+
+	/**
+	 * Computes the lower and upper bound of an until (or eventually) property on a model built
+	 * by {@link #buildModelForDualBound(PropertiesFile)}.
+	 * @param builtModel The truncated model.
+	 * @param checker The checker, which keeps the solution for the next refinement of the property.
+	 * @param propName The name of the property.
+	 * @param exprTemp The path formula of the property.
+	 * @param resultsMinMax Where the lower and upper bound are stored.
+	 * @throws PrismException
+	 */
+	private void computeDualBound(explicit.Model builtModel, DualBoundChecker checker, String propName
+		, ExpressionTemporal exprTemp, Result[] resultsMinMax) throws PrismException {
+		explicit.CTMCModelChecker mcCTMC = new CTMCModelChecker(this);
+		BitSet remain;
+		if (exprTemp.getOperand1() != null) {
+			remain = mcCTMC.checkExpression(builtModel, exprTemp.getOperand1(), null).getBitSet();
+		}
+		else {
+			remain = new BitSet();
+			remain.set(0, builtModel.getNumStates());
+		}
+		BitSet target = mcCTMC.checkExpression(builtModel, exprTemp.getOperand2(), null).getBitSet();
+		double time = -1;
+		if (exprTemp.getUpperBound() != null) {
+			time = exprTemp.getUpperBound().evaluateDouble(mcCTMC.getConstantValues());
+			if (time < 0 || (time == 0 && exprTemp.upperBoundIsStrict())) {
+				String bound = (exprTemp.upperBoundIsStrict() ? "<" : "<=") + time;
+				throw new PrismException("Invalid upper bound " + bound + " in time-bounded until formula");
+			}
+		}
+
+		StaminaLog.endSection();
+		StaminaLog.log("Verifying Lower and Upper Bound for " + propName + "...");
+		long timer = System.currentTimeMillis();
+		StaminaEvents.TransientSolveEvent event = new StaminaEvents.TransientSolveEvent();
+		event.begin();
+		double[] bounds = checker.computeUntilBounds((CTMC) builtModel, remain, target, builtAbsorbingState, time
+			, options.getMethod(), getTermCritParam(), getMaxIters());
+		event.end();
+		if (event.shouldCommit()) {
+			event.engine = "dual-bound";
+			event.states = builtModel.getNumStates();
+			event.timeBound = time;
+			event.iterations = checker.getLastIterations();
+			event.commit();
+		}
+		timer = System.currentTimeMillis() - timer;
+		context.getStatistics().addCheckTime(timer);
+		int iterations = checker.getLastIterations();
+		StaminaLog.log("Dual-bound check: " + iterations + " iterations");
+		if (checker.getWarmStartedStates() > 0) {
+			StaminaLog.log("Warm start from the previous refinement: " + checker.getWarmStartedStates()
+				+ " states, " + (checker.getPreviousIterations() - iterations)
+				+ " fewer iterations than the previous refinement");
+		}
+		StaminaLog.log("Time for model checking: " + timer / 1000.0 + " seconds.");
+
+		resultsMinMax[0] = new Result(bounds[0]);
+		resultsMinMax[0].setExplanation("minimum bound");
+		StaminaLog.log("Result: " + resultsMinMax[0].getResultString());
+		resultsMinMax[1] = new Result(bounds[1]);
+		resultsMinMax[1].setExplanation("maximum bound");
+		StaminaLog.log("Result: " + resultsMinMax[1].getResultString());
+		context.getStatistics().setBounds(bounds[0], bounds[1]);
+		writeResults(resultsMinMax);
+	}
+
 	/**
 	 * Get the currently stored (parsed) PRISM model from either the
 	 */
@@ -128,23 +453,164 @@ public class StaminaModelChecker extends Prism {
 	}
 
 	/**
-	 * Perform model checking of a property on the currently loaded model and return result.
-	 * @param propertiesFile Parent property file of property (for labels/constants/...)
-	 * @param prop The property to check
-	 * @throws FileNotFoundException
+	 * Gets the statistics of the runs of this checker so far.
+	 * @return The statistics.
 	 */
-	public Result modelCheckStamina(PropertiesFile propertiesFile, Property prop) throws PrismException {
-		Result[] resultsMinMax = new Result[2];
-		double reachTh = Options.getReachabilityThreshold();
+	public RunStatistics getStatistics() {
+		return context.getStatistics();
+	}
+
+	/**
+	 * Gets the model generator, which holds the state space explored by the last run.
+	 * @return The model generator, or null if nothing has been checked yet.
+	 */
+	StaminaModelGenerator getStaminaModelGenerator() {
+		return infModelGen;
+	}
 
-		// Instantiate and load model generator
+	/**
+	 * Instantiates and loads the model generator, the first time it is needed.
+	 * @throws PrismException
+	 */
+	void loadStaminaModelGenerator() throws PrismException {
 		if (infModelGen == null) {
 			ModulesFile pModel = getPRISMModel();
-			infModelGen = new StaminaModelGenerator(getPRISMModel(), this);
+			infModelGen = new StaminaModelGenerator(getPRISMModel(), this, options, context);
 			// For some reason this sets the prism model to null
 			super.loadModelGenerator(infModelGen);
 			if (getPRISMModel() == null) { StaminaLog.log("it's null here."); }
 		}
+	}
+
+	/**
+	 * Checks several properties over one truncated state space, instead of refining a state space
+	 * for each property. The property-guided truncation keeps every state that some property
+	 * still needs (the union of what each would keep), and each refinement only checks the
+	 * properties whose probability window is still open; the others keep their last bounds. Only
+	 * properties the dual-bound checker can handle (see {@link #canCheckDualBound(ExpressionProb, ExpressionTemporal)})
+	 * are checked together.
+	 * @param propertiesFile Parent property file of the properties (for labels/constants/...)
+	 * @param props The properties to check.
+	 * @return The lower bound of each property, or null for the properties that were not checked
+	 * and have to be checked one at a time with {@link #modelCheckStamina(PropertiesFile, Property)}.
+	 * @throws PrismException
+	 */
+	public Result[] modelCheckStaminaBatch(PropertiesFile propertiesFile, List<Property> props) throws PrismException {
+		loadStaminaModelGenerator();
+		int numProps = props.size();
+		ExpressionTemporal[] exprTemps = new ExpressionTemporal[numProps];
+		DualBoundChecker[] checkers = new DualBoundChecker[numProps];
+		Result[][] resultsMinMax = new Result[numProps][];
+		List<Integer> batched = new ArrayList<Integer>();
+		for (int i = 0; i < numProps; i++) {
+			Expression exprProp = props.get(i).getExpression();
+			if (!(exprProp instanceof ExpressionProb) || !(((ExpressionProb) exprProp).getExpression() instanceof ExpressionTemporal)) {
+				continue;
+			}
+			ExpressionTemporal exprTemp = (ExpressionTemporal) ((ExpressionProb) exprProp).getExpression().deepCopy();
+			if (canCheckDualBound((ExpressionProb) exprProp, exprTemp)) {
+				exprTemps[i] = exprTemp;
+				checkers[i] = new DualBoundChecker();
+				resultsMinMax[i] = new Result[2];
+				batched.add(i);
+			}
+		}
+		Result[] results = new Result[numProps];
+		if (batched.isEmpty()) {
+			return results;
+		}
+
+		List<Integer> open = batched;
+		int numRefineIteration = 0;
+		while (!open.isEmpty() && (numRefineIteration == 0 || numRefineIteration < options.getMaxApproxCount())) {
+			double reachTh = context.getReachabilityThreshold();
+			context.getStatistics().startRefinement(open.size() + " of " + batched.size() + " properties", reachTh);
+			if (!options.getNoPropRefine()) {
+				infModelGen.setPropertyExpression(unionTruncationExpression(exprTemps, open));
+			}
+			StaminaLog.header("Approximation [" + (numRefineIteration + 1) + "] : kappa = " + reachTh
+				+ ", " + open.size() + " of " + batched.size() + " properties open");
+			infModelGen.setReachabilityThreshold(reachTh);
+			explicit.Model builtModel = buildModelForDualBound(propertiesFile);
+
+			double widest = 0;
+			List<Integer> stillOpen = new ArrayList<Integer>();
+			for (int i : open) {
+				Property prop = props.get(i);
+				String propName = prop.getName() == null ? "Prob" + (i + 1) : prop.getName();
+				computeDualBound(builtModel, checkers[i], propName, exprTemps[i], resultsMinMax[i]);
+				Object min = resultsMinMax[i][0].getResult();
+				Object max = resultsMinMax[i][1].getResult();
+				if (!terminateModelCheck(min, max, options.getProbErrorWindow())) {
+					stillOpen.add(i);
+					widest = Math.max(widest, (Double) max - (Double) min);
+				}
+			}
+			open = stillOpen;
+
+			// Refine for the property furthest from its window, as modelCheckStamina() does for one property.
+			// Once every window is closed there is nothing left to refine for, and the factor is left as
+			// it is for the properties checked one at a time afterwards.
+			if (!open.isEmpty()) {
+				double percentOff = 4 * widest / options.getProbErrorWindow();
+				if (percentOff > 100) {
+					percentOff = 100;
+				}
+				context.setMispredictionFactor(context.getMispredictionFactor() * percentOff);
+			}
+
+			if (options.getExportPerimeterStates()) {
+				exportPerimeterStates(infModelGen, numRefineIteration);
+			}
+			infModelGen.clearPerimeterStatesVector();
+			++numRefineIteration;
+			context.getStatistics().endRefinement();
+		}
+
+		for (int i : batched) {
+			StaminaLog.logResult(props.get(i).toString(), resultsMinMax[i][0].getResultString(), resultsMinMax[i][1].getResultString());
+			results[i] = resultsMinMax[i][0];
+		}
+		if (options.getExportTransitionsToFile() != null) {
+			StaminaLog.log("\n\nExporting transition list...");
+			printTransitionActions(infModelGen, options.getExportTransitionsToFile());
+			StaminaLog.log("Export Complete");
+		}
+		return results;
+	}
+
+	/**
+	 * Makes a path formula whose property-guided truncation keeps every state that one of the
+	 * given properties keeps. A state is made absorbing for {@code a U b} if it satisfies
+	 * {@code !(a & !b)}, so for several properties it is made absorbing if it satisfies none of
+	 * their {@code a & !b}: that is, the formula {@code (a1 & !b1) | (a2 & !b2) | ... U false}.
+	 * @param exprTemps The path formula of each property.
+	 * @param which The properties to include.
+	 * @return The path formula.
+	 */
+	private static ExpressionTemporal unionTruncationExpression(ExpressionTemporal[] exprTemps, List<Integer> which) {
+		Expression keep = null;
+		for (int i : which) {
+			Expression remain = exprTemps[i].getOperand1() == null ? Expression.True() : exprTemps[i].getOperand1().deepCopy();
+			Expression needed = Expression.And(Expression.Parenth(remain), Expression.Not(Expression.Parenth(exprTemps[i].getOperand2().deepCopy())));
+			keep = keep == null ? needed : Expression.Or(keep, needed);
+		}
+		return new ExpressionTemporal(ExpressionTemporal.P_U, keep, Expression.False());
+	}
+
+	/**
+	 * Perform model checking of a property on the currently loaded model and return result.
+	 * @param propertiesFile Parent property file of property (for labels/constants/...)
+	 * @param prop The property to check
+	 * @throws FileNotFoundException
+	 */
+	public Result modelCheckStamina(PropertiesFile propertiesFile, Property prop) throws PrismException {
+		Result[] resultsMinMax = new Result[2];
+		double reachTh = context.getReachabilityThreshold();
+
+		loadStaminaModelGenerator();
+		// Previous solutions are only of use for refinements of the same property
+		dualBoundChecker = new DualBoundChecker();
 		// Time bounds
 		double lTime, uTime;
 
@@ -174,36 +640,49 @@ public class StaminaModelChecker extends Prism {
 
 		Expression expr = ((ExpressionProb) exprProp).getExpression();
 		while (numRefineIteration == 0 ||
-			(!terminateModelCheck(resultsMinMax[0].getResult(), resultsMinMax[1].getResult(), Options.getProbErrorWindow()) && numRefineIteration < Options.getMaxApproxCount())) {
-			reachTh = Options.getReachabilityThreshold();
+			(!terminateModelCheck(resultsMinMax[0].getResult(), resultsMinMax[1].getResult(), options.getProbErrorWindow()) && numRefineIteration < options.getMaxApproxCount())) {
+			reachTh = context.getReachabilityThreshold();
 			if (!(expr instanceof ExpressionTemporal)) {
 				continue;
 			}
+			context.getStatistics().startRefinement(propName, reachTh);
 			ExpressionTemporal exprTemp = (ExpressionTemporal) expr.deepCopy();
 
 			if (exprTemp.isPathFormula(false) && exprTemp.getOperator() == ExpressionTemporal.P_U) {
-				if (!Options.getNoPropRefine()) {
+				if (!options.getNoPropRefine()) {
 					infModelGen.setPropertyExpression(exprTemp);
 				}
-				switchToCombinedCTMC = !Options.getNoPropRefine();
+				switchToCombinedCTMC = !options.getNoPropRefine();
 			}
 
 			// Approximation Step
 			StaminaLog.header("Approximation [" + (numRefineIteration + 1) + "] : kappa = " + reachTh);
 			infModelGen.setReachabilityThreshold(reachTh);
 			if (switchToCombinedCTMC) {
-				// Explicitely invoke model build
-				if (Options.getImportModel()) {
-					importModel();
+				explicit.Model builtModel;
+				boolean hasAbsorbing;
+				SparseCTMC truncatedModel = null;
+				truncatedModel = buildTruncatedModel();
+				if (truncatedModel != null) {
+					builtModel = truncatedModelToExplicit(truncatedModel);
+					hasAbsorbing = truncatedModel.hasAbsorbingState();
 				}
-				super.buildModel();
-				if (Options.getExportModel()) {
-					exportModel(propertiesFile);
+				else {
+					// Explicitely invoke model build
+					if (options.getImportModel()) {
+						importModel();
+					}
+					buildModelWithPRISM();
+					if (options.getExportModel()) {
+						exportModel(propertiesFile);
+					}
+					builtModel = super.getBuiltModelExplicit();
+					hasAbsorbing = infModelGen.finalModelHasAbsorbing();
 				}
 
 				// model check operands first for all states
 				explicit.CTMCModelChecker mcCTMC = new CTMCModelChecker(this);
-				BitSet b2 = mcCTMC.checkExpression(super.getBuiltModelExplicit(), exprTemp.getOperand2(), null).getBitSet();
+				BitSet b2 = mcCTMC.checkExpression(builtModel, exprTemp.getOperand2(), null).getBitSet();
 
 				// lower bound is 0 if not specified
 				// (i.e. if until is of form U<=t)
@@ -241,7 +720,33 @@ public class StaminaModelChecker extends Prism {
 				timer = System.currentTimeMillis();
 
 				// run transient analysis
-				explicit.StateValues probsExpl = mcCTMC.doTransient((CTMC) super.getBuiltModelExplicit(), uTime);
+				explicit.StateValues probsExpl;
+				StaminaEvents.TransientSolveEvent event = new StaminaEvents.TransientSolveEvent();
+				event.begin();
+				if (options.getNativeTransientEngine() && truncatedModel != null) {
+					if (transientSolver == null) {
+						transientSolver = new UniformisationSolver(options.getNumThreads() > 1 ? infModelGen.getExplorationPool() : null);
+					}
+					double[] probs = transientSolver.computeTransientProbs(truncatedModel, uTime, options.getTransientAccuracy());
+					StaminaLog.log("Uniformisation: " + transientSolver.getLastIterations() + " iterations");
+					probsExpl = explicit.StateValues.createFromDoubleArray(probs, builtModel);
+					event.engine = "stamina";
+					event.iterations = transientSolver.getLastIterations();
+				}
+				else {
+					if (options.getNativeTransientEngine()) {
+						StaminaLog.warning("The model was built by PRISM, so PRISM's transient analysis is used");
+					}
+					probsExpl = mcCTMC.doTransient((CTMC) builtModel, uTime);
+					event.engine = "prism";
+					event.iterations = -1;
+				}
+				event.end();
+				if (event.shouldCommit()) {
+					event.states = builtModel.getNumStates();
+					event.timeBound = uTime;
+					event.commit();
+				}
 
 				double ansMin = 0.0;
 				double ansMax;
@@ -249,8 +754,8 @@ public class StaminaModelChecker extends Prism {
 				// Check if the model has an abosrbing state (i.e. not all are generated)
 				// If it it does, it will be the first state and we don't want to add it to
 				// ansMin, so we start the for loop and i=1
-				if (infModelGen.finalModelHasAbsorbing()) {
-					for(int i=1; i<super.getBuiltModelExplicit().getNumStates(); ++i) {
+				if (hasAbsorbing) {
+					for(int i=1; i<builtModel.getNumStates(); ++i) {
 						if (b2.get(i)) { ansMin += (double) probsExpl.getValue(i); }
 					}
 
@@ -258,7 +763,7 @@ public class StaminaModelChecker extends Prism {
 					ansMax = ansMax > 1 ? 1.0 : ansMax;
 				}
 				else {
-					for(int i=0; i<super.getBuiltModelExplicit().getNumStates(); ++i) {
+					for(int i=0; i<builtModel.getNumStates(); ++i) {
 						if (b2.get(i)) { ansMin += (double) probsExpl.getValue(i); }
 					}
 					// If there is no absorbing state, we know the solution exactly.
@@ -266,6 +771,7 @@ public class StaminaModelChecker extends Prism {
 				}
 
 				timer = System.currentTimeMillis() - timer;
+				context.getStatistics().addCheckTime(timer);
 				StaminaLog.log("Time for model checking: " + timer / 1000.0 + " seconds.");
 
 				// set results
@@ -280,12 +786,17 @@ public class StaminaModelChecker extends Prism {
 
 				// Print result to log
 				StaminaLog.log("Result: " + resultsMinMax[1].getResultString());
-				writeResults(resultsMinMax); // TODO: allow this to turn off
+				context.getStatistics().setBounds(ansMin, ansMax);
+				writeResults(resultsMinMax);
+			}
+			else if (options.getDualBound() && canCheckDualBound((ExpressionProb) exprProp, exprTemp)) {
+				checkDualBound(propertiesFile, propName, exprTemp, resultsMinMax);
 			}
 			else {
 				// Explicitely invoke model build
-				super.buildModel();
+				buildModelWithPRISM();
 
+				timer = System.currentTimeMillis();
 				StaminaLog.endSection();
 				StaminaLog.log("Verifying Lower Bound for " + prop_min.getName() + "...");
 				resultsMinMax[0] = super.modelCheck(propertiesFile, prop_min);
@@ -293,9 +804,11 @@ public class StaminaModelChecker extends Prism {
 				StaminaLog.endSection();
 				StaminaLog.log("Verifying Upper Bound for " + prop_max.getName() + "...");
 				resultsMinMax[1] = super.modelCheck(propertiesFile, prop_max);
-				writeResults(resultsMinMax); // TODO: allow this to turn off
+				context.getStatistics().addCheckTime(System.currentTimeMillis() - timer);
+				context.getStatistics().setBounds((Double) resultsMinMax[0].getResult(), (Double) resultsMinMax[1].getResult());
+				writeResults(resultsMinMax);
 
-				if (Options.getExportModel()) {
+				if (options.getExportModel()) {
 					exportModel(propertiesFile);
 				}
 			}
@@ -305,27 +818,28 @@ public class StaminaModelChecker extends Prism {
 			// If we are way off, our estimate is further off than we want, so we update
 			// the misprediction factor in proportion to our percentage off.
 			// Here we multiply the percentoff by four but cap it at 100. Both 4 and 100 were determined heuristically through testing.
-			double percentOff = 4 * ((Double) resultsMinMax[1].getResult() - (Double) resultsMinMax[0].getResult()) / Options.getProbErrorWindow();
+			double percentOff = 4 * ((Double) resultsMinMax[1].getResult() - (Double) resultsMinMax[0].getResult()) / options.getProbErrorWindow();
 			if (percentOff > 100) {
 				percentOff = 100;
 			}
-			Options.setMispredictionFactor(Options.getMispredictionFactor() * percentOff);
+			context.setMispredictionFactor(context.getMispredictionFactor() * percentOff);
 
 			// increment refinement count
-			if (Options.getExportPerimeterStates()) {
+			if (options.getExportPerimeterStates()) {
 				exportPerimeterStates(infModelGen, numRefineIteration);
 			}
 			infModelGen.clearPerimeterStatesVector();
 			++numRefineIteration;
+			context.getStatistics().endRefinement();
 		}
 
 
 		// Print the final result
 		StaminaLog.logResult(prop.toString(), resultsMinMax[0].getResultString(), resultsMinMax[1].getResultString());
 
-		if (Options.getExportTransitionsToFile() != null) {
+		if (options.getExportTransitionsToFile() != null) {
 			StaminaLog.log("\n\nExporting transition list...");
-			printTransitionActions(infModelGen, Options.getExportTransitionsToFile());
+			printTransitionActions(infModelGen, options.getExportTransitionsToFile());
 			StaminaLog.log("Export Complete");
 		}
 
@@ -339,91 +853,57 @@ public class StaminaModelChecker extends Prism {
 	 * @throws PrismException
 	 */
 	private void printTransitionActions(StaminaModelGenerator modelGen, String exportFileName) throws PrismException{
-
 		// Stamina naturally sorts states in the order it encounters them, but PRISM prints out transitions
 		// sorted in the natural ordering of their variable values. So, we need to sort the states the same
 		// was as PRISM before printing them out to be consistent.
-		HashMap<State, ProbState> globalStateSet = modelGen.getGlobalStateSet();
-		TreeSet<State> sortedStates = new TreeSet<State>(globalStateSet.keySet());
-		if (modelGen.finalModelHasAbsorbing()) {
-			sortedStates.add(modelGen.getAbsorbingState());
-		}
-		HashMap<State, Integer> stateIndex = new HashMap<State,Integer>();
-
-		// This loops gets the indexes that PRISM would use
-		int spot = 0;
-		for (State sortState : sortedStates) {
-			stateIndex.put(sortState, spot);
-			spot++;
-		}
-
 		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(exportFileName));
-
-			for (State exploredState : sortedStates) {
-				modelGen.exploreState(exploredState);
-				// Look at each outgoing choice in turn
-				int nc = modelGen.getNumChoices();
-				TreeMap<State, ArrayList<Integer>> sortedTrans = new TreeMap<State, ArrayList<Integer>>(sortedStates.comparator());
-				for (int i = 0; i < nc; i++) {
-					// Look at each transition in the choice
-					int nt = modelGen.getNumTransitions(i);
-					for (int j = 0; j < nt; j++) {
-						State stateNew = modelGen.computeTransitionTarget(i, j);
-						ArrayList<Integer> currentList = sortedTrans.get(stateNew);
-						if (currentList == null) {
-							currentList = new ArrayList<Integer>();
-
-						}
-						// This is a single list where the even elements are the choices and the odd
-						// elements are the transitions. This keeps track of the transitions in the
-						// order that PRISM would use.
-						currentList.add(i);
-						currentList.add(j);
-
-						sortedTrans.put(stateNew, currentList);
-					}
-				}
-
-				// Print out the sorted list of transitions
-				while(!sortedTrans.isEmpty()) {
-					Map.Entry<State, ArrayList<Integer>> mapping = sortedTrans.pollFirstEntry();
-					State stateNew = mapping.getKey();
-					ArrayList<Integer> indexList = mapping.getValue();
-					int size = indexList.size() / 2;
-					for (int k = 0; k < size; k++) {
-						// Get the next choice transition combination from the list
-						int i = indexList.get(2*k);
-						int j = indexList.get(2*k + 1);
-
-						out.write(stateIndex.get(exploredState) + " " + stateIndex.get(stateNew) + " " + PrismUtils.formatDouble(modelGen.getTransitionProbability(i,j)) + " " + modelGen.getTransitionAction(i,j));
-						out.newLine();
-					}
-				}
+			StaminaEvents.ExportEvent event = new StaminaEvents.ExportEvent();
+			event.begin();
+			new TransitionExporter(modelGen).export(exportFileName);
+			event.end();
+			if (event.shouldCommit()) {
+				event.kind = "transitions";
+				event.file = exportFileName;
+				event.states = modelGen.getGlobalStateSet().size();
+				event.bytes = new File(exportFileName).length();
+				event.commit();
 			}
-			out.close();
 		}
-		catch (Exception e) {
+		catch (IOException e) {
 			StaminaLog.error("An error occurred creating the transition file");
 			e.printStackTrace();
 		}
 	}
 
 	private void exportModel(PropertiesFile propertiesFile) throws PrismException {
+		if (options.getBinaryModel()) {
+			StaminaLog.warning("The model was built by PRISM, so it is exported in PRISM's format");
+		}
 		try {
-			int exportType = Options.getMrmc() ? Prism.EXPORT_MRMC : Prism.EXPORT_PLAIN;
-			String suffix = Options.getMrmc() ? ".mrmc" : "";
-			String exportFilename = Options.getExportFileName();
+			int exportType = options.getMrmc() ? Prism.EXPORT_MRMC : Prism.EXPORT_PLAIN;
+			String suffix = options.getMrmc() ? ".mrmc" : "";
+			String exportFilename = options.getExportFileName();
 			String transFile = exportFilename + ".tra" + suffix;
 			String stateRewardsFile = exportFilename + "srew" + suffix;
 			String transRewardsFile = exportFilename + ".trew" + suffix;
 			String statesFile = exportFilename + ".sta" + suffix;
 			String labelsFile = exportFilename + ".lab" + suffix;
+			StaminaEvents.ExportEvent event = new StaminaEvents.ExportEvent();
+			event.begin();
 			super.exportTransToFile(true, exportType, new File(transFile));
 			super.exportStateRewardsToFile(exportType, new File (stateRewardsFile));
 			super.exportTransRewardsToFile(true, exportType, new File(transRewardsFile));
 			super.exportStatesToFile(exportType, new File(statesFile));
 			super.exportLabelsToFile(propertiesFile, exportType, new File(labelsFile));
+			event.end();
+			if (event.shouldCommit()) {
+				event.kind = "prism model";
+				event.file = exportFilename;
+				for (String file : new String[] { transFile, stateRewardsFile, transRewardsFile, statesFile, labelsFile }) {
+					event.bytes += new File(file).length();
+				}
+				event.commit();
+			}
 		} catch (FileNotFoundException e) {
 			// throw e;
 			throw new PrismException("Cannot open file for exporting " + e.toString());
@@ -433,9 +913,12 @@ public class StaminaModelChecker extends Prism {
 	}
 
 	private void importModel() throws PrismException {
+		if (options.getBinaryModel()) {
+			throw new PrismException("Models in the binary format can only be imported for until and eventually properties");
+		}
 		File sf = null, lf = null, srf = null, mf = null;
 		try {
-			String filename = Options.getImportFileName();
+			String filename = options.getImportFileName();
 			String transFile = filename + ".tra";
 			String stateRewardsFile = filename + "srew";
 			String transRewardsFile = filename + ".trew";
@@ -453,15 +936,23 @@ public class StaminaModelChecker extends Prism {
 		}
 	}
 
+	/**
+	 * Writes the bounds of a property to the results file, unless it is turned off.
+	 * @param results The lower and upper bound.
+	 * @throws PrismException If there aren't two results.
+	 */
 	private void writeResults(Result[] results) throws PrismException {
 		if (results.length != 2) {
 			throw new PrismException("Should have two results! Min and Max!");
 		}
-		String filename = "results.txt";
+		String filename = options.getResultsFileName();
+		if (filename == null) {
+			return;
+		}
 		try {
 			File file = new File(filename);
 			file.delete();
-			FileWriter writer = new FileWriter("results.txt");
+			FileWriter writer = new FileWriter(file);
 			writer.write(results[0].toString());
 			writer.write("\r\n");
 			writer.write(results[1].toString());
@@ -474,7 +965,7 @@ public class StaminaModelChecker extends Prism {
 
 	private void exportPerimeterStates(StaminaModelGenerator infModelGen, int numRefineIteration) throws PrismException {
 		try {
-			FileWriter writer = new FileWriter(Options.getExportPerimeterFilename(), true);
+			FileWriter writer = new FileWriter(options.getExportPerimeterFilename(), true);
 			Vector<String> values = infModelGen.getPerimeterStatesVector();
 			writer.write("Iteration: " + Integer.toString(numRefineIteration) + "\r\n");
 			for (int i = 0; i < infModelGen.getNumVars(); ++i) {
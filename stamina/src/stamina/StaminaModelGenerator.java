@@ -1,6 +1,12 @@
 package stamina;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import explicit.IndexedSet;
 import explicit.StateStorage;
 import parser.State;
@@ -36,6 +42,8 @@ public class StaminaModelGenerator implements ModelGenerator
 	private State exploreState;
 	// Updater object for model
 	protected Updater updater;
+	// The model's commands compiled for exploration, or null if they are interpreted by the updater
+	private CompiledCommands compiledCommands = null;
 	// List of currently available transitions
 	protected TransitionList transitionList;
 	// Has the transition list been built?
@@ -44,8 +52,15 @@ public class StaminaModelGenerator implements ModelGenerator
 	// Reachability threshold
 	private double reachabilityThreshold = 1.0e-6;
 
+	// The options of the run, and the state of the run shared with the model checker
+	private final Options options;
+	private final RunContext context;
+
 	//private TreeMap<ProbState, Integer> globalStateSet = null;
-	private HashMap<State, ProbState> globalStateSet = null;
+	private PackedStateIndex globalStateSet = null;
+
+	// Worker threads for multi-threaded exploration (created on first use)
+	private ForkJoinPool explorationPool = null;
 
 	// Absorbing state
 	private State absorbingState = null;
@@ -57,6 +72,37 @@ public class StaminaModelGenerator implements ModelGenerator
 	// Temporal expression
 	ExpressionTemporal propertyExpression = null;
 
+	// Whether the current exploration only restarts from states holding reachability
+	private boolean incrementalRefinement = false;
+
+	// Priority queue for best-first exploration, kept to reuse its arrays
+	private IndexedMaxHeap bestFirstQueue = null;
+
+	// How many states are visited between updates of the monitor's frontier, less one
+	private static final int MONITOR_INTERVAL_MASK = 0x3FF;
+
+	// States expanded and their transitions, for the exploration metrics (added to by several threads)
+	private final LongAdder statesExpanded = new LongAdder();
+	private final LongAdder transitionsGenerated = new LongAdder();
+
+	// Cache of the transitions of expanded states, or null if disabled
+	private TransitionCache transitionCache = null;
+
+	// Records the rows of expanded states when the truncated CTMC is built directly (else null)
+	private SparseCTMCBuilder modelBuilder = null;
+
+	// Least time between snapshots of the state space written during an exploration, in milliseconds
+	private static final long SNAPSHOT_INTERVAL = 60000;
+	// When the last snapshot was written
+	private long lastSnapshotTime = 0;
+
+	// The model constants that only affect rates (computed when first needed), whether the
+	// last change of constants was only to those, and whether the reachability estimate has
+	// to be propagated again from the initial state
+	private Set<String> rateOnlyConstants = null;
+	private boolean ratesOnlyChanged = false;
+	private boolean restartReachability = false;
+
 	/**
 	 * Build a ModulesFileModelGenerator for a particular PRISM model, represented by a ModuleFile instance.
 	 * @param modulesFile The PRISM model
@@ -70,7 +116,19 @@ public class StaminaModelGenerator implements ModelGenerator
 	 * @param modulesFile The PRISM model
 	 */
 	public StaminaModelGenerator(ModulesFile modulesFile, PrismComponent parent) throws PrismException {
+		this(modulesFile, parent, Options.builder().build(), null);
+	}
+
+	/**
+	 * Build a ModulesFileModelGenerator for a particular PRISM model, represented by a ModuleFile instance.
+	 * @param modulesFile The PRISM model
+	 * @param options The options of the run.
+	 * @param context The state of the run that changes between refinements, or null for a new one.
+	 */
+	public StaminaModelGenerator(ModulesFile modulesFile, PrismComponent parent, Options options, RunContext context) throws PrismException {
 		this.parent = parent;
+		this.options = options;
+		this.context = context != null ? context : new RunContext(options);
 
 		// No support for PTAs yet
 		if (modulesFile.getModelType() == ModelType.PTA) {
@@ -95,7 +153,6 @@ public class StaminaModelGenerator implements ModelGenerator
 		//Other init//
 
 		//globalStateSet = new TreeMap<ProbState, Integer>();
-		globalStateSet = new HashMap<State, ProbState>();
 
 		// Add Absorbing state if there is one, otherwise add state a with all variable -1
 		absorbingState = new State(varList.getNumVars());
@@ -151,9 +208,9 @@ public class StaminaModelGenerator implements ModelGenerator
 
 	/**
 	 * Gets the global state set.
-	 * @return A hash map containing all states in the global state set.
+	 * @return The index of all states in the global state set.
 	 */
-	public HashMap<State, ProbState> getGlobalStateSet() {
+	PackedStateIndex getGlobalStateSet() {
 		return globalStateSet;
 	}
 
@@ -162,20 +219,15 @@ public class StaminaModelGenerator implements ModelGenerator
 	 * @return a boolean value reflective of whether or not absorbing states exist in the final model.
 	 */
 	public boolean finalModelHasAbsorbing() {
-		for (ProbState ps : globalStateSet.values()) {
-			if (ps.isStateTerminal()) {
-				return true;
-			}
-		}
-		return false;
+		return globalStateSet.hasTerminal();
 	}
 
 	/**
 	 * (Re-)Initialise the class ready for model exploration
 	 * (can only be done once any constants needed have been provided)
-	 * @throws PrismLangException
+	 * @throws PrismException If the explored state space can't be re-rated for the new constants.
 	 */
-	private void initialise() throws PrismLangException {
+	private void initialise() throws PrismException {
 		// Evaluate constants on (a copy) of the modules file, insert constant values and optimize arithmetic expressions
 		modulesFile = (ModulesFile) modulesFile.deepCopy().replaceConstants(mfConstants).simplify();
 		try {
@@ -188,13 +240,84 @@ public class StaminaModelGenerator implements ModelGenerator
 			updater = new Updater(modulesFile, varList, this.getEvaluator(), parent);
 			transitionList = new TransitionList(this.getEvaluator());
 			transitionListBuilt = false;
+			compiledCommands = options.getCompileCommands() && modelType == ModelType.CTMC
+				? CompiledCommands.compile(modulesFile, varList) : null;
 		}
 		catch (PrismException e) {
 			// TODO: handle expression
 			System.out.println("error in initialise()");
+			return;
+		}
+
+		// The global state set is kept across constant changes, unless they change the variable ranges
+		boolean keptStates = globalStateSet != null && globalStateSet.fits(varList);
+		if (!keptStates) {
+			newGlobalStateSet();
+		}
+		if (keptStates && ratesOnlyChanged) {
+			// Only rates changed, so the explored graph still holds: re-rate what was
+			// cached and recorded, and propagate the reachability estimate again over it
+			reuseExploredStructure();
+		}
+		else {
+			// Cached transitions are only valid for the model as it was with the old constants
+			if (transitionCache != null) {
+				transitionCache.clear();
+			}
+			else if (options.getTransitionCacheSize() > 0) {
+				long budget = Math.min((long) options.getTransitionCacheSize() << 20, Runtime.getRuntime().maxMemory() / 4);
+				transitionCache = new TransitionCache(budget, options.getNumThreads() > 1);
+			}
+			// As are the rows recorded for building the truncated model
+			if (options.getDirectModelBuild()) {
+				modelBuilder = new SparseCTMCBuilder(globalStateSet);
+			}
 		}
 	}
 
+	/**
+	 * Replaces the global state set with an empty one for the current variables.
+	 */
+	private void newGlobalStateSet() {
+		if (globalStateSet != null) {
+			globalStateSet.close();
+		}
+		// Non-deterministic multi-threaded exploration inserts states from several threads at once
+		boolean concurrent = options.getNumThreads() > 1 && !options.getDeterministicExploration();
+		String storeDirectory = options.getMappedStateStoreDirectory();
+		globalStateSet = new PackedStateIndex(varList, concurrent, storeDirectory == null ? null : Paths.get(storeDirectory));
+	}
+
+	/**
+	 * Keeps the explored state space after a change of constants that only affects rates, and
+	 * evaluates the rates of the cached transitions and recorded rows again with the new
+	 * constants. The next {@link #doReachabilityAnalysis()} starts the reachability estimate
+	 * again from the initial state, so it is propagated over the existing truncation with the
+	 * new rates and only the parts of the perimeter that now hold enough of it are refined.
+	 * @throws PrismException
+	 */
+	private void reuseExploredStructure() throws PrismException {
+		final ModulesFileModelGenerator rateGen = new ModulesFileModelGenerator(modulesFile, parent);
+		int kept = 0;
+		if (transitionCache != null) {
+			kept = transitionCache.replaceAll(new TransitionCache.ExpansionUpdate() {
+				public StateExpansion apply(int id, StateExpansion expansion) throws PrismException {
+					State state = globalStateSet.getState(id);
+					return compiledCommands != null ? expansion.withNewRates(compiledCommands, state) : expansion.withNewRates(rateGen, state);
+				}
+			});
+		}
+		if (modelBuilder != null) {
+			modelBuilder.updateRates(rateGen, compiledCommands);
+		}
+		else if (options.getDirectModelBuild()) {
+			modelBuilder = new SparseCTMCBuilder(globalStateSet);
+		}
+		restartReachability = true;
+		StaminaLog.log("Only rate constants changed: reusing the " + globalStateSet.size() + " explored states ("
+			+ kept + " cached expansions re-rated)");
+	}
+
 	// Methods for ModelInfo interface
 	/**
 	 * Gets the model type
@@ -231,9 +354,18 @@ public class StaminaModelGenerator implements ModelGenerator
 		// with the concrete values in modulesFile, this ensures that we
 		// start again at a place where references to constants have not
 		// yet been replaced.
+		Values oldConstants = mfConstants;
 		modulesFile = (ModulesFile) originalModulesFile.deepCopy();
 		modulesFile.setSomeUndefinedConstants(someValues, exact);
 		mfConstants = modulesFile.getConstantValues();
+		// Whether the explored state space is still valid with the new values
+		ratesOnlyChanged = false;
+		if (oldConstants != null && globalStateSet != null) {
+			if (rateOnlyConstants == null) {
+				rateOnlyConstants = ConstantAnalysis.findRateOnlyConstants(originalModulesFile);
+			}
+			ratesOnlyChanged = ConstantAnalysis.onlyRatesChanged(oldConstants, mfConstants, rateOnlyConstants);
+		}
 		initialise();
 	}
 
@@ -586,10 +718,10 @@ public class StaminaModelGenerator implements ModelGenerator
 	public State computeTransitionTarget(int index, int offset) throws PrismException {
 		if (transitionListBuilt) {
 			State st = transitionList.getChoice(index).computeTarget(offset, exploreState, varList);
-			ProbState prbSt = globalStateSet.get(st);
-			if (globalStateSet.get(exploreState).isStateAbsorbing()) return exploreState;
+			int exploreId = globalStateSet.find(exploreState);
+			if (exploreId >= 0 && globalStateSet.isAbsorbing(exploreId)) return exploreState;
 			else {
-				if (prbSt == null) return absorbingState;
+				if (globalStateSet.find(st) < 0) return absorbingState;
 				else return st;
 			}
 		}
@@ -771,13 +903,139 @@ public class StaminaModelGenerator implements ModelGenerator
 		return expr;
 	}
 
+	/**
+	 * Gets the current reachability threshold (&kappa;) used by the exploration.
+	 * @return The reachability threshold.
+	 */
+	double getReachabilityThreshold() {
+		return reachabilityThreshold;
+	}
+
+	/**
+	 * Gets the property expression used for property-guided truncation, if any.
+	 * @return The property expression, or null if there is none.
+	 */
+	ExpressionTemporal getPropertyExpression() {
+		return propertyExpression;
+	}
+
+	/**
+	 * Checks whether the property-guided truncation makes a state absorbing, i.e., whether we
+	 * already know how the property evaluates in this state and so do not need its successors.
+	 * @param state The state to check.
+	 * @param prop The property expression (may be null, in which case no state is absorbing).
+	 * @return Whether the state should be made absorbing.
+	 * @throws PrismException
+	 */
+	boolean isPropertyAbsorbing(State state, ExpressionTemporal prop) throws PrismException {
+		if (prop == null) {
+			return false;
+		}
+		boolean b1 = (boolean) prop.getOperand1().evaluate(mfConstants, state);
+		boolean b2 = (boolean) prop.getOperand2().evaluate(mfConstants, state);
+		return !(b1 && (!b2));
+	}
+
+	/**
+	 * Visits a state taken from the front of the exploration queue: applies property-guided
+	 * truncation, and if the state is to be expanded, passes its reachability on to its
+	 * successors and queues any successors not yet queued with the current kappa.
+	 * @param curId The id of the state to visit.
+	 * @param expansion The precomputed transitions of the state, or null to compute them with {@code modelGen} if needed.
+	 * @param modelGen The generator used to expand the state if {@code expansion} is null.
+	 * @param exploredK The exploration queue. Successors are appended to it.
+	 * @throws PrismException
+	 */
+	void visitState(int curId, StateExpansion expansion, ModulesFileModelGenerator modelGen
+		, IntQueue exploredK) throws PrismException {
+		State curState = globalStateSet.getState(curId);
+		// This if block implements the property-guided state truncation
+		// If we already know how the property evaluates in this state, we don't
+		// need it's succesors, we just continue.
+		if (isPropertyAbsorbing(curState, propertyExpression)) {
+			globalStateSet.setAbsorbing(curId, true);
+			// perimeterStates.addElement(curProbState.toString());
+			globalStateSet.setTerminal(curId, false);
+			return;
+		}
+		double curStateReachability = globalStateSet.getReachability(curId);
+		// In incremental mode, states without reachability to pass on are not walked through
+		if (incrementalRefinement && curStateReachability == 0) {
+			return;
+		}
+
+		// If the state isn't terminal, we have explored it before, so we should again
+		// If not, only explore it if it's reachability is above the threshold
+		if (!globalStateSet.isTerminal(curId) || curStateReachability >= reachabilityThreshold) {
+			if (expansion == null) {
+				expansion = getCachedExpansion(curId);
+				if (expansion == null) {
+					expansion = expandState(modelGen, curState);
+				}
+			}
+			countExpansion(expansion.size());
+			//To save computation time, this first if statement simply adds all succesors
+			//if the reachability is 0, indicating we don't need to do any reachability
+			//computations
+			if (curStateReachability == 0) {
+				for (int k = 0; k < expansion.size(); k++) {
+					int nxtId = expansion.findSuccessor(k, globalStateSet);
+					if (nxtId >= 0 && globalStateSet.markQueued(nxtId)) {
+						exploredK.add(nxtId);
+					}
+				}
+			}
+			else {
+				// If we haven't seen a succesor state before, this adds it to the global state graph
+				cacheExpansion(curId, expansion.resolve(globalStateSet));
+				// Now we loop through the transitions to compute the reachabilities
+				// of the next states
+				for (int k = 0; k < expansion.size(); k++) {
+					int nxtId = expansion.successor(k);
+					double tranProb = expansion.rates[k] / expansion.exitRateSum;
+					double leavingProb = tranProb * curStateReachability;
+					globalStateSet.addToReachability(nxtId, leavingProb);
+					// These lines check if we have already explored this state IN THIS ITERATION
+					// i.e. with this kappa. If we haven't, we want to
+					if (globalStateSet.markQueued(nxtId)) {
+						exploredK.add(nxtId);
+					}
+				}
+			}
+			// Once we get to here, we have dispursed this state's reachability to all its
+			// succesors, so now it shouldn't have any. It has all moved on.
+			// Also, since it was explored, it is no longer a terminal state
+			globalStateSet.setReachability(curId, 0.0);
+			globalStateSet.setTerminal(curId, false);
+		}
+	}
+
+	/**
+	 * Gets the monitor of the run, which the exploration keeps up to date.
+	 * @return The monitor.
+	 */
+	StaminaMonitor getMonitor() {
+		return context.getMonitor();
+	}
+
+	/**
+	 * Counts a state whose transitions were gone through, for the exploration metrics.
+	 * @param numTransitions The number of transitions of the state.
+	 */
+	void countExpansion(int numTransitions) {
+		statesExpanded.increment();
+		transitionsGenerated.add(numTransitions);
+	}
+
 	/**
 	 * Does reachability analysis and truncates state space based on values of Kappa (&kappa;), and
 	 * its reduction factor. This method performs a breadth first search to find most of the probability
-	 * mass of the state space.
+	 * mass of the state space. If more than one exploration thread is configured, each search is
+	 * run by a {@link ParallelExplorer} instead.
 	 * @throws PrismException Does not support anything other than CTMCs.
 	 */
 	public void doReachabilityAnalysis() throws PrismException {
+		long explorationStart = System.currentTimeMillis();
 		// Model gen from file
 	 	ModulesFileModelGenerator modelGen = new ModulesFileModelGenerator(modulesFile, parent);
 
@@ -792,27 +1050,53 @@ public class StaminaModelGenerator implements ModelGenerator
 			throw new PrismNotSupportedException("Probabilistic model construction not supported for " + modelType + "s");
 		}
 
-		// statesK is the set states that have been explored with a particular kappa
-		HashSet<ProbState> statesK = new HashSet<ProbState>();
-		// exploredK is the exploration queue
-		LinkedList<ProbState> exploredK = new LinkedList<ProbState>();
+		// The states that have been queued with a particular kappa are marked in the
+		// global state set. exploredK is the exploration queue
+		IntQueue exploredK = new IntQueue();
+
+		// With a snapshot directory, a new exploration carries on from the snapshot of this state space
+		Path snapshotFile = null;
+		if (options.getSnapshotDirectory() != null) {
+			snapshotFile = StateSpaceSnapshot.fileFor(Paths.get(options.getSnapshotDirectory()), originalModulesFile, mfConstants, propertyExpression);
+			if (globalStateSet.size() == 0 && Files.exists(snapshotFile)) {
+				loadSnapshot(snapshotFile);
+			}
+			lastSnapshotTime = System.currentTimeMillis();
+		}
 
 		//Get initial state and set reach_prob
 		State initState = modelGen.getInitialState();
-		ProbState probInitState = null;
-		if (globalStateSet.containsKey(initState)) {
-			probInitState = globalStateSet.get(initState);
+		int initId = globalStateSet.find(initState);
+		if (restartReachability) {
+			// The rates changed since the estimate was made, so it flows again from the initial state
+			for (int id = 0; id < globalStateSet.size(); id++) {
+				globalStateSet.setReachability(id, 0.0);
+			}
+			if (initId >= 0) {
+				globalStateSet.setReachability(initId, 1.0);
+			}
+			restartReachability = false;
 		}
-		else {
-			probInitState = new ProbState(initState);
-			probInitState.setCurReachabilityProb(1.0);
+		if (initId < 0) {
 			// Add initial state(s) to 'explore', 'states' and to the model
-			globalStateSet.put(initState, probInitState);
+			initId = globalStateSet.findOrAdd(initState);
+			globalStateSet.setReachability(initId, 1.0);
 		}
-		// Add state to exploration queue
 
-		exploredK.add(probInitState);
-		statesK.add(probInitState);
+		// In incremental mode, each search starts from the states still holding reachability
+		// rather than walking the whole explored state space again from the initial state
+		incrementalRefinement = options.getIncrementalRefinement();
+		// With ranked transitions, each search is best-first rather than breadth first
+		boolean bestFirst = options.getRankTransitions();
+
+		// Multi-threaded exploration works on its own queues and per-worker generators
+		ParallelExplorer parallelExplorer = null;
+		if (bestFirst && options.getNumThreads() > 1) {
+			StaminaLog.warning("Best-first exploration (rankTransitions) uses a single thread");
+		}
+		else if (options.getNumThreads() > 1) {
+			parallelExplorer = new ParallelExplorer(this, modulesFile, getExplorationPool(), options.getDeterministicExploration());
+		}
 
 		// Start the exploration
 
@@ -821,166 +1105,360 @@ public class StaminaModelGenerator implements ModelGenerator
 		// Perim reachability is our estimate of Prob_max - Prob_min, it starts at 1 because we don't have any info
 		double perimReachability = 1;
 		// State Search
-		while(perimReachability >= Options.getProbErrorWindow()/Options.getMispredictionFactor()) {
-			while (!exploredK.isEmpty()) {
-				ProbState curProbState = exploredK.removeFirst();
-				//statesK.remove(curProbState);
-
-				// Explore all choices/transitions from this state
-				modelGen.exploreState(curProbState);
-				// This if block implements the property-guided state truncation
-				// If we already know how the property evaluates in this state, we don't
-				// need it's succesors, we just continue.
-				if (propertyExpression != null) {
-
-					ExpressionTemporal tempProp = (ExpressionTemporal) propertyExpression;
-
-					boolean b1 = (boolean) tempProp.getOperand1().evaluate(mfConstants, curProbState);
-					boolean b2 = (boolean) tempProp.getOperand2().evaluate(mfConstants, curProbState);
-
-					if (!(b1 && (!b2))) {
-						curProbState.setStateAbsorbing(true);
-						// perimeterStates.addElement(curProbState.toString());
-						curProbState.setStateTerminal(false);
-						continue;
-					}
+		while(perimReachability >= options.getProbErrorWindow()/context.getMispredictionFactor()) {
+			long sweepStart = System.currentTimeMillis();
+			StaminaEvents.SweepEvent sweepEvent = new StaminaEvents.SweepEvent();
+			sweepEvent.begin();
+			context.getMonitor().startSweep(reachabilityThreshold, globalStateSet);
+			long expandedBefore = statesExpanded.sum();
+			long transitionsBefore = transitionsGenerated.sum();
+			long probesBefore = globalStateSet.getProbes();
+			int sizeBefore = globalStateSet.size();
+			int expandedOnceBefore = sizeBefore - globalStateSet.countTerminal() - globalStateSet.countAbsorbing();
+			// Add the start state(s) to the exploration queue
+			globalStateSet.clearQueued();
+			if (incrementalRefinement || bestFirst) {
+				queueStatesWithReachability(exploredK);
+			}
+			else {
+				exploredK.add(initId);
+			}
+			if (bestFirst) {
+				sweepBestFirst(exploredK, modelGen, progress);
+			}
+			else if (parallelExplorer != null) {
+				for (int id : exploredK.toArray()) {
+					globalStateSet.markQueued(id);
 				}
-				double curStateReachability = curProbState.getCurReachabilityProb();
-
-				// If the state isn't terminal, we have explored it before, so we should again
-				// If not, only explore it if it's reachability is above the threshold
-				if (!curProbState.isStateTerminal() || curStateReachability >= reachabilityThreshold) {
-
-					//To save computation time, this first if statement simply adds all succesors
-					//if the reachability is 0, indicating we don't need to do any reachability
-					//computations
-					if (curStateReachability == 0) {
-						int nc = modelGen.getNumChoices();
-						for (int i = 0; i < nc; i++) {
-							// Look at each transition in the choice
-							int nt = modelGen.getNumTransitions(i);
-							for (int j = 0; j < nt; j++) {
-								State nxtSt = modelGen.computeTransitionTarget(i, j);
-								boolean stateIsExisting = globalStateSet.containsKey(nxtSt);
-								if (stateIsExisting) {
-									ProbState nxtProbState = globalStateSet.get(nxtSt);
-									if (statesK.add(nxtProbState)) {
-										exploredK.addLast(nxtProbState);
-									}
-								}
-							}
-						}
-					}
-					else {
-
-						double exitRateSum = 0.0;
-						//First we calcualte the sum of the exit rates to use in our probability computation
-						// Look at each outgoing choice in turn
-						int nc = modelGen.getNumChoices();
-						for (int i = 0; i < nc; i++) {
-							// Look at each transition in the choice
-							int nt = modelGen.getNumTransitions(i);
-							for (int j = 0; j < nt; j++) {
-								exitRateSum += ((Number) modelGen.getTransitionProbability(i, j)).doubleValue();
-							}
-						}
-						// Now we loop through the transitions again to compute the reachabilities
-						// of the next states
-						// Look at each outgoing choice in turn
-						for (int i = 0; i < nc; i++) {
-							// Look at each transition in the choice
-							int nt = modelGen.getNumTransitions(i);
-							for (int j = 0; j < nt; j++) {
-								State nxtSt = modelGen.computeTransitionTarget(i, j);
-
-								boolean stateIsExisting = globalStateSet.containsKey(nxtSt);
-								// If we have already added this succesor state to the stateset, we just
-								// update it's reachability
-								if (stateIsExisting) {
-									ProbState nxtProbState = globalStateSet.get(nxtSt);
-
-									double tranRate = ((Number) modelGen.getTransitionProbability(i, j)).doubleValue();
-									double tranProb = tranRate / exitRateSum;
-									double leavingProb = tranProb * curStateReachability;
-									nxtProbState.addToReachability(leavingProb);
-									// These lines check if we have already explored this state IN THIS ITERATION
-									// i.e. with this kappa. If we haven't, we want to
-									if (statesK.add(nxtProbState)) {
-										exploredK.addLast(nxtProbState);
-									}
-
-								}
-								// Else the state hasn't been seen, so we have to create a new ProbState
-								else {
-
-									ProbState nxtProbState = new ProbState(nxtSt);
-									double tranRate = ((Number) modelGen.getTransitionProbability(i, j)).doubleValue();
-									double tranProb = tranRate/exitRateSum;
-									double leavingProb = tranProb*curStateReachability;
-									nxtProbState.addToReachability(leavingProb);
-
-									// Update the global state graph
-									globalStateSet.put(nxtSt, nxtProbState);
-
-									// These lines check if we have already explored this state IN THIS ITERATION
-									// i.e. with this kappa. If we haven't, we want to
-									statesK.add(nxtProbState);
-									exploredK.addLast(nxtProbState);
-
-								}
-							}
-						}
-					}
-					// Once we get to here, we have dispursed this state's reachability to all its
-					// succesors, so now it shouldn't have any. It has all moved on.
-					// Also, since it was explored, it is no longer a terminal state
-					curProbState.setCurReachabilityProb(0.0);
-					curProbState.setStateTerminal(false);
+				parallelExplorer.sweep(exploredK.toArray(), modelGen, progress);
+			}
+			else {
+				for (int id : exploredK.toArray()) {
+					globalStateSet.markQueued(id);
 				}
+				int visits = 0;
+				while (!exploredK.isEmpty()) {
+					int curId = exploredK.removeFirst();
+
+					// Explore all choices/transitions from this state
+					visitState(curId, null, modelGen, exploredK);
 
-				// Print some progress info occasionally
-				progress.updateIfReady(globalStateSet.size() + 1);
+					// Print some progress info occasionally
+					progress.updateIfReady(globalStateSet.size() + 1);
+					if ((++visits & MONITOR_INTERVAL_MASK) == 0) {
+						context.getMonitor().setFrontierStates(exploredK.size());
+					}
+				}
 			}
 			// Here we reset our variables for another iteration with a different threshold, if needed
 			exploredK.clear();
-			statesK.clear();
-			// Note that we will start again from the initial state each time
-			// the threshold is reduced. This allows reachability to move around the
-			// graph more, getting the chance to flow to completion again each time the
-			// threshold is changed. We can't let it flow continuously though or there would
-			// be infinite loops. Giving it time to flow each iteration has worked the best so far.
-			exploredK.add(probInitState);
-			statesK.add(probInitState);
+			// Note that we will start again from the initial state (or, in incremental mode,
+			// from every state holding reachability) each time the threshold is reduced.
+			// This allows reachability to move around the graph more, getting the chance to
+			// flow to completion again each time the threshold is changed. We can't let it
+			// flow continuously though or there would be infinite loops. Giving it time to
+			// flow each iteration has worked the best so far.
 			// Calucalte our estimate of the perimeter reachability (Prob_max-Prob_min estimate)
 			// to determine if we should stop or keep going with a lower threshold
-			perimReachability = 0;
-			for (ProbState localSt: globalStateSet.values()) {
-
-				// To simplify the computation, we simply add the threshold for each perim state
-				// rather than their individual reachabilities, as the threshold is known to exceed
-				// their estimated reachability
-				if (localSt.isStateTerminal()) {
-					perimReachability += reachabilityThreshold;
-				}
-
+			// To simplify the computation, we simply add the threshold for each perim state
+			// rather than their individual reachabilities, as the threshold is known to exceed
+			// their estimated reachability
+			int perimeterStates = globalStateSet.countTerminal();
+			perimReachability = perimeterStates * reachabilityThreshold;
+
+			// States expanded for the first time went from terminal to neither terminal nor absorbing
+			long expanded = statesExpanded.sum() - expandedBefore;
+			int expandedOnce = globalStateSet.size() - perimeterStates - globalStateSet.countAbsorbing();
+			RunStatistics.Sweep sweep = new RunStatistics.Sweep(reachabilityThreshold
+				, System.currentTimeMillis() - sweepStart, expanded, Math.max(0, expanded - (expandedOnce - expandedOnceBefore))
+				, transitionsGenerated.sum() - transitionsBefore, globalStateSet.size() - sizeBefore
+				, globalStateSet.getProbes() - probesBefore, perimeterStates, globalStateSet.terminalReachability());
+			context.getStatistics().addSweep(sweep);
+			context.getMonitor().endSweep(perimeterStates, sweep.perimeterMass);
+			sweepEvent.end();
+			if (sweepEvent.shouldCommit()) {
+				sweepEvent.set(sweep, globalStateSet.size());
+				sweepEvent.commit();
 			}
 
 			// Reduce the threshold for the next iteration
-			reachabilityThreshold /= Options.getKappaReductionFactor();
+			reachabilityThreshold /= options.getKappaReductionFactor();
 
-			// TODO: Implement rank transitions
+			// Checkpoint long explorations every so often
+			if (snapshotFile != null && System.currentTimeMillis() - lastSnapshotTime >= SNAPSHOT_INTERVAL
+					&& perimReachability >= options.getProbErrorWindow()/context.getMispredictionFactor()) {
+				writeSnapshot(snapshotFile);
+			}
+		}
+		if (snapshotFile != null) {
+			writeSnapshot(snapshotFile);
 		}
 
 		// At this point in the loop, we want to update the globally accessible threshold
 		// to what we have modified it to locally.
-		Options.setReachabilityThreshold(reachabilityThreshold);
+		context.setReachabilityThreshold(reachabilityThreshold);
 
 		// Finish progress display
 		// progress.update(globalIterationCount);
 		progress.update(globalStateSet.size()+1);
 		progress.end(" states");
+		if (transitionCache != null) {
+			StaminaLog.log("Transition cache: " + transitionCache.getHits() + " hits, " + transitionCache.getMisses()
+				+ " misses, " + transitionCache.getEvictions() + " evictions, "
+				+ (transitionCache.getMemoryUsed() >> 20) + " MB used");
+		}
 		// reset proprty expression
 		propertyExpression = null;
 
+		context.getStatistics().addExploration(System.currentTimeMillis() - explorationStart, globalStateSet.size());
+	}
+
+	/**
+	 * Fills the empty global state set from a snapshot, and carries on with the reachability
+	 * threshold it was written with, if that is lower. A snapshot that can't be read is ignored.
+	 * @param snapshotFile The snapshot file.
+	 */
+	private void loadSnapshot(Path snapshotFile) {
+		try {
+			double kappa = StateSpaceSnapshot.read(snapshotFile, globalStateSet);
+			reachabilityThreshold = Math.min(reachabilityThreshold, kappa);
+			StaminaLog.log("Resuming from snapshot " + snapshotFile + ": " + globalStateSet.size()
+				+ " states, kappa = " + reachabilityThreshold);
+		}
+		catch (IOException | IllegalArgumentException e) {
+			StaminaLog.warning("Could not read snapshot " + snapshotFile + ", exploring from scratch: " + e.getMessage());
+			// It may have been partly read
+			newGlobalStateSet();
+			if (modelBuilder != null) {
+				modelBuilder = new SparseCTMCBuilder(globalStateSet);
+			}
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the global state set with the current reachability threshold. A
+	 * snapshot that can't be written only gives a warning.
+	 * @param snapshotFile The snapshot file.
+	 */
+	private void writeSnapshot(Path snapshotFile) {
+		StaminaEvents.ExportEvent event = new StaminaEvents.ExportEvent();
+		event.begin();
+		try {
+			StateSpaceSnapshot.write(snapshotFile, globalStateSet, reachabilityThreshold);
+			event.end();
+			if (event.shouldCommit()) {
+				event.kind = "snapshot";
+				event.file = snapshotFile.toString();
+				event.states = globalStateSet.size();
+				event.bytes = Files.size(snapshotFile);
+				event.commit();
+			}
+		}
+		catch (IOException e) {
+			StaminaLog.warning("Could not write snapshot " + snapshotFile + ": " + e.getMessage());
+		}
+		lastSnapshotTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Queues every state that holds reachability and is not absorbing, in id order, as the
+	 * starting points of an incremental or best-first search. These are the perimeter states
+	 * and any explored states that received reachability after they were last visited.
+	 * @param exploredK The exploration queue.
+	 */
+	private void queueStatesWithReachability(IntQueue exploredK) {
+		int n = globalStateSet.size();
+		for (int id = 0; id < n; id++) {
+			if (globalStateSet.getReachability(id) > 0 && !globalStateSet.isAbsorbing(id)) {
+				exploredK.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Best-first search with the current kappa, used when transitions are ranked. Rather than
+	 * going breadth first, the state holding the most reachability is always expanded next, so
+	 * the probability mass is followed where it is concentrated and fewer states are needed to
+	 * reach the probability window.
+	 *
+	 * As in the breadth first search, a state is expanded if it has been expanded before or its
+	 * reachability is at least kappa, and each state is expanded at most once per search (the
+	 * queued flag marks the states already expanded). Property-guided truncation is applied to
+	 * each state when it is reached, whether or not it is then expanded.
+	 * @param start The states to start from.
+	 * @param modelGen The generator used to expand states.
+	 * @param progress The progress display to update.
+	 * @throws PrismException
+	 */
+	private void sweepBestFirst(IntQueue start, ModulesFileModelGenerator modelGen, ProgressDisplay progress) throws PrismException {
+		if (bestFirstQueue == null) {
+			bestFirstQueue = new IndexedMaxHeap();
+		}
+		IndexedMaxHeap frontier = bestFirstQueue;
+		while (!start.isEmpty()) {
+			offerForExpansion(frontier, start.removeFirst());
+		}
+		int visits = 0;
+		while (!frontier.isEmpty()) {
+			if ((++visits & MONITOR_INTERVAL_MASK) == 0) {
+				context.getMonitor().setFrontierStates(frontier.size());
+			}
+			int curId = frontier.poll();
+			globalStateSet.markQueued(curId);
+			State curState = globalStateSet.getState(curId);
+			double curStateReachability = globalStateSet.getReachability(curId);
+			StateExpansion expansion = expand(curId, curState, modelGen);
+			countExpansion(expansion.size());
+			for (int k = 0; k < expansion.size(); k++) {
+				int nxtId = expansion.successor(k);
+				double tranProb = expansion.rates[k] / expansion.exitRateSum;
+				globalStateSet.addToReachability(nxtId, tranProb * curStateReachability);
+				offerForExpansion(frontier, nxtId);
+			}
+			globalStateSet.setReachability(curId, 0.0);
+			globalStateSet.setTerminal(curId, false);
+			progress.updateIfReady(globalStateSet.size() + 1);
+		}
+	}
+
+	/**
+	 * Puts a state in the best-first queue (or raises its priority there) if it should be
+	 * expanded with the current kappa and has not been already. A state not yet expanded is
+	 * first checked for property-guided truncation, as in {@link #visitState}, so states left
+	 * below kappa are made absorbing rather than left on the perimeter.
+	 * @throws PrismException
+	 */
+	private void offerForExpansion(IndexedMaxHeap frontier, int id) throws PrismException {
+		if (globalStateSet.isQueued(id) || globalStateSet.isAbsorbing(id)) {
+			return;
+		}
+		// States expanded before were checked then
+		if (propertyExpression != null && globalStateSet.isTerminal(id)
+			&& isPropertyAbsorbing(globalStateSet.getState(id), propertyExpression)) {
+			globalStateSet.setAbsorbing(id, true);
+			globalStateSet.setTerminal(id, false);
+			return;
+		}
+		double reach = globalStateSet.getReachability(id);
+		if (reach > 0 && (!globalStateSet.isTerminal(id) || reach >= reachabilityThreshold)) {
+			frontier.put(id, reach);
+		}
+	}
+
+	/**
+	 * Gets the transitions of a state with a reachability to pass on, resolved to successor
+	 * ids, from the transition cache if possible.
+	 * @param id The id of the state.
+	 * @param state The state.
+	 * @param modelGen The generator used to expand the state if its transitions are not cached.
+	 * @return The resolved expansion.
+	 * @throws PrismException
+	 */
+	StateExpansion expand(int id, State state, ModelGenerator modelGen) throws PrismException {
+		StateExpansion expansion = getCachedExpansion(id);
+		if (expansion == null) {
+			expansion = expandState(modelGen, state).resolve(globalStateSet);
+			cacheExpansion(id, expansion);
+		}
+		return expansion;
+	}
+
+	/**
+	 * Finds the transitions of a state, with the compiled commands of the model if there are
+	 * any, otherwise with a model generator.
+	 * @param modelGen The generator used if the commands are not compiled. Its current state is changed.
+	 * @param state The state to expand.
+	 * @return The (unresolved) expansion of the state.
+	 * @throws PrismException
+	 */
+	StateExpansion expandState(ModelGenerator modelGen, State state) throws PrismException {
+		return compiledCommands != null ? compiledCommands.expand(state) : StateExpansion.of(modelGen, state);
+	}
+
+	/**
+	 * Gets the cached transitions of a state.
+	 * @param id The id of the state.
+	 * @return The resolved expansion, or null if it is not cached (or there is no cache).
+	 */
+	StateExpansion getCachedExpansion(int id) {
+		return transitionCache == null ? null : transitionCache.get(id);
+	}
+
+	/**
+	 * Adds the resolved transitions of a state to the transition cache, if there is one, and
+	 * records them as the state's row if the truncated model is built directly.
+	 */
+	private void cacheExpansion(int id, StateExpansion expansion) {
+		if (transitionCache != null) {
+			transitionCache.put(id, expansion);
+		}
+		if (modelBuilder != null) {
+			modelBuilder.recordRow(id, expansion);
+		}
+	}
+
+	/**
+	 * Brings the truncated CTMC up to date with the last {@link #doReachabilityAnalysis()}, directly
+	 * from the global state set and the recorded rows of the expanded states, instead of PRISM
+	 * exploring the model again through this generator. The model is kept between refinements,
+	 * and only the states and rows that changed are written.
+	 * @return The truncated CTMC.
+	 * @throws PrismException If direct model construction is not enabled.
+	 */
+	SparseCTMC buildTruncatedModel() throws PrismException {
+		if (modelBuilder == null) {
+			throw new PrismException("Direct model construction is not enabled");
+		}
+		ModulesFileModelGenerator modelGen = new ModulesFileModelGenerator(modulesFile, parent);
+		int initId = globalStateSet.find(modulesFile.getDefaultInitialState());
+		return modelBuilder.update(initId, absorbingState, modelGen, compiledCommands);
+	}
+
+	/**
+	 * Gets the labels of the model, with constants replaced by their values.
+	 * @return The label list.
+	 */
+	LabelList getLabelList() {
+		return labelList;
+	}
+
+	/**
+	 * Gets the cache of the transitions of expanded states.
+	 * @return The transition cache, or null if it is disabled.
+	 */
+	TransitionCache getTransitionCache() {
+		return transitionCache;
+	}
+
+	/**
+	 * Whether the current exploration is incremental, i.e., only passes on reachability from
+	 * states that hold some rather than walking the whole explored state space.
+	 * @return Whether exploration is incremental.
+	 */
+	boolean isIncrementalRefinement() {
+		return incrementalRefinement;
+	}
+
+	/**
+	 * Gets the thread pool used for multi-threaded exploration (and parallel transient analysis),
+	 * creating it the first time.
+	 * @return The exploration thread pool.
+	 */
+	ForkJoinPool getExplorationPool() {
+		if (explorationPool == null) {
+			explorationPool = new ForkJoinPool(options.getNumThreads());
+		}
+		return explorationPool;
+	}
+
+	/**
+	 * Shuts down the exploration thread pool, if it was created, so its threads (and the
+	 * copies of the model they keep) don't outlive the generator.
+	 */
+	void shutDown() {
+		if (explorationPool != null) {
+			explorationPool.shutdown();
+			explorationPool = null;
+		}
 	}
 }
@@ -0,0 +1,126 @@
+package stamina;
+
+/**
+ * The live values of a run, for monitoring a long exploration through JMX: the
+ * {@link StaminaModelChecker} registers its monitor as an MBean named
+ * {@code stamina:type=StaminaModelChecker,id=N}. The run updates the monitor as it goes (every
+ * value is volatile, as JMX reads them from its own threads) at points where it is cheap to:
+ * refinements and bounds from the {@link RunStatistics}, and kappa, the perimeter and the
+ * frontier from the exploration, every so many states. The number of explored states is read
+ * straight from the global state set.
+ */
+public class StaminaMonitor implements StaminaMonitorMBean {
+	private volatile String property = null;
+	private volatile int iteration = 0;
+	private volatile double kappa = Double.NaN;
+	private volatile PackedStateIndex stateSet = null;
+	private volatile int frontierStates = 0;
+	private volatile int perimeterStates = 0;
+	private volatile double perimeterMass = Double.NaN;
+	private volatile double lowerBound = Double.NaN;
+	private volatile double upperBound = Double.NaN;
+
+	// When the current sweep started, and the states explored then
+	private volatile long sweepStart = System.currentTimeMillis();
+	private volatile int statesAtSweepStart = 0;
+
+	/**
+	 * Marks the start of a refinement.
+	 * @param property The property (or properties) being checked.
+	 * @param iteration The number of the refinement, from 1.
+	 */
+	void startRefinement(String property, int iteration) {
+		this.property = property;
+		this.iteration = iteration;
+	}
+
+	/**
+	 * Marks the start of an exploration sweep.
+	 * @param kappa The reachability threshold of the sweep.
+	 * @param stateSet The global state set being explored.
+	 */
+	void startSweep(double kappa, PackedStateIndex stateSet) {
+		this.kappa = kappa;
+		this.stateSet = stateSet;
+		statesAtSweepStart = stateSet.size();
+		sweepStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records the end of an exploration sweep.
+	 * @param perimeterStates The number of perimeter states after the sweep.
+	 * @param perimeterMass The reachability held by the perimeter after the sweep.
+	 */
+	void endSweep(int perimeterStates, double perimeterMass) {
+		this.perimeterStates = perimeterStates;
+		this.perimeterMass = perimeterMass;
+		frontierStates = 0;
+	}
+
+	/**
+	 * Records the number of states queued for the current sweep.
+	 * @param n The number of states.
+	 */
+	void setFrontierStates(int n) {
+		frontierStates = n;
+	}
+
+	/**
+	 * Records the bounds last computed.
+	 * @param lower The lower bound.
+	 * @param upper The upper bound.
+	 */
+	void setBounds(double lower, double upper) {
+		lowerBound = lower;
+		upperBound = upper;
+	}
+
+	@Override
+	public String getProperty() {
+		return property;
+	}
+	@Override
+	public int getIteration() {
+		return iteration;
+	}
+	@Override
+	public double getKappa() {
+		return kappa;
+	}
+	@Override
+	public int getExploredStates() {
+		PackedStateIndex states = stateSet;
+		return states == null ? 0 : states.size();
+	}
+	@Override
+	public int getFrontierStates() {
+		return frontierStates;
+	}
+	@Override
+	public int getPerimeterStates() {
+		return perimeterStates;
+	}
+	@Override
+	public double getPerimeterMass() {
+		return perimeterMass;
+	}
+	@Override
+	public double getStatesPerSecond() {
+		long elapsed = System.currentTimeMillis() - sweepStart;
+		return elapsed <= 0 ? 0 : (getExploredStates() - statesAtSweepStart) * 1000.0 / elapsed;
+	}
+	@Override
+	public double getLowerBound() {
+		return lowerBound;
+	}
+	@Override
+	public double getUpperBound() {
+		return upperBound;
+	}
+	@Override
+	public long getHeapUsedPerState() {
+		int states = getExploredStates();
+		Runtime runtime = Runtime.getRuntime();
+		return states == 0 ? 0 : (runtime.totalMemory() - runtime.freeMemory()) / states;
+	}
+}
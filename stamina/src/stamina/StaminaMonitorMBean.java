@@ -0,0 +1,72 @@
+package stamina;
+
+/**
+ * The live values of a STAMINA run, as seen through JMX. See {@link StaminaMonitor}.
+ */
+public interface StaminaMonitorMBean {
+	/**
+	 * Gets the property (or properties) being checked.
+	 * @return The property, or null before the first refinement.
+	 */
+	String getProperty();
+
+	/**
+	 * Gets the number of the current refinement, from 1.
+	 * @return The refinement, or 0 before the first.
+	 */
+	int getIteration();
+
+	/**
+	 * Gets the reachability threshold (&kappa;) of the current exploration sweep.
+	 * @return The reachability threshold.
+	 */
+	double getKappa();
+
+	/**
+	 * Gets the number of states explored so far.
+	 * @return The number of states.
+	 */
+	int getExploredStates();
+
+	/**
+	 * Gets the number of states queued for the current sweep, and not visited yet.
+	 * @return The number of states, as of the last time the exploration published it.
+	 */
+	int getFrontierStates();
+
+	/**
+	 * Gets the number of perimeter (terminal) states after the last sweep.
+	 * @return The number of states.
+	 */
+	int getPerimeterStates();
+
+	/**
+	 * Gets the reachability held by the perimeter states after the last sweep.
+	 * @return The perimeter mass.
+	 */
+	double getPerimeterMass();
+
+	/**
+	 * Gets the rate new states have been found at in the current sweep.
+	 * @return The number of states added per second.
+	 */
+	double getStatesPerSecond();
+
+	/**
+	 * Gets the lower bound (Pmin) last computed.
+	 * @return The lower bound, or NaN if none has been computed yet.
+	 */
+	double getLowerBound();
+
+	/**
+	 * Gets the upper bound (Pmax) last computed.
+	 * @return The upper bound, or NaN if none has been computed yet.
+	 */
+	double getUpperBound();
+
+	/**
+	 * Gets the heap in use (by the whole JVM) per explored state.
+	 * @return The number of bytes per state, or 0 if there are no states yet.
+	 */
+	long getHeapUsedPerState();
+}
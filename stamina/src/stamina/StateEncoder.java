@@ -0,0 +1,247 @@
+package stamina;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.DeclarationBool;
+import parser.ast.DeclarationIntUnbounded;
+
+/**
+ * Packs the variable values of a state into one or more {@code long}s. Each variable gets as
+ * many bits as its declared range needs (one for a boolean), and variables are laid out from the
+ * most significant bit of the first word downwards, so comparing two encodings word by word as
+ * unsigned numbers orders them the same way as {@link State#compareTo(State)}.
+ *
+ * Unbounded integer variables start with a small width and a bias of half their range. When a
+ * value does not fit, {@link #widen(int, int)} gives a new encoder with that variable wide enough
+ * to hold it; encodings made with the old encoder have to be redone with the new one.
+ */
+class StateEncoder {
+	// Width unbounded variables start with
+	private static final int INITIAL_UNBOUNDED_WIDTH = 8;
+
+	private final int numVars;
+	// For each variable: whether it is boolean, its width in bits, which word it is in,
+	// the position of its lowest bit in that word, and the value encoded as zero
+	private final boolean[] isBool;
+	private final boolean[] isUnbounded;
+	private final int[] width;
+	private final int[] word;
+	private final int[] shift;
+	private final long[] offset;
+	private final int numWords;
+
+	/**
+	 * Creates an encoder for the variables of a model.
+	 * @param varList The variables of the model.
+	 */
+	StateEncoder(VarList varList) {
+		numVars = varList.getNumVars();
+		isBool = new boolean[numVars];
+		isUnbounded = new boolean[numVars];
+		width = new int[numVars];
+		offset = new long[numVars];
+		for (int i = 0; i < numVars; i++) {
+			if (varList.getDeclarationType(i) instanceof DeclarationBool) {
+				isBool[i] = true;
+				width[i] = 1;
+			}
+			else if (varList.getDeclarationType(i) instanceof DeclarationIntUnbounded) {
+				isUnbounded[i] = true;
+				width[i] = INITIAL_UNBOUNDED_WIDTH;
+				offset[i] = -(1L << (INITIAL_UNBOUNDED_WIDTH - 1));
+			}
+			else {
+				long range = (long) varList.getHigh(i) - varList.getLow(i);
+				width[i] = 64 - Long.numberOfLeadingZeros(range);
+				offset[i] = varList.getLow(i);
+			}
+		}
+		word = new int[numVars];
+		shift = new int[numVars];
+		numWords = layout();
+	}
+
+	/**
+	 * Copy constructor used when widening a variable.
+	 */
+	private StateEncoder(StateEncoder other, int var, int newWidth) {
+		numVars = other.numVars;
+		isBool = other.isBool;
+		isUnbounded = other.isUnbounded;
+		width = other.width.clone();
+		offset = other.offset.clone();
+		width[var] = newWidth;
+		offset[var] = -(1L << (newWidth - 1));
+		word = new int[numVars];
+		shift = new int[numVars];
+		numWords = layout();
+	}
+
+	/**
+	 * Assigns each variable a word and a position in it. A variable never straddles two words.
+	 * @return The number of words needed per state.
+	 */
+	private int layout() {
+		int w = 0;
+		int free = 64;
+		for (int i = 0; i < numVars; i++) {
+			if (width[i] > free) {
+				w++;
+				free = 64;
+			}
+			free -= width[i];
+			word[i] = w;
+			shift[i] = free;
+		}
+		return w + 1;
+	}
+
+	/**
+	 * Gets the number of {@code long}s each encoded state takes.
+	 * @return The number of words per state.
+	 */
+	int getNumWords() {
+		return numWords;
+	}
+
+	/**
+	 * Gets the number of variables of each state.
+	 * @return The number of variables.
+	 */
+	int getNumVars() {
+		return numVars;
+	}
+
+	/**
+	 * Gets the number of bits a variable is packed into.
+	 * @param var The index of the variable.
+	 * @return The width of the variable.
+	 */
+	int getWidth(int var) {
+		return width[var];
+	}
+
+	/**
+	 * Whether any variable is unbounded, i.e., whether this encoder may need to be widened.
+	 * @return Whether the layout can change.
+	 */
+	boolean isDynamic() {
+		for (int i = 0; i < numVars; i++) {
+			if (isUnbounded[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes a state.
+	 * @param state The state to encode.
+	 * @param key Array to write the encoding to, starting at {@code pos}.
+	 * @param pos Position in {@code key} to start at.
+	 * @return -1 on success, otherwise the index of a variable whose value does not fit.
+	 */
+	int encode(State state, long[] key, int pos) {
+		for (int w = 0; w < numWords; w++) {
+			key[pos + w] = 0L;
+		}
+		Object[] values = state.varValues;
+		for (int i = 0; i < numVars; i++) {
+			long bits;
+			if (isBool[i]) {
+				bits = ((Boolean) values[i]) ? 1L : 0L;
+			}
+			else {
+				bits = ((Integer) values[i]).longValue() - offset[i];
+				if (bits < 0 || (width[i] < 64 && bits >= (1L << width[i]))) {
+					if (isUnbounded[i]) {
+						return i;
+					}
+					throw new IllegalArgumentException("Value " + values[i] + " of variable " + i + " is outside its declared range");
+				}
+			}
+			key[pos + word[i]] |= bits << shift[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes a state.
+	 * @param key Array holding the encoding.
+	 * @param pos Position of the encoding in {@code key}.
+	 * @return The decoded state.
+	 */
+	State decode(long[] key, int pos) {
+		State state = new State(numVars);
+		for (int i = 0; i < numVars; i++) {
+			long bits = (key[pos + word[i]] >>> shift[i]) & mask(width[i]);
+			if (isBool[i]) {
+				state.setValue(i, bits != 0);
+			}
+			else {
+				state.setValue(i, (int) (bits + offset[i]));
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Whether a variable is unbounded, i.e., whether it can be widened.
+	 * @param var The index of the variable.
+	 * @return Whether the variable is unbounded.
+	 */
+	boolean isUnbounded(int var) {
+		return isUnbounded[var];
+	}
+
+	/**
+	 * Whether this encoder was made for variables with the same types and ranges as those in a
+	 * list, so states encoded with it are still valid for that list.
+	 * @param varList The variables to compare with.
+	 * @return Whether the variables match.
+	 */
+	boolean matches(VarList varList) {
+		if (varList.getNumVars() != numVars) {
+			return false;
+		}
+		StateEncoder other = new StateEncoder(varList);
+		for (int i = 0; i < numVars; i++) {
+			if (other.isBool[i] != isBool[i] || other.isUnbounded[i] != isUnbounded[i]) {
+				return false;
+			}
+			if (!isBool[i] && !isUnbounded[i] && (other.width[i] != width[i] || other.offset[i] != offset[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates an encoder in which an unbounded variable is wide enough to hold a value.
+	 * @param var The index of the unbounded variable.
+	 * @param value The value it needs to hold.
+	 * @return The new encoder.
+	 */
+	StateEncoder widen(int var, int value) {
+		int newWidth = width[var];
+		do {
+			newWidth *= 2;
+		} while (newWidth < 32 && (value < -(1L << (newWidth - 1)) || value >= (1L << (newWidth - 1))));
+		return new StateEncoder(this, var, Math.min(newWidth, 32));
+	}
+
+	/**
+	 * Creates an encoder in which an unbounded variable has a given width, e.g. to decode
+	 * states packed by an encoder that had been widened.
+	 * @param var The index of the unbounded variable.
+	 * @param newWidth The width, from 1 to 32.
+	 * @return The new encoder, or this one if the variable already has that width.
+	 */
+	StateEncoder withWidth(int var, int newWidth) {
+		return newWidth == width[var] ? this : new StateEncoder(this, var, newWidth);
+	}
+
+	private static long mask(int bits) {
+		return bits == 64 ? -1L : (1L << bits) - 1;
+	}
+}
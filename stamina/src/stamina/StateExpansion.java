@@ -0,0 +1,210 @@
+package stamina;
+
+import java.util.Arrays;
+
+import parser.State;
+import prism.ModelGenerator;
+import prism.PrismException;
+
+/**
+ * The outgoing transitions of a single state, flattened across all choices. Computing
+ * this is the expensive (but side-effect free) part of expanding a state, so it can be
+ * done ahead of time or on another thread.
+ *
+ * An expansion starts out with its successor states, and is then resolved to the ids of the
+ * successors in the global state set. Resolved expansions are what the {@link TransitionCache}
+ * keeps, so they only hold primitive arrays.
+ */
+class StateExpansion {
+	/** Successor states, in (choice, offset) order, until resolved */
+	private State[] targets;
+	/** Successor ids in the global state set, once resolved */
+	private int[] successors;
+	/** Rate of the transition to each successor */
+	final double[] rates;
+	/** Sum of all outgoing rates */
+	final double exitRateSum;
+
+	private StateExpansion(State[] targets, double[] rates, double exitRateSum) {
+		this.targets = targets;
+		this.rates = rates;
+		this.exitRateSum = exitRateSum;
+	}
+
+	private StateExpansion(State[] targets, int[] successors, double[] rates, double exitRateSum) {
+		this(targets, rates, exitRateSum);
+		this.successors = successors;
+	}
+
+	/**
+	 * Explores a state with a model generator and records all of its transitions.
+	 * Each transition rate is only asked for once.
+	 * @param modelGen The generator used to explore the state. Its current state is changed.
+	 * @param state The state to expand.
+	 * @return The (unresolved) expansion of the state.
+	 * @throws PrismException
+	 */
+	static StateExpansion of(ModelGenerator modelGen, State state) throws PrismException {
+		modelGen.exploreState(state);
+		int nc = modelGen.getNumChoices();
+		int size = 0;
+		for (int i = 0; i < nc; i++) {
+			size += modelGen.getNumTransitions(i);
+		}
+		State[] targets = new State[size];
+		double[] rates = new double[size];
+		double exitRateSum = 0.0;
+		int k = 0;
+		for (int i = 0; i < nc; i++) {
+			int nt = modelGen.getNumTransitions(i);
+			for (int j = 0; j < nt; j++) {
+				targets[k] = modelGen.computeTransitionTarget(i, j);
+				rates[k] = ((Number) modelGen.getTransitionProbability(i, j)).doubleValue();
+				exitRateSum += rates[k];
+				k++;
+			}
+		}
+		return new StateExpansion(targets, rates, exitRateSum);
+	}
+
+	/**
+	 * Makes the expansion of a state from transitions found some other way, e.g. by the
+	 * {@link CompiledCommands} of the model.
+	 * @param targets The successor states. Only the first {@code size} are used.
+	 * @param rates The rate of the transition to each successor.
+	 * @param size The number of transitions.
+	 * @return The (unresolved) expansion of the state.
+	 */
+	static StateExpansion of(State[] targets, double[] rates, int size) {
+		double exitRateSum = 0.0;
+		for (int k = 0; k < size; k++) {
+			exitRateSum += rates[k];
+		}
+		return new StateExpansion(Arrays.copyOf(targets, size), Arrays.copyOf(rates, size), exitRateSum);
+	}
+
+	/**
+	 * Makes the expansion of the same state after the model constants have changed in a way
+	 * that only affects rates (see {@link ConstantAnalysis}): the transitions and their targets
+	 * are the same, in the same order, so only the rates are asked for again.
+	 * @param modelGen The generator of the model with the new constants. Its current state is changed.
+	 * @param state The state this is the expansion of.
+	 * @return The expansion with the new rates, or null if it can't be made this way (the
+	 * state now has a different number of transitions).
+	 * @throws PrismException
+	 */
+	StateExpansion withNewRates(ModelGenerator modelGen, State state) throws PrismException {
+		modelGen.exploreState(state);
+		int nc = modelGen.getNumChoices();
+		double[] newRates = new double[rates.length];
+		double newExitRateSum = 0.0;
+		int k = 0;
+		for (int i = 0; i < nc; i++) {
+			int nt = modelGen.getNumTransitions(i);
+			if (k + nt > newRates.length) {
+				return null;
+			}
+			for (int j = 0; j < nt; j++) {
+				newRates[k] = ((Number) modelGen.getTransitionProbability(i, j)).doubleValue();
+				newExitRateSum += newRates[k];
+				k++;
+			}
+		}
+		if (k != newRates.length) {
+			return null;
+		}
+		return new StateExpansion(targets, successors, newRates, newExitRateSum);
+	}
+
+	/**
+	 * Makes the expansion of the same state after a change of constants that only affects rates,
+	 * like {@link #withNewRates(ModelGenerator, State)}, with the compiled commands of the model
+	 * with the new constants.
+	 * @param commands The compiled commands of the model with the new constants.
+	 * @param state The state this is the expansion of.
+	 * @return The expansion with the new rates, or null if it can't be made this way.
+	 * @throws PrismException
+	 */
+	StateExpansion withNewRates(CompiledCommands commands, State state) throws PrismException {
+		StateExpansion expansion = commands.expand(state);
+		if (expansion.rates.length != rates.length) {
+			return null;
+		}
+		return new StateExpansion(targets, successors, expansion.rates, expansion.exitRateSum);
+	}
+
+	/**
+	 * Looks up (adding if needed) each successor in the global state set, and drops the
+	 * successor states. Does nothing if already resolved.
+	 * @param index The global state set.
+	 * @return This expansion.
+	 */
+	StateExpansion resolve(PackedStateIndex index) {
+		if (successors == null) {
+			int[] ids = new int[targets.length];
+			for (int k = 0; k < ids.length; k++) {
+				ids[k] = index.findOrAdd(targets[k]);
+			}
+			successors = ids;
+			targets = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Looks up each successor in the global state set without adding any, and drops the
+	 * successor states. Successors not in the global state set get a given id instead. Does
+	 * nothing if already resolved.
+	 * @param index The global state set.
+	 * @param outside The id to use for successors not in the global state set.
+	 * @return This expansion.
+	 */
+	StateExpansion resolveWithin(PackedStateIndex index, int outside) {
+		if (successors == null) {
+			int[] ids = new int[targets.length];
+			for (int k = 0; k < ids.length; k++) {
+				int id = index.find(targets[k]);
+				ids[k] = id >= 0 ? id : outside;
+			}
+			successors = ids;
+			targets = null;
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the id of a successor. Only valid once resolved.
+	 * @param k The index of the transition.
+	 * @return The id of its target.
+	 */
+	int successor(int k) {
+		return successors[k];
+	}
+
+	/**
+	 * Gets the id of a successor without adding it to the global state set.
+	 * @param k The index of the transition.
+	 * @param index The global state set.
+	 * @return The id of its target, or -1 if the target is not in the global state set.
+	 */
+	int findSuccessor(int k, PackedStateIndex index) {
+		return successors != null ? successors[k] : index.find(targets[k]);
+	}
+
+	/**
+	 * Gets the number of outgoing transitions.
+	 * @return The number of transitions.
+	 */
+	int size() {
+		return rates.length;
+	}
+
+	/**
+	 * Estimates the heap memory used by a resolved expansion, for the transition cache.
+	 * @return The size in bytes.
+	 */
+	long memoryBytes() {
+		// Object header and fields, plus the two arrays with their headers
+		return 40 + 16 + 4L * rates.length + 16 + 8L * rates.length;
+	}
+}
@@ -0,0 +1,177 @@
+package stamina;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import parser.State;
+import parser.Values;
+import parser.ast.Expression;
+import parser.ast.ModulesFile;
+
+/**
+ * Binary snapshots of the explored state space, so an exploration can be checkpointed, and a
+ * later run (of the same model, constants and property) can carry on refining from where it
+ * got to rather than starting again from the initial state.
+ *
+ * A snapshot holds the states packed as by the {@link StateEncoder} of the global state set,
+ * their reachability, their terminal and absorbing flags, and the reachability threshold
+ * (&kappa;) the next search would use. It is written with a {@link ChannelOutput}, to a
+ * temporary file that then replaces the old snapshot, so a run that dies while writing leaves
+ * the previous snapshot intact, and read back with a {@link MappedInput}.
+ *
+ * The file is named after a hash of the model, the values of its constants and the property
+ * guiding the truncation, so a snapshot is only ever used for the state space it was made of.
+ */
+class StateSpaceSnapshot {
+	// "STAMSNAP"
+	private static final long MAGIC = 0x5354414D534E4150L;
+	private static final int VERSION = 1;
+
+	private StateSpaceSnapshot() {
+	}
+
+	/**
+	 * Gets the file the snapshot of a state space is kept in.
+	 * @param directory The directory snapshots are kept in.
+	 * @param modulesFile The model, before any constants are replaced by their values.
+	 * @param constants The values of the model constants, or null if there are none.
+	 * @param property The property guiding the truncation, or null if there is none.
+	 * @return The snapshot file, which may not exist yet.
+	 */
+	static Path fileFor(Path directory, ModulesFile modulesFile, Values constants, Expression property) {
+		String key = modulesFile + "\n" + (constants == null ? "" : constants.toString()) + "\n"
+			+ (property == null ? "" : property.toString());
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder name = new StringBuilder("stamina-");
+			for (int i = 0; i < 16; i++) {
+				name.append(String.format("%02x", digest[i]));
+			}
+			return directory.resolve(name.append(".snapshot").toString());
+		}
+		catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of a state space. Not to be called while states are being added.
+	 * @param file The snapshot file, which is replaced once the new snapshot is complete.
+	 * @param states The global state set.
+	 * @param kappa The reachability threshold the next search would use.
+	 * @throws IOException If the snapshot can't be written.
+	 */
+	static void write(Path file, PackedStateIndex states, double kappa) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		StateEncoder encoder = states.getEncoder();
+		int numStates = states.size();
+		int numWords = encoder.getNumWords();
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ChannelOutput out = new ChannelOutput(channel);
+			out.putLong(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(encoder.getNumVars());
+			for (int var = 0; var < encoder.getNumVars(); var++) {
+				out.putInt(encoder.getWidth(var));
+			}
+			out.putInt(numWords);
+			out.putInt(numStates);
+			out.putDouble(kappa);
+
+			long[] key = new long[numWords];
+			for (int id = 0; id < numStates; id++) {
+				states.readKey(id, key);
+				for (long word : key) {
+					out.putLong(word);
+				}
+			}
+			for (int id = 0; id < numStates; id++) {
+				out.putDouble(states.getReachability(id));
+			}
+			// The flags, 64 states to a word
+			for (int base = 0; base < numStates; base += 64) {
+				long terminal = 0L;
+				long absorbing = 0L;
+				for (int i = 0; i < 64 && base + i < numStates; i++) {
+					terminal |= states.isTerminal(base + i) ? 1L << i : 0L;
+					absorbing |= states.isAbsorbing(base + i) ? 1L << i : 0L;
+				}
+				out.putLong(terminal);
+				out.putLong(absorbing);
+			}
+			out.flush();
+			channel.force(false);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot into an empty global state set. The states get the ids they had when
+	 * the snapshot was written.
+	 * @param file The snapshot file.
+	 * @param states The empty global state set, made for the variables of the same model.
+	 * @return The reachability threshold the next search should use.
+	 * @throws IOException If the snapshot can't be read, or was not made for a model like this one.
+	 */
+	static double read(Path file, PackedStateIndex states) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedInput in = new MappedInput(channel, "Snapshot " + file);
+			if (in.getLong() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException("Not a state space snapshot: " + file);
+			}
+			StateEncoder encoder = states.getEncoder();
+			int numVars = in.getInt();
+			if (numVars != encoder.getNumVars()) {
+				throw new IOException("Snapshot " + file + " has " + numVars + " variables, the model " + encoder.getNumVars());
+			}
+			// Unbounded variables may have been widened by the time the snapshot was written
+			for (int var = 0; var < numVars; var++) {
+				int width = in.getInt();
+				if (encoder.isUnbounded(var)) {
+					encoder = encoder.withWidth(var, width);
+				}
+				else if (width != encoder.getWidth(var)) {
+					throw new IOException("Snapshot " + file + " does not match the variables of the model");
+				}
+			}
+			int numWords = in.getInt();
+			if (numWords != encoder.getNumWords()) {
+				throw new IOException("Snapshot " + file + " does not match the variables of the model");
+			}
+			int numStates = in.getInt();
+			double kappa = in.getDouble();
+
+			long[] key = new long[numWords];
+			for (int id = 0; id < numStates; id++) {
+				for (int w = 0; w < numWords; w++) {
+					key[w] = in.getLong();
+				}
+				State state = encoder.decode(key, 0);
+				if (states.findOrAdd(state) != id) {
+					throw new IOException("Snapshot " + file + " holds a state twice, or the state set was not empty");
+				}
+			}
+			for (int id = 0; id < numStates; id++) {
+				states.setReachability(id, in.getDouble());
+			}
+			for (int base = 0; base < numStates; base += 64) {
+				long terminal = in.getLong();
+				long absorbing = in.getLong();
+				for (int i = 0; i < 64 && base + i < numStates; i++) {
+					states.setTerminal(base + i, (terminal & (1L << i)) != 0);
+					states.setAbsorbing(base + i, (absorbing & (1L << i)) != 0);
+				}
+			}
+			return kappa;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package stamina;
+
+/**
+ * Storage behind a {@link PackedStateIndex}: the packed states and the per-state attribute
+ * columns, all indexed by state id. The index itself only keeps the hash table of ids.
+ *
+ * Ids are handed out densely from 0, and storage for an id must be made with
+ * {@link #allocate(int)} before it is used. When the store is created as concurrent, the
+ * reachability and flag updates must be atomic, as several exploration threads may work on
+ * the same state (or on states whose flags share a word) at once.
+ */
+interface StateStore {
+	/** Flag column: the state has not been expanded yet */
+	int TERMINAL = 0;
+	/** Flag column: the state was made absorbing by property-guided truncation */
+	int ABSORBING = 1;
+	/** Flag column: the state has been queued for exploration with the current kappa */
+	int QUEUED = 2;
+
+	/**
+	 * Rewrites packed states from one layout to another.
+	 */
+	interface KeyRewriter {
+		/**
+		 * Converts one packed state.
+		 * @param oldKey The state packed with the old layout.
+		 * @param newKey Array to write the state packed with the new layout to.
+		 */
+		void rewrite(long[] oldKey, long[] newKey);
+	}
+
+	/**
+	 * Makes sure there is storage for a state id. New states are terminal, with zero
+	 * reachability. Safe to call from several threads at once.
+	 * @param id The id of the state.
+	 */
+	void allocate(int id);
+
+	/**
+	 * Gets the number of {@code long}s each packed state takes.
+	 * @return The number of words per state.
+	 */
+	int getNumWords();
+
+	/**
+	 * Stores the packed form of a state.
+	 * @param id The id of the state.
+	 * @param key The packed state.
+	 */
+	void writeKey(int id, long[] key);
+
+	/**
+	 * Reads the packed form of a state.
+	 * @param id The id of the state.
+	 * @param key Array to read the packed state into.
+	 */
+	void readKey(int id, long[] key);
+
+	/**
+	 * Whether the packed form of a state equals a key.
+	 * @param id The id of the state.
+	 * @param key The packed key to compare with.
+	 * @return Whether they are equal.
+	 */
+	boolean keyEquals(int id, long[] key);
+
+	/**
+	 * Re-packs the first {@code count} states with a new number of words per state.
+	 * @param count The number of states stored.
+	 * @param newWords The number of words per state in the new layout.
+	 * @param rewriter Converts each state to the new layout.
+	 */
+	void rewriteKeys(int count, int newWords, KeyRewriter rewriter);
+
+	/**
+	 * Gets the current reachability probability of a state.
+	 * @param id The id of the state.
+	 * @return The reachability probability.
+	 */
+	double getReachability(int id);
+
+	/**
+	 * Sets the current reachability probability of a state.
+	 * @param id The id of the state.
+	 * @param reachProb The new reachability probability.
+	 */
+	void setReachability(int id, double reachProb);
+
+	/**
+	 * Sets the reachability probability of a state if it still has an expected value. Atomic
+	 * if the store is concurrent.
+	 * @param id The id of the state.
+	 * @param expected The value the reachability must have.
+	 * @param reachProb The new reachability probability.
+	 * @return Whether the reachability was set.
+	 */
+	boolean compareAndSetReachability(int id, double expected, double reachProb);
+
+	/**
+	 * Gets a flag of a state.
+	 * @param column The flag column ({@link #TERMINAL}, {@link #ABSORBING} or {@link #QUEUED}).
+	 * @param id The id of the state.
+	 * @return The value of the flag.
+	 */
+	boolean getFlag(int column, int id);
+
+	/**
+	 * Sets a flag of a state. Atomic if the store is concurrent.
+	 * @param column The flag column.
+	 * @param id The id of the state.
+	 * @param flag The new value of the flag.
+	 * @return The previous value of the flag.
+	 */
+	boolean setFlag(int column, int id, boolean flag);
+
+	/**
+	 * Gets 64 flags of a column at once, for scans. Bit {@code i} is the flag of state
+	 * {@code 64 * word + i}.
+	 * @param column The flag column.
+	 * @param word The index of the word.
+	 * @return The flags.
+	 */
+	long getFlagWord(int column, int word);
+
+	/**
+	 * Clears a flag of every state.
+	 * @param column The flag column.
+	 */
+	void clearFlags(int column);
+
+	/**
+	 * Releases the storage. The store can not be used afterwards.
+	 */
+	void close();
+}
@@ -0,0 +1,216 @@
+package stamina;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import parser.Values;
+import parser.ast.ModulesFile;
+import parser.ast.PropertiesFile;
+import prism.PrismException;
+import prism.Result;
+
+/**
+ * Runs the points of a constant sweep (constants given as ranges with {@code -const}) in
+ * parallel on a fixed number of threads. Each point is a value for the model constants, a
+ * property, and a value for the properties file constants, and is checked on its own
+ * {@link StaminaModelChecker}, with its own model, properties file and {@link RunContext}, so
+ * the points share nothing but the (immutable) {@link Options}. The points write no results
+ * file; their results are collected and printed as usual.
+ *
+ * A point only starts if there looks to be enough free heap for it, judged by the heap the
+ * points that have finished used, so several large explorations do not run out of memory
+ * together. At least one point always runs. The results are kept in the order the points
+ * were added, whatever order they finish in.
+ */
+class SweepExecutor {
+	// How long a point waiting for memory waits before looking again, in milliseconds
+	private static final long ADMISSION_WAIT = 1000;
+	// The margin on the memory the largest point so far used, for the next point
+	private static final double MEMORY_MARGIN = 1.5;
+
+	private final Options options;
+	private final int numThreads;
+	private final List<Point> points = new ArrayList<Point>();
+
+	// The points running, and the heap a point is expected to need, in bytes
+	private int running = 0;
+	private long memoryEstimate;
+	// Whether the estimate is from a finished point rather than a guess
+	private boolean measured = false;
+
+	/**
+	 * One point of the sweep, and its result once it has been checked.
+	 */
+	static final class Point {
+		final Values mfConstants;
+		final int property;
+		final Values pfConstants;
+		Object result = null;
+
+		Point(Values mfConstants, int property, Values pfConstants) {
+			this.mfConstants = mfConstants;
+			this.property = property;
+			this.pfConstants = pfConstants;
+		}
+	}
+
+	/**
+	 * Creates an executor with no points.
+	 * @param options The options every point is checked with.
+	 * @param numThreads The number of points checked at the same time.
+	 */
+	SweepExecutor(Options options, int numThreads) {
+		// Points running at the same time would overwrite each other's results file
+		this.options = options.toBuilder().setResultsFileName(null).build();
+		this.numThreads = numThreads;
+		// Until a point has finished, assume each can use its share of the heap
+		this.memoryEstimate = Runtime.getRuntime().maxMemory() / numThreads;
+	}
+
+	/**
+	 * Adds a point to the sweep.
+	 * @param mfConstants The values of the model constants.
+	 * @param property The index of the property in the properties file.
+	 * @param pfConstants The values of the properties file constants, or null if there are none.
+	 */
+	void addPoint(Values mfConstants, int property, Values pfConstants) {
+		points.add(new Point(mfConstants, property, pfConstants));
+	}
+
+	/**
+	 * Gets the number of points added.
+	 * @return The number of points.
+	 */
+	int getNumPoints() {
+		return points.size();
+	}
+
+	/**
+	 * Checks every point. The result of a point that fails is its exception, as when points
+	 * are checked one after another.
+	 * @return The points with their results, in the order they were added.
+	 * @throws PrismException If the sweep is interrupted.
+	 */
+	List<Point> run() throws PrismException {
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(points.size());
+			for (final Point point : points) {
+				futures.add(pool.submit(new Runnable() {
+					public void run() {
+						checkPoint(point);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PrismException("Constant sweep interrupted");
+		}
+		catch (ExecutionException e) {
+			throw new PrismException("Constant sweep failed: " + e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		return points;
+	}
+
+	/**
+	 * Waits for memory, then checks a point and stores its result.
+	 */
+	private void checkPoint(Point point) {
+		try {
+			admit();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			point.result = new PrismException("Constant sweep interrupted");
+			return;
+		}
+		try {
+			point.result = check(point);
+		}
+		finally {
+			release();
+		}
+	}
+
+	/**
+	 * Checks a point on a checker of its own.
+	 * @return The result, or the exception if checking failed.
+	 */
+	private Object check(Point point) {
+		StaminaModelChecker staminaMC = null;
+		try {
+			ModulesFile modulesFile;
+			// PRISM's own set-up is not safe to run on several threads at once
+			synchronized (SweepExecutor.class) {
+				staminaMC = new StaminaModelChecker(options);
+				modulesFile = staminaMC.parseModelFile(new File(options.getModelFileName()));
+				staminaMC.loadPRISMModel(modulesFile);
+				staminaMC.initialise();
+				staminaMC.applyPrismSettings();
+			}
+			staminaMC.setPRISMModelConstants(point.mfConstants);
+			PropertiesFile propertiesFile = staminaMC.parsePropertiesFile(modulesFile, new File(options.getPropertyFileName()));
+			if (point.pfConstants != null) {
+				propertiesFile.setSomeUndefinedConstants(point.pfConstants);
+			}
+			Result res = staminaMC.modelCheckStamina(propertiesFile, propertiesFile.getPropertyObject(point.property));
+			return res == null ? null : res.getResult();
+		}
+		catch (PrismException e) {
+			StaminaLog.log("\nError: " + e.getMessage() + ".");
+			return e;
+		}
+		catch (FileNotFoundException e) {
+			return new PrismException("Model or properties file did not exist.");
+		}
+		finally {
+			// Releases PRISM's state and the exploration threads, and unregisters the point's
+			// monitor, which would otherwise keep its state space reachable
+			if (staminaMC != null) {
+				staminaMC.closeDown();
+			}
+		}
+	}
+
+	/**
+	 * Waits until no point is running, or there is about enough free heap for another one.
+	 */
+	private synchronized void admit() throws InterruptedException {
+		while (running > 0 && freeHeap() < memoryEstimate) {
+			wait(ADMISSION_WAIT);
+		}
+		running++;
+	}
+
+	/**
+	 * Marks a point as finished, and updates the memory expected for a point from the heap in
+	 * use, shared between the points running.
+	 */
+	private synchronized void release() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		long perPoint = (long) (used / running * MEMORY_MARGIN);
+		memoryEstimate = Math.min(measured ? Math.max(memoryEstimate, perPoint) : perPoint, runtime.maxMemory());
+		measured = true;
+		running--;
+		notifyAll();
+	}
+
+	private static long freeHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+}
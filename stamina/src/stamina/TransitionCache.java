@@ -0,0 +1,332 @@
+package stamina;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import prism.PrismException;
+
+/**
+ * A memory-bounded cache of resolved {@link StateExpansion}s, keyed by state id, so states
+ * expanded again (every kappa iteration re-expands the explored states) do not have to go
+ * through the PRISM model generator again.
+ *
+ * The cache is split into stripes by id, each with its own lock, table and share of the
+ * memory budget. Each stripe maps ids to slots with an open-addressing table of primitive
+ * ints, and evicts with the CLOCK algorithm: every hit sets the slot's reference bit, and
+ * the clock hand clears reference bits until it finds a slot without one to evict.
+ */
+class TransitionCache {
+	private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * One part of the cache, holding the ids that map to it.
+	 */
+	private static final class Stripe {
+		final long budget;
+		long used = 0;
+		// Slots: the id, expansion and reference bit of each cached entry
+		int[] slotIds = new int[INITIAL_STRIPE_CAPACITY];
+		StateExpansion[] slotEntries = new StateExpansion[INITIAL_STRIPE_CAPACITY];
+		boolean[] referenced = new boolean[INITIAL_STRIPE_CAPACITY];
+		int slotsUsed = 0;
+		// Free slots below slotsUsed
+		int[] freeSlots = new int[INITIAL_STRIPE_CAPACITY];
+		int numFree = 0;
+		int hand = 0;
+		// Open-addressing table from id to slot + 1 (0 if empty)
+		int[] table = new int[INITIAL_STRIPE_CAPACITY * 2];
+		int count = 0;
+
+		Stripe(long budget) {
+			this.budget = budget;
+		}
+
+		int findSlot(int id) {
+			int mask = table.length - 1;
+			for (int i = mix(id) & mask; ; i = (i + 1) & mask) {
+				int entry = table[i];
+				if (entry == 0) {
+					return -1;
+				}
+				if (slotIds[entry - 1] == id) {
+					return entry - 1;
+				}
+			}
+		}
+
+		void put(int id, StateExpansion expansion, long bytes, AtomicLong evictions) {
+			if (bytes > budget || findSlot(id) >= 0) {
+				return;
+			}
+			while (used + bytes > budget && count > 0) {
+				evictOne();
+				evictions.incrementAndGet();
+			}
+			int slot;
+			if (numFree > 0) {
+				slot = freeSlots[--numFree];
+			}
+			else {
+				if (slotsUsed == slotIds.length) {
+					growSlots();
+				}
+				slot = slotsUsed++;
+			}
+			slotIds[slot] = id;
+			slotEntries[slot] = expansion;
+			referenced[slot] = false;
+			used += bytes;
+			if ((count + 1) * 2 > table.length) {
+				growTable();
+			}
+			insert(id, slot);
+			count++;
+		}
+
+		/**
+		 * Moves the clock hand to the next slot without its reference bit set, and evicts it.
+		 */
+		private void evictOne() {
+			while (true) {
+				if (hand >= slotsUsed) {
+					hand = 0;
+				}
+				int slot = hand++;
+				if (slotEntries[slot] == null) {
+					continue;
+				}
+				if (referenced[slot]) {
+					referenced[slot] = false;
+					continue;
+				}
+				used -= slotEntries[slot].memoryBytes();
+				remove(slotIds[slot]);
+				slotEntries[slot] = null;
+				freeSlots[numFree++] = slot;
+				count--;
+				return;
+			}
+		}
+
+		private void insert(int id, int slot) {
+			int mask = table.length - 1;
+			int i = mix(id) & mask;
+			while (table[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			table[i] = slot + 1;
+		}
+
+		/**
+		 * Removes an id from the table, shifting back later entries of its probe sequence.
+		 */
+		private void remove(int id) {
+			int mask = table.length - 1;
+			int i = mix(id) & mask;
+			while (slotIds[table[i] - 1] != id) {
+				i = (i + 1) & mask;
+			}
+			int hole = i;
+			for (int j = (hole + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+				int home = mix(slotIds[table[j] - 1]) & mask;
+				// Move the entry into the hole unless its home lies cyclically in (hole, j]
+				if (((j - home) & mask) >= ((j - hole) & mask)) {
+					table[hole] = table[j];
+					hole = j;
+				}
+			}
+			table[hole] = 0;
+		}
+
+		private void growSlots() {
+			int n = slotIds.length * 2;
+			slotIds = Arrays.copyOf(slotIds, n);
+			slotEntries = Arrays.copyOf(slotEntries, n);
+			referenced = Arrays.copyOf(referenced, n);
+			freeSlots = Arrays.copyOf(freeSlots, n);
+		}
+
+		private void growTable() {
+			table = new int[table.length * 2];
+			for (int slot = 0; slot < slotsUsed; slot++) {
+				if (slotEntries[slot] != null) {
+					insert(slotIds[slot], slot);
+				}
+			}
+		}
+
+		void replaceAll(ExpansionUpdate update) throws PrismException {
+			for (int slot = 0; slot < slotsUsed; slot++) {
+				StateExpansion old = slotEntries[slot];
+				if (old == null) {
+					continue;
+				}
+				StateExpansion updated = update.apply(slotIds[slot], old);
+				used -= old.memoryBytes();
+				if (updated == null) {
+					remove(slotIds[slot]);
+					slotEntries[slot] = null;
+					freeSlots[numFree++] = slot;
+					count--;
+				}
+				else {
+					slotEntries[slot] = updated;
+					used += updated.memoryBytes();
+				}
+			}
+		}
+
+		void clear() {
+			Arrays.fill(table, 0);
+			Arrays.fill(slotEntries, null);
+			slotsUsed = 0;
+			numFree = 0;
+			count = 0;
+			used = 0;
+			hand = 0;
+		}
+	}
+
+	/**
+	 * Creates an empty cache.
+	 * @param budgetBytes The most memory the cached expansions may use, in bytes.
+	 * @param concurrent Whether several threads may use the cache at once.
+	 */
+	TransitionCache(long budgetBytes, boolean concurrent) {
+		int numStripes = concurrent ? 64 : 1;
+		stripes = new Stripe[numStripes];
+		for (int i = 0; i < numStripes; i++) {
+			stripes[i] = new Stripe(budgetBytes / numStripes);
+		}
+		stripeMask = numStripes - 1;
+	}
+
+	/**
+	 * Gets the cached expansion of a state.
+	 * @param id The id of the state.
+	 * @return The resolved expansion, or null if it is not cached.
+	 */
+	StateExpansion get(int id) {
+		Stripe stripe = stripeOf(id);
+		synchronized (stripe) {
+			int slot = stripe.findSlot(id);
+			if (slot < 0) {
+				misses.incrementAndGet();
+				return null;
+			}
+			stripe.referenced[slot] = true;
+			hits.incrementAndGet();
+			return stripe.slotEntries[slot];
+		}
+	}
+
+	/**
+	 * Caches the expansion of a state, evicting others if the memory budget requires it.
+	 * Expansions larger than a stripe's whole budget are not cached.
+	 * @param id The id of the state.
+	 * @param expansion The resolved expansion.
+	 */
+	void put(int id, StateExpansion expansion) {
+		Stripe stripe = stripeOf(id);
+		synchronized (stripe) {
+			stripe.put(id, expansion, expansion.memoryBytes(), evictions);
+		}
+	}
+
+	/**
+	 * Makes a new expansion from a cached one.
+	 */
+	interface ExpansionUpdate {
+		/**
+		 * @param id The id of the state.
+		 * @param expansion Its cached expansion.
+		 * @return The expansion to cache instead, or null to drop it.
+		 * @throws PrismException
+		 */
+		StateExpansion apply(int id, StateExpansion expansion) throws PrismException;
+	}
+
+	/**
+	 * Replaces every cached expansion, e.g. with one with new rates when the model constants
+	 * change only rates. Not to be called while other threads use the cache.
+	 * @param update Makes the new expansion of each state, or null to drop it.
+	 * @return The number of expansions kept.
+	 * @throws PrismException
+	 */
+	int replaceAll(ExpansionUpdate update) throws PrismException {
+		int kept = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.replaceAll(update);
+				kept += stripe.count;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Removes every cached expansion, e.g. when the model or the state ids change.
+	 * The counters are kept.
+	 */
+	void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of lookups that found a cached expansion.
+	 * @return The number of hits.
+	 */
+	long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of lookups that did not find a cached expansion.
+	 * @return The number of misses.
+	 */
+	long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of expansions evicted to stay within the memory budget.
+	 * @return The number of evictions.
+	 */
+	long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Gets the memory currently used by cached expansions.
+	 * @return The (estimated) size in bytes.
+	 */
+	long getMemoryUsed() {
+		long used = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				used += stripe.used;
+			}
+		}
+		return used;
+	}
+
+	private Stripe stripeOf(int id) {
+		return stripes[(mix(id) >>> 26) & stripeMask];
+	}
+
+	private static int mix(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,352 @@
+package stamina;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import parser.State;
+import prism.PrismException;
+import prism.PrismUtils;
+
+/**
+ * Writes the transitions of the truncated model, with their actions, in the order PRISM
+ * would: states are numbered in the natural order of their variable values, and each state's
+ * transitions are sorted by target (transitions to the same target keep the order of their
+ * choices). This is what {@code -exportTrans} writes.
+ *
+ * The order of the states is found by sorting their ids by their packed form in the global
+ * state set, which the {@link StateEncoder} lays out so that comparing packed states word by
+ * word gives the same order as comparing the states. Only the ids are kept for every state;
+ * the packed states are sorted a chunk at a time, and if there is more than one chunk, the
+ * sorted chunks are written to temporary files and merged. The transitions are then streamed
+ * out state by state, so no state objects or boxed indices are kept for the whole model.
+ */
+class TransitionExporter {
+	// Least number of states sorted in memory at once
+	private static final int MIN_CHUNK = 1 << 16;
+	// Size of the output buffer, in characters
+	private static final int OUTPUT_BUFFER = 1 << 20;
+
+	private final StaminaModelGenerator modelGen;
+	private final PackedStateIndex globalStateSet;
+	private final int numStates;
+	private final int numWords;
+	// Whether the model has an absorbing state, which PRISM numbers 0
+	private final boolean hasAbsorbing;
+
+	// Scratch space for the transitions of one state: PRISM number of the target, choice and transition
+	private int[] rowTargets = new int[16];
+	private int[] rowChoices = new int[16];
+	private int[] rowTransitions = new int[16];
+	private int[] rowOrder = new int[16];
+	private int[] rowScratch = new int[16];
+
+	/**
+	 * Creates an exporter of the model explored by a generator.
+	 * @param modelGen The generator, after its last reachability analysis.
+	 */
+	TransitionExporter(StaminaModelGenerator modelGen) {
+		this.modelGen = modelGen;
+		this.globalStateSet = modelGen.getGlobalStateSet();
+		this.numStates = globalStateSet.size();
+		this.numWords = globalStateSet.getEncoder().getNumWords();
+		this.hasAbsorbing = modelGen.finalModelHasAbsorbing();
+	}
+
+	/**
+	 * Writes the transitions to a file, one per line, as the PRISM number of the source and
+	 * target, the rate and the action.
+	 * @param fileName The file to write.
+	 * @throws PrismException If a state can't be explored.
+	 * @throws IOException If the file (or a temporary file) can't be written.
+	 */
+	void export(String fileName) throws PrismException, IOException {
+		int[] order = sortStates();
+		// The absorbing state has values below every variable's range, so comes first
+		int offset = hasAbsorbing ? 1 : 0;
+		int[] rank = new int[numStates];
+		for (int i = 0; i < numStates; i++) {
+			rank[order[i]] = i + offset;
+		}
+
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(fileName), OUTPUT_BUFFER)) {
+			if (hasAbsorbing) {
+				writeRow(out, modelGen.getAbsorbingState(), 0, rank);
+			}
+			for (int i = 0; i < numStates; i++) {
+				writeRow(out, globalStateSet.getState(order[i]), i + offset, rank);
+			}
+		}
+	}
+
+	/**
+	 * Writes the transitions of one state, sorted by the PRISM number of their target.
+	 */
+	private void writeRow(BufferedWriter out, State state, int source, int[] rank) throws PrismException, IOException {
+		modelGen.exploreState(state);
+		int length = 0;
+		int nc = modelGen.getNumChoices();
+		for (int i = 0; i < nc; i++) {
+			int nt = modelGen.getNumTransitions(i);
+			for (int j = 0; j < nt; j++) {
+				ensureRowCapacity(length + 1);
+				int id = globalStateSet.find(modelGen.computeTransitionTarget(i, j));
+				// Transitions leaving the state set go to the absorbing state
+				rowTargets[length] = id < 0 ? 0 : rank[id];
+				rowChoices[length] = i;
+				rowTransitions[length] = j;
+				rowOrder[length] = length;
+				length++;
+			}
+		}
+		sortRow(0, length);
+		String prefix = source + " ";
+		for (int k = 0; k < length; k++) {
+			int t = rowOrder[k];
+			int i = rowChoices[t];
+			int j = rowTransitions[t];
+			out.write(prefix + rowTargets[t] + " " + PrismUtils.formatDouble(modelGen.getTransitionProbability(i, j))
+				+ " " + modelGen.getTransitionAction(i, j));
+			out.newLine();
+		}
+	}
+
+	/**
+	 * Stably sorts part of the row by target, by merge sort.
+	 */
+	private void sortRow(int lo, int hi) {
+		if (hi - lo < 2) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		sortRow(lo, mid);
+		sortRow(mid, hi);
+		System.arraycopy(rowOrder, lo, rowScratch, lo, hi - lo);
+		int a = lo;
+		int b = mid;
+		for (int k = lo; k < hi; k++) {
+			if (b >= hi || (a < mid && rowTargets[rowScratch[a]] <= rowTargets[rowScratch[b]])) {
+				rowOrder[k] = rowScratch[a++];
+			}
+			else {
+				rowOrder[k] = rowScratch[b++];
+			}
+		}
+	}
+
+	private void ensureRowCapacity(int size) {
+		if (size > rowTargets.length) {
+			int n = Math.max(rowTargets.length * 2, size);
+			rowTargets = Arrays.copyOf(rowTargets, n);
+			rowChoices = Arrays.copyOf(rowChoices, n);
+			rowTransitions = Arrays.copyOf(rowTransitions, n);
+			rowOrder = new int[n];
+			rowScratch = new int[n];
+		}
+	}
+
+	/**
+	 * Sorts the ids of the states by their packed form, in chunks that fit in the free heap,
+	 * merging the sorted chunks from temporary files if there is more than one.
+	 * @return The ids in PRISM's order.
+	 * @throws IOException If a temporary file can't be written or read.
+	 */
+	private int[] sortStates() throws IOException {
+		// Each state in a chunk takes its packed form, its id, and the sort's scratch space
+		long bytesPerState = (long) numWords * Long.BYTES * 2 + Integer.BYTES * 2;
+		long chunkStates = Math.max(MIN_CHUNK, freeHeap() / 4 / bytesPerState);
+		int chunkSize = (int) Math.min(numStates, chunkStates);
+		int[] order = new int[numStates];
+		if (chunkSize == numStates) {
+			sortChunk(0, numStates, order);
+			return order;
+		}
+
+		StaminaLog.log("Sorting " + numStates + " states for the transition export in chunks of " + chunkSize);
+		List<Path> runs = new ArrayList<Path>();
+		try {
+			int[] ids = new int[chunkSize];
+			long[] key = new long[numWords];
+			for (int start = 0; start < numStates; start += chunkSize) {
+				int end = Math.min(numStates, start + chunkSize);
+				sortChunk(start, end, ids);
+				Path run = Files.createTempFile("stamina-", ".run");
+				run.toFile().deleteOnExit();
+				runs.add(run);
+				try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+					ChannelOutput runOut = new ChannelOutput(channel);
+					for (int k = 0; k < end - start; k++) {
+						globalStateSet.readKey(ids[k], key);
+						for (long word : key) {
+							runOut.putLong(word);
+						}
+						runOut.putInt(ids[k]);
+					}
+					runOut.flush();
+				}
+			}
+			mergeRuns(runs, order);
+		}
+		finally {
+			for (Path run : runs) {
+				Files.deleteIfExists(run);
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Sorts the ids from start up to (but not including) end by their packed form.
+	 * @param ids Array to write the sorted ids to, from 0.
+	 */
+	private void sortChunk(int start, int end, int[] ids) {
+		int n = end - start;
+		long[] keys = new long[n * numWords];
+		long[] key = new long[numWords];
+		int[] local = new int[n];
+		for (int k = 0; k < n; k++) {
+			globalStateSet.readKey(start + k, key);
+			System.arraycopy(key, 0, keys, k * numWords, numWords);
+			local[k] = k;
+		}
+		sortByKey(local, new int[n], keys, 0, n);
+		for (int k = 0; k < n; k++) {
+			ids[k] = start + local[k];
+		}
+	}
+
+	/**
+	 * Merge sorts indices into an array of packed states by the states.
+	 */
+	private void sortByKey(int[] idx, int[] scratch, long[] keys, int lo, int hi) {
+		if (hi - lo < 2) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		sortByKey(idx, scratch, keys, lo, mid);
+		sortByKey(idx, scratch, keys, mid, hi);
+		System.arraycopy(idx, lo, scratch, lo, hi - lo);
+		int a = lo;
+		int b = mid;
+		for (int k = lo; k < hi; k++) {
+			if (b >= hi || (a < mid && compareKeys(keys, scratch[a] * numWords, keys, scratch[b] * numWords) <= 0)) {
+				idx[k] = scratch[a++];
+			}
+			else {
+				idx[k] = scratch[b++];
+			}
+		}
+	}
+
+	/**
+	 * Merges sorted runs of packed states and ids into the order of the ids.
+	 */
+	private void mergeRuns(List<Path> runs, int[] order) throws IOException {
+		int numRuns = runs.size();
+		FileChannel[] channels = new FileChannel[numRuns];
+		MappedInput[] inputs = new MappedInput[numRuns];
+		// The current packed state and id of each run, and how many of its states are left
+		long[] heads = new long[numRuns * numWords];
+		int[] headIds = new int[numRuns];
+		long[] remaining = new long[numRuns];
+		// Runs with states left, as a binary heap on their current state
+		int[] heap = new int[numRuns];
+		int heapSize = 0;
+		try {
+			for (int r = 0; r < numRuns; r++) {
+				channels[r] = FileChannel.open(runs.get(r), StandardOpenOption.READ);
+				inputs[r] = new MappedInput(channels[r], "Sorted run " + runs.get(r));
+				remaining[r] = channels[r].size() / ((long) numWords * Long.BYTES + Integer.BYTES);
+				if (remaining[r] > 0) {
+					readHead(inputs[r], heads, headIds, remaining, r);
+					heap[heapSize] = r;
+					siftUp(heap, heapSize++, heads);
+				}
+			}
+			for (int i = 0; i < numStates; i++) {
+				int r = heap[0];
+				order[i] = headIds[r];
+				if (remaining[r] > 0) {
+					readHead(inputs[r], heads, headIds, remaining, r);
+				}
+				else {
+					heap[0] = heap[--heapSize];
+				}
+				siftDown(heap, heapSize, heads);
+			}
+		}
+		finally {
+			for (FileChannel channel : channels) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+		}
+	}
+
+	private void readHead(MappedInput in, long[] heads, int[] headIds, long[] remaining, int r) throws IOException {
+		for (int w = 0; w < numWords; w++) {
+			heads[r * numWords + w] = in.getLong();
+		}
+		headIds[r] = in.getInt();
+		remaining[r]--;
+	}
+
+	private void siftUp(int[] heap, int pos, long[] heads) {
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (compareKeys(heads, heap[pos] * numWords, heads, heap[parent] * numWords) >= 0) {
+				break;
+			}
+			int tmp = heap[pos];
+			heap[pos] = heap[parent];
+			heap[parent] = tmp;
+			pos = parent;
+		}
+	}
+
+	private void siftDown(int[] heap, int size, long[] heads) {
+		int pos = 0;
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && compareKeys(heads, heap[child + 1] * numWords, heads, heap[child] * numWords) < 0) {
+				child++;
+			}
+			if (compareKeys(heads, heap[child] * numWords, heads, heap[pos] * numWords) >= 0) {
+				break;
+			}
+			int tmp = heap[pos];
+			heap[pos] = heap[child];
+			heap[child] = tmp;
+			pos = child;
+		}
+	}
+
+	/**
+	 * Compares two packed states word by word, as unsigned numbers.
+	 */
+	private int compareKeys(long[] a, int aPos, long[] b, int bPos) {
+		for (int w = 0; w < numWords; w++) {
+			int c = Long.compareUnsigned(a[aPos + w], b[bPos + w]);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	private static long freeHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+}
@@ -0,0 +1,253 @@
+package stamina;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import explicit.FoxGlynn;
+import prism.PrismException;
+
+/**
+ * Transient analysis of a {@link SparseCTMC} by uniformisation, as an alternative to PRISM's
+ * {@code CTMCModelChecker.doTransient()}. The CTMC is uniformised into a DTMC with rate
+ * {@code q}, and the transient distribution at time {@code t} is the sum of the DTMC's
+ * distributions after {@code k} steps weighted by the Poisson probabilities of {@code k}
+ * jumps, which are computed (and truncated) by Fox-Glynn.
+ *
+ * Each step is a vector-matrix product with the uniformised DTMC. The matrix is transposed
+ * first, so each state gathers the probability flowing into it, and the states are split into
+ * blocks of about the same number of transitions, which are stepped in parallel on a fork/join
+ * pool. Once the distribution stops changing, i.e. no state's probability changes by more
+ * than the accuracy relative to its size (PRISM's default, relative, termination criterion),
+ * the remaining Poisson weight is added in one go.
+ */
+class UniformisationSolver {
+	// The number of blocks per thread, so threads that finish early can take another block
+	private static final int BLOCKS_PER_THREAD = 4;
+	// PRISM uniformises with a rate slightly above the largest exit rate
+	private static final double UNIFORMISATION_FACTOR = 1.02;
+
+	private final ForkJoinPool pool;
+
+	// The uniformised DTMC, transposed: the states and probabilities of the transitions into
+	// each state, and the probability of each state staying where it is
+	private int numStates;
+	private int[] inStarts;
+	private int[] inSources;
+	private double[] inProbs;
+	private double[] stayProbs;
+	// Where each block of states starts, with numStates at the end
+	private int[] blockStarts;
+
+	// The distribution after the last step, the next one, and the weighted sum so far
+	private double[] soln;
+	private double[] soln2;
+	private double[] sum;
+
+	private int lastIterations = 0;
+
+	/**
+	 * Creates a solver.
+	 * @param pool The thread pool to step the distribution in, or null to use only the calling thread.
+	 */
+	UniformisationSolver(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Computes the probability of being in each state at a given time, starting from the
+	 * initial state.
+	 * @param ctmc The CTMC.
+	 * @param time The time.
+	 * @param accuracy The accuracy of the Fox-Glynn truncation, which is also the relative change
+	 * of every state's probability below which the distribution is taken to have converged.
+	 * @return The probability of each state.
+	 * @throws PrismException If the time is negative or Fox-Glynn fails.
+	 */
+	double[] computeTransientProbs(SparseCTMC ctmc, double time, double accuracy) throws PrismException {
+		if (time < 0) {
+			throw new PrismException("Transient analysis needs a non-negative time, not " + time);
+		}
+		double q = uniformise(ctmc);
+		soln = new double[numStates];
+		soln[ctmc.getInitialState()] = 1.0;
+		lastIterations = 0;
+		if (q == 0 || time == 0) {
+			return soln;
+		}
+
+		FoxGlynn fg = new FoxGlynn(q * time, 1.0e-300, 1.0e+300, accuracy);
+		int left = fg.getLeftTruncationPoint();
+		int right = fg.getRightTruncationPoint();
+		if (right < 0) {
+			throw new PrismException("Overflow in Fox-Glynn computation (time bound too big?)");
+		}
+		double[] weights = fg.getWeights();
+		double totalWeight = fg.getTotalWeight();
+		for (int i = left; i <= right; i++) {
+			weights[i - left] /= totalWeight;
+		}
+
+		soln2 = new double[numStates];
+		sum = new double[numStates];
+		if (left == 0) {
+			sum[ctmc.getInitialState()] += weights[0];
+		}
+		for (int iters = 1; iters <= right; iters++) {
+			double weight = iters >= left ? weights[iters - left] : 0.0;
+			double maxChange = step(weight);
+			double[] tmp = soln;
+			soln = soln2;
+			soln2 = tmp;
+			lastIterations = iters;
+			if (maxChange < accuracy) {
+				// Converged, so every later step adds the same distribution
+				double remaining = 0.0;
+				for (int i = Math.max(iters + 1, left); i <= right; i++) {
+					remaining += weights[i - left];
+				}
+				for (int s = 0; s < numStates; s++) {
+					sum[s] += remaining * soln[s];
+				}
+				break;
+			}
+		}
+		double[] result = sum;
+		soln = soln2 = sum = null;
+		return result;
+	}
+
+	/**
+	 * Gets the number of steps of the last transient computation.
+	 * @return The number of vector-matrix products done.
+	 */
+	int getLastIterations() {
+		return lastIterations;
+	}
+
+	/**
+	 * Builds the transposed uniformised DTMC of a CTMC and splits its states into blocks.
+	 * @return The uniformisation rate, or 0 if the CTMC has no transitions between different states.
+	 */
+	private double uniformise(SparseCTMC ctmc) {
+		numStates = ctmc.getNumStates();
+		// Exit rates, counting self-loops only for the uniformisation rate as PRISM does
+		double[] exitRates = new double[numStates];
+		double maxRate = 0.0;
+		inStarts = new int[numStates + 1];
+		for (int s = 0; s < numStates; s++) {
+			double total = 0.0;
+			for (int k = ctmc.getRowStart(s); k < ctmc.getRowEnd(s); k++) {
+				int t = ctmc.getColumn(k);
+				total += ctmc.getRate(k);
+				if (t != s) {
+					exitRates[s] += ctmc.getRate(k);
+					inStarts[t + 1]++;
+				}
+			}
+			maxRate = Math.max(maxRate, total);
+		}
+		double q = UNIFORMISATION_FACTOR * maxRate;
+		for (int s = 0; s < numStates; s++) {
+			inStarts[s + 1] += inStarts[s];
+		}
+		int numIn = inStarts[numStates];
+		inSources = new int[numIn];
+		inProbs = new double[numIn];
+		int[] next = new int[numStates];
+		System.arraycopy(inStarts, 0, next, 0, numStates);
+		for (int s = 0; s < numStates; s++) {
+			for (int k = ctmc.getRowStart(s); k < ctmc.getRowEnd(s); k++) {
+				int t = ctmc.getColumn(k);
+				if (t != s) {
+					inSources[next[t]] = s;
+					inProbs[next[t]] = ctmc.getRate(k) / q;
+					next[t]++;
+				}
+			}
+		}
+		stayProbs = new double[numStates];
+		for (int s = 0; s < numStates; s++) {
+			stayProbs[s] = q == 0 ? 1.0 : 1.0 - exitRates[s] / q;
+		}
+
+		// Blocks of about the same work, counting each state and each transition
+		int numBlocks = pool == null ? 1 : pool.getParallelism() * BLOCKS_PER_THREAD;
+		long work = (long) numStates + numIn;
+		blockStarts = new int[numBlocks + 1];
+		int s = 0;
+		for (int b = 1; b < numBlocks; b++) {
+			long target = work * b / numBlocks;
+			while (s < numStates && (long) s + inStarts[s] < target) {
+				s++;
+			}
+			blockStarts[b] = s;
+		}
+		blockStarts[numBlocks] = numStates;
+		return q;
+	}
+
+	/**
+	 * Does one step of the uniformised DTMC from soln into soln2, adding the new distribution
+	 * times a weight to the sum.
+	 * @return The largest change in the probability of a state, relative to the larger of its
+	 * old and new probability.
+	 */
+	private double step(double weight) {
+		int numBlocks = blockStarts.length - 1;
+		if (pool == null || numBlocks == 1) {
+			return stepBlock(blockStarts[0], blockStarts[numBlocks], weight);
+		}
+		return pool.invoke(new StepTask(0, numBlocks, weight));
+	}
+
+	/**
+	 * Steps the states from lo up to (but not including) hi.
+	 */
+	private double stepBlock(int lo, int hi, double weight) {
+		double maxChange = 0.0;
+		for (int s = lo; s < hi; s++) {
+			double p = soln[s] * stayProbs[s];
+			for (int k = inStarts[s]; k < inStarts[s + 1]; k++) {
+				p += soln[inSources[k]] * inProbs[k];
+			}
+			soln2[s] = p;
+			if (weight != 0.0) {
+				sum[s] += weight * p;
+			}
+			double larger = Math.max(p, soln[s]);
+			if (larger > 0.0) {
+				maxChange = Math.max(maxChange, Math.abs(p - soln[s]) / larger);
+			}
+		}
+		return maxChange;
+	}
+
+	/**
+	 * Steps a range of blocks, splitting it so idle threads can take part of it.
+	 */
+	private class StepTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final int lo;
+		private final int hi;
+		private final double weight;
+
+		StepTask(int lo, int hi, double weight) {
+			this.lo = lo;
+			this.hi = hi;
+			this.weight = weight;
+		}
+
+		@Override
+		protected Double compute() {
+			if (hi - lo == 1) {
+				return stepBlock(blockStarts[lo], blockStarts[hi], weight);
+			}
+			int mid = (lo + hi) >>> 1;
+			StepTask right = new StepTask(mid, hi, weight);
+			right.fork();
+			double leftChange = new StepTask(lo, mid, weight).compute();
+			return Math.max(leftChange, right.join());
+		}
+	}
+}